@@ -6,7 +6,12 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
- * 
+ *
+ * <p>
+ * The copies handed out by {@link #immutableBook()} and
+ * {@link #immutableStockBook()} are cached, so reading a book which did not
+ * change since it was last read allocates nothing.
+ *
  * @see Book
  * @see StockBook
  * @see ImmutableBook
@@ -28,6 +33,12 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
+	/** The {@link ImmutableBook} copy of the book, shared by all readers. */
+	private final ImmutableBook bookView;
+
+	/** The last {@link StockBook} copy of the book handed out, or null. */
+	private StockBook stockBookView = null;
+
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
 	 *
@@ -45,6 +56,8 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
 		super(isbn, title, author, price);
 
+		this.bookView = new ImmutableBook(isbn, title, author, price);
+
 		this.setNumSaleMisses(0);
 		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
@@ -62,6 +75,9 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(StockBook bookToCopy) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
+		this.bookView = new ImmutableBook(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(),
+				bookToCopy.getPrice());
+
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
 		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
@@ -173,6 +189,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+		changed();
 	}
 
 	/**
@@ -196,6 +213,7 @@ public class BookStoreBook extends ImmutableBook {
 	public boolean buyCopies(int numCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
 			this.numCopies -= numCopies;
+			changed();
 			return true;
 		}
 
@@ -212,6 +230,7 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
 			this.numCopies += numNewCopies;
 			this.numSaleMisses = 0;
+			changed();
 		}
 	}
 
@@ -223,6 +242,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addSaleMiss(int numSaleMisses) {
 		this.numSaleMisses += numSaleMisses;
+		changed();
 	}
 
 	/**
@@ -235,9 +255,18 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
 			this.totalRating += rating;
 			this.numTimesRated++;
+			changed();
 		}
 	}
 
+	/**
+	 * Records a change of the mutable fields, which invalidates the cached
+	 * {@link StockBook} copy.
+	 */
+	private void changed() {
+		this.stockBookView = null;
+	}
+
 	/**
 	 * Checks if someone tried to buy the book, while the book was not in stock,
 	 * also known as having sale misses.
@@ -260,24 +289,29 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} copy of the book. The copy is made once
+	 * and shared, since these fields never change.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		return bookView;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} copy of the book. The copy is cached and
+	 * only made again once the mutable fields changed.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		if (this.stockBookView == null) {
+			this.stockBookView = new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(),
+					this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
+					this.editorPick);
+		}
+
+		return this.stockBookView;
 	}
 
 	/**
@@ -286,7 +320,6 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), this.numCopies);
 	}
 }
@@ -24,6 +24,15 @@ public class CertainBookStore implements BookStore, StockManager {
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The editor picks, kept up to date by the mutations. */
+	private EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private TopRatedIndex topRatedIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private DemandIndex demandIndex = null;
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -31,6 +40,9 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		// Constructors are not synchronized
 		bookMap = new HashMap<>();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		demandIndex = new DemandIndex();
 	}
 
 	private synchronized void validate(StockBook book) throws BookStoreException {
@@ -90,6 +102,42 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 	}
 
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null && book.isEditorPick()) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? new TopRatedIndex.RankedBook(book.immutableBook(), book.getAverageRating()) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.getNumSaleMisses() : 0;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -110,6 +158,10 @@ public class CertainBookStore implements BookStore, StockManager {
 			int isbn = book.getISBN();
 			bookMap.put(isbn, new BookStoreBook(book));
 		}
+		List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+		editorPickIndex.update(addedISBNs, this::editorPickOf);
+		topRatedIndex.update(addedISBNs, this::rankedBookOf);
+		demandIndex.update(addedISBNs, this::numSaleMissesOf);
 
 	}
 
@@ -140,6 +192,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			book = bookMap.get(isbn);
 			book.addCopies(numCopies);
 		}
+		demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
 
 	}
 
@@ -176,6 +229,7 @@ public class CertainBookStore implements BookStore, StockManager {
 		for (BookEditorPick editorPickArg : editorPicks) {
 			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
 		}
+		editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), this::editorPickOf);
 	}
 
 	/*
@@ -215,6 +269,7 @@ public class CertainBookStore implements BookStore, StockManager {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
 			}
+			demandIndex.update(salesMisses.keySet(), this::numSaleMissesOf);
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
 
@@ -272,35 +327,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		// Get all books that are editor picks.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream().map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick()).collect(Collectors.toList());
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
-
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream().map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
+		return editorPickIndex.sample(numBooks);
 	}
 
     /*
@@ -314,28 +341,7 @@ public class CertainBookStore implements BookStore, StockManager {
             throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
         }
 
-        // Get all books that are editor picks.
-        BookStoreBook[] listAllBooks = bookMap.values().toArray(BookStoreBook[]::new);
-
-        Arrays.sort(listAllBooks, (a, b) -> Float.compare(b.getAverageRating(), a.getAverageRating()));
-
-        Set<Integer> tobePicked = new HashSet<>();
-        int numAllBooks = listAllBooks.length;
-
-        if (numAllBooks <= numBooks) {
-            // We need to add all books.
-            for (int i = 0; i < numAllBooks; i++) {
-                tobePicked.add(i);
-            }
-        } else {
-            for (int i = 0; i < numBooks; i++) {
-                tobePicked.add(i);
-            }
-        }
-
-        // Return all the books by the randomly chosen indices.
-        return tobePicked.stream().map(index -> listAllBooks[index].immutableBook())
-                .collect(Collectors.toList());
+        return topRatedIndex.top(numBooks);
     }
 	/*
 	 * (non-Javadoc)
@@ -344,15 +350,9 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	@Override
 	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-
-
-        var bmv = bookMap.values();
-        return bmv
-                .stream()
-                .filter(b -> b.getNumSaleMisses() > 0)
-                .map(BookStoreBook::immutableStockBook)
-                .collect(Collectors.toList());
-
+		return demandIndex.inDemand().stream()
+				.map(isbn -> bookMap.get(isbn).immutableStockBook())
+				.collect(Collectors.toList());
 	}
 
     /*
@@ -383,6 +383,7 @@ public class CertainBookStore implements BookStore, StockManager {
             book = bookMap.get(bookRating.getISBN());
             book.addRating(bookRating.getRating());
         }
+        topRatedIndex.update(bookRatings.stream().map(BookRating::getISBN).collect(Collectors.toList()), this::rankedBookOf);
     }
 
 
@@ -393,6 +394,9 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		editorPickIndex.clear();
+		topRatedIndex.clear();
+		demandIndex.clear();
 	}
 
 	/*
@@ -418,5 +422,8 @@ public class CertainBookStore implements BookStore, StockManager {
 		for (int isbn : isbnSet) {
 			bookMap.remove(isbn);
 		}
+		editorPickIndex.update(isbnSet, this::editorPickOf);
+		topRatedIndex.update(isbnSet, this::rankedBookOf);
+		demandIndex.update(isbnSet, this::numSaleMissesOf);
 	}
 }
@@ -0,0 +1,134 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntToLongFunction;
+
+/**
+ * {@link DemandIndex} keeps the ISBNs of the books in demand, i.e., the books
+ * with sale misses, ordered by their number of sale misses. With it,
+ * <code>getBooksInDemand</code> visits the books in demand only instead of the
+ * whole catalog, and the most missed books are the first entries of the
+ * index.
+ *
+ * <p>
+ * The index is not thread safe; {@link CertainBookStore} only uses it from
+ * its synchronized methods.
+ */
+public class DemandIndex {
+
+	/**
+	 * {@link Demand} is the entry of a book in demand.
+	 */
+	private static final class Demand implements Comparable<Demand> {
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The number of sale misses. */
+		private final long numSaleMisses;
+
+		/**
+		 * Instantiates a new {@link Demand}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @param numSaleMisses
+		 *            the number of sale misses
+		 */
+		private Demand(int isbn, long numSaleMisses) {
+			this.isbn = isbn;
+			this.numSaleMisses = numSaleMisses;
+		}
+
+		/**
+		 * Orders the entries by decreasing number of sale misses, and then by
+		 * ISBN.
+		 *
+		 * @param other
+		 *            the other entry
+		 * @return the comparison
+		 */
+		@Override
+		public int compareTo(Demand other) {
+			int byMisses = Long.compare(other.numSaleMisses, numSaleMisses);
+			return (byMisses != 0) ? byMisses : Integer.compare(isbn, other.isbn);
+		}
+	}
+
+	/** The books in demand, most missed first. */
+	private final TreeSet<Demand> ranking = new TreeSet<>();
+
+	/** The entry of each book in {@link #ranking}, by ISBN. */
+	private final Map<Integer, Demand> entries = new HashMap<>();
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, whose
+	 * sale misses changed or which were added or removed.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param numSaleMissesOf
+	 *            the function giving the number of sale misses of a book, and
+	 *            zero if it is not in stock
+	 */
+	public void update(Collection<Integer> isbns, IntToLongFunction numSaleMissesOf) {
+		for (int isbn : isbns) {
+			Demand previous = entries.remove(isbn);
+			long numSaleMisses = numSaleMissesOf.applyAsLong(isbn);
+
+			if (previous != null) {
+				ranking.remove(previous);
+			}
+
+			if (numSaleMisses > 0) {
+				Demand next = new Demand(isbn, numSaleMisses);
+				ranking.add(next);
+				entries.put(isbn, next);
+			}
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear() {
+		entries.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the <code>numBooks</code> most missed books, or of all
+	 * books in demand if there are not that many.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the ISBNs, most missed first
+	 */
+	public List<Integer> mostMissed(int numBooks) {
+		List<Integer> result = new ArrayList<>(Math.min(numBooks, ranking.size()));
+
+		for (Demand demand : ranking) {
+			if (result.size() >= numBooks) {
+				break;
+			}
+
+			result.add(demand.isbn);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the ISBNs of all books in demand.
+	 *
+	 * @return the ISBNs, most missed first
+	 */
+	public List<Integer> inDemand() {
+		return mostMissed(Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,127 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+/**
+ * {@link EditorPickIndex} keeps the editor picks of a store in a dense list,
+ * so that <code>getEditorPicks</code> can sample them in time proportional to
+ * the number of books requested rather than to the size of the catalog.
+ *
+ * <p>
+ * The index is not thread safe; {@link CertainBookStore} only uses it from
+ * its synchronized methods.
+ */
+public class EditorPickIndex {
+
+	/** The editor picks. */
+	private final List<Book> picks = new ArrayList<>();
+
+	/** The position of each editor pick in {@link #picks}, by ISBN. */
+	private final Map<Integer, Integer> positions = new HashMap<>();
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, whose
+	 * editor pick flags changed or which were added or removed.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param editorPickOf
+	 *            the function giving the client view of a book if it is an
+	 *            editor pick, and null if it is not or is no longer in stock
+	 */
+	public void update(Collection<Integer> isbns, IntFunction<? extends Book> editorPickOf) {
+		for (int isbn : isbns) {
+			Book book = editorPickOf.apply(isbn);
+
+			if (book != null) {
+				put(book);
+			} else {
+				remove(isbn);
+			}
+		}
+	}
+
+	/**
+	 * Removes all editor picks.
+	 */
+	public void clear() {
+		picks.clear();
+		positions.clear();
+	}
+
+	/**
+	 * Adds or replaces an editor pick.
+	 *
+	 * @param book
+	 *            the client view of the book
+	 */
+	private void put(Book book) {
+		Integer position = positions.get(book.getISBN());
+
+		if (position != null) {
+			picks.set(position, book);
+		} else {
+			positions.put(book.getISBN(), picks.size());
+			picks.add(book);
+		}
+	}
+
+	/**
+	 * Removes an editor pick by moving the last one into its position.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	private void remove(int isbn) {
+		Integer position = positions.remove(isbn);
+
+		if (position == null) {
+			return;
+		}
+
+		Book last = picks.remove(picks.size() - 1);
+
+		if (position < picks.size()) {
+			picks.set(position, last);
+			positions.put(last.getISBN(), position);
+		}
+	}
+
+	/**
+	 * Gets <code>numBooks</code> distinct editor picks chosen uniformly at
+	 * random with a partial Fisher-Yates shuffle, or all of them if there are
+	 * not that many. The shuffle runs on a virtual copy of the positions in
+	 * which only the positions that were swapped are recorded.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the editor picks
+	 */
+	public List<Book> sample(int numBooks) {
+		int size = picks.size();
+
+		if (numBooks >= size) {
+			return new ArrayList<>(picks);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Map<Integer, Integer> swapped = new HashMap<>();
+		List<Book> result = new ArrayList<>(numBooks);
+
+		for (int i = 0; i < numBooks; i++) {
+			int j = i + random.nextInt(size - i);
+			int atJ = swapped.getOrDefault(j, j);
+
+			swapped.put(j, swapped.getOrDefault(i, i));
+			result.add(picks.get(atJ));
+		}
+
+		return result;
+	}
+}
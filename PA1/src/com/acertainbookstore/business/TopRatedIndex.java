@@ -0,0 +1,123 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+
+/**
+ * {@link TopRatedIndex} keeps the books of a store ordered by their average
+ * rating, so that <code>getTopRatedBooks</code> returns the first entries of
+ * the ranking in time proportional to the number of books requested instead
+ * of sorting the catalog.
+ *
+ * <p>
+ * The index is not thread safe; {@link CertainBookStore} only uses it from
+ * its synchronized methods.
+ */
+public class TopRatedIndex {
+
+	/**
+	 * {@link RankedBook} is the entry of a book in the ranking: the client view
+	 * of the book together with the average rating it is ranked by.
+	 */
+	public static final class RankedBook implements Comparable<RankedBook> {
+
+		/** The client view of the book. */
+		private final Book book;
+
+		/** The average rating. */
+		private final float averageRating;
+
+		/**
+		 * Instantiates a new {@link RankedBook}.
+		 *
+		 * @param book
+		 *            the client view of the book
+		 * @param averageRating
+		 *            the average rating
+		 */
+		public RankedBook(Book book, float averageRating) {
+			this.book = book;
+			this.averageRating = averageRating;
+		}
+
+		/**
+		 * Orders the entries by decreasing average rating, and then by ISBN.
+		 *
+		 * @param other
+		 *            the other entry
+		 * @return the comparison
+		 */
+		@Override
+		public int compareTo(RankedBook other) {
+			int byRating = Float.compare(other.averageRating, averageRating);
+			return (byRating != 0) ? byRating : Integer.compare(book.getISBN(), other.book.getISBN());
+		}
+	}
+
+	/** The ranking, best rated first. */
+	private final TreeSet<RankedBook> ranking = new TreeSet<>();
+
+	/** The entry of each book in {@link #ranking}, by ISBN. */
+	private final Map<Integer, RankedBook> entries = new HashMap<>();
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, whose
+	 * ratings changed or which were added or removed.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param rankedBookOf
+	 *            the function giving the entry of a book, or null if it is no
+	 *            longer in stock
+	 */
+	public void update(Collection<Integer> isbns, IntFunction<RankedBook> rankedBookOf) {
+		for (int isbn : isbns) {
+			RankedBook previous = entries.remove(isbn);
+			RankedBook next = rankedBookOf.apply(isbn);
+
+			if (previous != null) {
+				ranking.remove(previous);
+			}
+
+			if (next != null) {
+				ranking.add(next);
+				entries.put(isbn, next);
+			}
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear() {
+		entries.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Gets the <code>numBooks</code> best rated books, or all of them if there
+	 * are not that many.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books, best rated first
+	 */
+	public List<Book> top(int numBooks) {
+		List<Book> result = new ArrayList<>(Math.min(numBooks, ranking.size()));
+
+		for (RankedBook ranked : ranking) {
+			if (result.size() >= numBooks) {
+				break;
+			}
+
+			result.add(ranked.book);
+		}
+
+		return result;
+	}
+}
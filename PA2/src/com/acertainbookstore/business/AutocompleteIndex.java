@@ -0,0 +1,372 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * {@link AutocompleteIndex} is a radix trie of phrases, i.e., normalized
+ * titles and authors, each counted by the number of books having it. It
+ * completes a prefix with the most frequent phrases starting with it, in time
+ * depending on the length of the prefix and on the number of completions, but
+ * not on the number of phrases.
+ *
+ * <p>
+ * The edges of the trie are labelled with strings rather than characters, so
+ * a chain of nodes with a single child is stored as one node, and the trie has
+ * at most twice as many nodes as phrases. Every node records the highest count
+ * in its subtree, which lets the completion visit the subtrees best first and
+ * stop after the requested number of phrases. The index is not thread-safe; it
+ * is guarded by the lock of the {@link SearchIndex} owning it.
+ */
+class AutocompleteIndex {
+
+	/**
+	 * {@link Node} is a node of the trie.
+	 */
+	private static final class Node {
+
+		/** The empty array of children. */
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		/** The label of the edge from the parent. */
+		private String label;
+
+		/** The children, in order of the first character of their labels. */
+		private Node[] children = NO_CHILDREN;
+
+		/** The phrase ending at the node, or null. */
+		private String phrase = null;
+
+		/** The number of books having the phrase. */
+		private int count = 0;
+
+		/** The highest count in the subtree of the node. */
+		private int maxCount = 0;
+
+		/**
+		 * Instantiates a new {@link Node}.
+		 *
+		 * @param label
+		 *            the label of the edge from the parent
+		 */
+		private Node(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Gets the position of the child whose label starts with a character.
+		 *
+		 * @param c
+		 *            the character
+		 * @return the position, or -(insertion point) - 1 if there is none
+		 */
+		private int indexOf(char c) {
+			int low = 0;
+			int high = children.length - 1;
+
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char first = children[middle].label.charAt(0);
+
+				if (first < c) {
+					low = middle + 1;
+				} else if (first > c) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+
+			return -(low + 1);
+		}
+
+		/**
+		 * Inserts a child at a position.
+		 *
+		 * @param position
+		 *            the position
+		 * @param child
+		 *            the child
+		 */
+		private void insertChild(int position, Node child) {
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(children, 0, newChildren, 0, position);
+			newChildren[position] = child;
+			System.arraycopy(children, position, newChildren, position + 1, children.length - position);
+			children = newChildren;
+		}
+
+		/**
+		 * Removes the child at a position.
+		 *
+		 * @param position
+		 *            the position
+		 */
+		private void removeChild(int position) {
+			if (children.length == 1) {
+				children = NO_CHILDREN;
+				return;
+			}
+
+			Node[] newChildren = new Node[children.length - 1];
+			System.arraycopy(children, 0, newChildren, 0, position);
+			System.arraycopy(children, position + 1, newChildren, position, newChildren.length - position);
+			children = newChildren;
+		}
+
+		/**
+		 * Recomputes {@link #maxCount} from the count and the children.
+		 */
+		private void updateMaxCount() {
+			int max = count;
+
+			for (Node child : children) {
+				max = Math.max(max, child.maxCount);
+			}
+
+			maxCount = max;
+		}
+	}
+
+	/**
+	 * {@link Candidate} is a subtree or a phrase waiting to be visited by a
+	 * completion.
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+
+		/** The node. */
+		private final Node node;
+
+		/** Whether the candidate is the phrase of the node or its subtree. */
+		private final boolean isPhrase;
+
+		/**
+		 * Instantiates a new {@link Candidate}.
+		 *
+		 * @param node
+		 *            the node
+		 * @param isPhrase
+		 *            whether the candidate is the phrase of the node
+		 */
+		private Candidate(Node node, boolean isPhrase) {
+			this.node = node;
+			this.isPhrase = isPhrase;
+		}
+
+		/**
+		 * Gets the highest count the candidate can yield.
+		 *
+		 * @return the count
+		 */
+		private int priority() {
+			return isPhrase ? node.count : node.maxCount;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(Candidate other) {
+			int result = Integer.compare(other.priority(), priority());
+
+			// A phrase comes before a subtree yielding the same count.
+			return (result != 0) ? result : Boolean.compare(other.isPhrase, isPhrase);
+		}
+	}
+
+	/** The root, whose label is empty. */
+	private final Node root = new Node("");
+
+	/**
+	 * Counts one more book having a phrase.
+	 *
+	 * @param phrase
+	 *            the phrase, not empty
+	 */
+	void add(String phrase) {
+		List<Node> path = new ArrayList<>();
+		Node node = root;
+		int position = 0;
+		path.add(node);
+
+		while (position < phrase.length()) {
+			int index = node.indexOf(phrase.charAt(position));
+
+			if (index < 0) {
+				Node leaf = new Node(phrase.substring(position));
+				node.insertChild(-index - 1, leaf);
+				node = leaf;
+				path.add(node);
+				break;
+			}
+
+			Node child = node.children[index];
+			int common = commonPrefixLength(child.label, phrase, position);
+
+			if (common < child.label.length()) {
+				// Split the edge where the phrase leaves it.
+				Node middle = new Node(child.label.substring(0, common));
+				child.label = child.label.substring(common);
+				middle.children = new Node[] { child };
+				middle.updateMaxCount();
+				node.children[index] = middle;
+				child = middle;
+			}
+
+			node = child;
+			path.add(node);
+			position += common;
+		}
+
+		node.phrase = phrase;
+		node.count++;
+
+		for (int i = path.size() - 1; i >= 0; i--) {
+			path.get(i).updateMaxCount();
+		}
+	}
+
+	/**
+	 * Counts one less book having a phrase, which must have been added.
+	 *
+	 * @param phrase
+	 *            the phrase, not empty
+	 */
+	void remove(String phrase) {
+		List<Node> path = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		Node node = root;
+		int position = 0;
+		path.add(node);
+
+		while (position < phrase.length()) {
+			int index = node.indexOf(phrase.charAt(position));
+
+			if (index < 0 || !phrase.startsWith(node.children[index].label, position)) {
+				return;
+			}
+
+			node = node.children[index];
+			path.add(node);
+			indexes.add(index);
+			position += node.label.length();
+		}
+
+		if (node.count == 0) {
+			return;
+		}
+
+		if (--node.count == 0) {
+			node.phrase = null;
+		}
+
+		// Remove the nodes left without a phrase or children, and merge the
+		// nodes left without a phrase with their only child.
+		for (int i = path.size() - 1; i > 0; i--) {
+			Node current = path.get(i);
+			Node parent = path.get(i - 1);
+			int index = indexes.get(i - 1);
+
+			if (current.count == 0 && current.children.length == 0) {
+				parent.removeChild(index);
+			} else if (current.count == 0 && current.children.length == 1) {
+				Node child = current.children[0];
+				child.label = current.label + child.label;
+				parent.children[index] = child;
+			} else {
+				current.updateMaxCount();
+			}
+		}
+
+		root.updateMaxCount();
+	}
+
+	/**
+	 * Gets up to <code>numPhrases</code> phrases starting with
+	 * <code>prefix</code>, the most frequent first.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @param numPhrases
+	 *            the maximum number of phrases
+	 * @return the phrases
+	 */
+	List<String> complete(String prefix, int numPhrases) {
+		List<String> result = new ArrayList<>();
+		Node node = root;
+		int position = 0;
+
+		while (position < prefix.length()) {
+			int index = node.indexOf(prefix.charAt(position));
+
+			if (index < 0) {
+				return result;
+			}
+
+			node = node.children[index];
+			int common = commonPrefixLength(node.label, prefix, position);
+
+			if (common < node.label.length() && position + common < prefix.length()) {
+				return result;
+			}
+
+			position += common;
+		}
+
+		PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+		candidates.add(new Candidate(node, false));
+
+		while (result.size() < numPhrases && !candidates.isEmpty()) {
+			Candidate candidate = candidates.poll();
+
+			if (candidate.isPhrase) {
+				result.add(candidate.node.phrase);
+				continue;
+			}
+
+			if (candidate.node.count > 0) {
+				candidates.add(new Candidate(candidate.node, true));
+			}
+
+			for (Node child : candidate.node.children) {
+				candidates.add(new Candidate(child, false));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes all phrases.
+	 */
+	void clear() {
+		root.children = Node.NO_CHILDREN;
+		root.maxCount = 0;
+	}
+
+	/**
+	 * Gets the length of the common prefix of a label and of a string from a
+	 * position.
+	 *
+	 * @param label
+	 *            the label
+	 * @param string
+	 *            the string
+	 * @param position
+	 *            the position in the string
+	 * @return the length of the common prefix
+	 */
+	private static int commonPrefixLength(String label, String string, int position) {
+		int length = Math.min(label.length(), string.length() - position);
+		int i = 0;
+
+		while (i < length && label.charAt(i) == string.charAt(position + i)) {
+			i++;
+		}
+
+		return i;
+	}
+}
@@ -1,32 +1,100 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
- * 
+ *
+ * <p>
+ * The mutable fields are volatile and updated with compare-and-set loops, so a
+ * single book can be mutated safely without holding a lock. Updates spanning
+ * several fields or several books still need to be coordinated by the store.
+ *
+ * <p>
+ * The copies handed out by {@link #immutableBook()} and
+ * {@link #immutableStockBook()} are cached, so reading a book which did not
+ * change since it was last read allocates nothing.
+ *
  * @see Book
  * @see StockBook
  * @see ImmutableBook
  */
 public class BookStoreBook extends ImmutableBook {
 
+	/** The updater for {@link #numCopies}. */
+	private static final AtomicIntegerFieldUpdater<BookStoreBook> NUM_COPIES = AtomicIntegerFieldUpdater
+			.newUpdater(BookStoreBook.class, "numCopies");
+
+	/** The updater for {@link #totalRating}. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> TOTAL_RATING = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "totalRating");
+
+	/** The updater for {@link #numTimesRated}. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> NUM_TIMES_RATED = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "numTimesRated");
+
+	/** The updater for {@link #numSaleMisses}. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> NUM_SALE_MISSES = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "numSaleMisses");
+
+	/** The updater for {@link #version}. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> VERSION = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "version");
+
+	/**
+	 * {@link StockBookView} is a {@link StockBook} copy of the book together
+	 * with the {@link #version} it was taken at.
+	 */
+	private static final class StockBookView {
+
+		/** The version of the book the copy was taken at. */
+		private final long version;
+
+		/** The copy. */
+		private final StockBook stockBook;
+
+		/**
+		 * Instantiates a new {@link StockBookView}.
+		 *
+		 * @param version
+		 *            the version
+		 * @param stockBook
+		 *            the copy
+		 */
+		private StockBookView(long version, StockBook stockBook) {
+			this.version = version;
+			this.stockBook = stockBook;
+		}
+	}
+
 	/** The number of copies. */
-	private int numCopies;
+	private volatile int numCopies;
 
 	/** The total rating. */
-	private long totalRating;
+	private volatile long totalRating;
 
 	/** The number of times rated. */
-	private long numTimesRated;
+	private volatile long numTimesRated;
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	private volatile long numSaleMisses;
 
 	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	private volatile boolean editorPick;
+
+	/** The number of changes of the mutable fields so far. */
+	private volatile long version;
+
+	/** The {@link ImmutableBook} copy of the book, shared by all readers. */
+	private final ImmutableBook bookView;
+
+	/** The last {@link StockBook} copy of the book handed out, or null. */
+	private volatile StockBookView stockBookView;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -45,6 +113,8 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
 		super(isbn, title, author, price);
 
+		this.bookView = new ImmutableBook(isbn, title, author, price);
+
 		this.setNumSaleMisses(0);
 		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
@@ -62,6 +132,9 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(StockBook bookToCopy) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
+		this.bookView = new ImmutableBook(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(),
+				bookToCopy.getPrice());
+
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
 		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
@@ -111,7 +184,8 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		long timesRated = numTimesRated;
+		return (timesRated == 0 ? -1.0f : (float) totalRating / timesRated);
 	}
 
 	/**
@@ -173,6 +247,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+		changed();
 	}
 
 	/**
@@ -194,12 +269,40 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean buyCopies(int numCopies) {
-		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
-			return true;
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
 		}
 
-		return false;
+		int current;
+
+		do {
+			current = this.numCopies;
+
+			if (current < numCopies) {
+				return false;
+			}
+		} while (!NUM_COPIES.compareAndSet(this, current, current - numCopies));
+
+		changed();
+		return true;
+	}
+
+	/**
+	 * Puts back <code>numCopies</code> copies taken by {@link #buyCopies(int)}
+	 * which come back to the stock without having been sold, e.g., the copies
+	 * of a reservation which is released or expires, see
+	 * {@link com.acertainbookstore.interfaces.StockReturner}. Unlike
+	 * {@link #addCopies(int)}, these are not new copies meeting the demand, so
+	 * the sale misses are left untouched.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void returnCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			NUM_COPIES.getAndAdd(this, numCopies);
+			changed();
+		}
 	}
 
 	/**
@@ -210,8 +313,9 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
+			NUM_COPIES.getAndAdd(this, numNewCopies);
 			this.numSaleMisses = 0;
+			changed();
 		}
 	}
 
@@ -222,7 +326,8 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		NUM_SALE_MISSES.getAndAdd(this, numSaleMisses);
+		changed();
 	}
 
 	/**
@@ -233,11 +338,20 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			TOTAL_RATING.getAndAdd(this, rating);
+			NUM_TIMES_RATED.getAndIncrement(this);
+			changed();
 		}
 	}
 
+	/**
+	 * Records a change of the mutable fields, which invalidates the cached
+	 * {@link StockBook} copy. Must be called after the change.
+	 */
+	private void changed() {
+		VERSION.incrementAndGet(this);
+	}
+
 	/**
 	 * Checks if someone tried to buy the book, while the book was not in stock,
 	 * also known as having sale misses.
@@ -260,24 +374,40 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} copy of the book. The copy is made once
+	 * and shared, since these fields never change.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		return bookView;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} copy of the book. The copy is cached and
+	 * only made again once the mutable fields changed.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
+		long current = this.version;
+		StockBookView view = this.stockBookView;
+
+		if (view != null && view.version == current) {
+			return view.stockBook;
+		}
+
+		StockBook stockBook = new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(),
 				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
 				this.editorPick);
+
+		// A change racing with the copy bumps the version, so the copy is
+		// either not cached or never served again.
+		if (this.version == current) {
+			this.stockBookView = new StockBookView(current, stockBook);
+		}
+
+		return stockBook;
 	}
 
 	/**
@@ -286,7 +416,6 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), this.numCopies);
 	}
 }
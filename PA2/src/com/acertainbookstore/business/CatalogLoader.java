@@ -0,0 +1,549 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.acertainbookstore.interfaces.BulkLoader;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.CatalogCheckpoint;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link CatalogLoader} reads catalog files and builds the structures of a
+ * store from a catalog in parallel, for the stores implementing
+ * {@link BulkLoader}.
+ *
+ * <p>
+ * A catalog is either a CSV file, whose name ends with {@link #CSV_SUFFIX},
+ * or a binary file in the format of a {@link CatalogCheckpoint}. Each line of
+ * a CSV catalog is a book given by its ISBN, title, author, price and number
+ * of copies, optionally followed by its number of sale misses, number of
+ * times rated, total rating and editor pick flag. Fields may be enclosed in
+ * double quotes, with doubled quotes standing for a quote, but may not span
+ * lines. The first line may be a header starting with <code>isbn</code>.
+ *
+ * <p>
+ * A CSV catalog is parsed by a fork-join task which splits the file at line
+ * boundaries until the ranges are small enough, and then parses each range
+ * through a memory-mapped buffer. The books are then validated and the
+ * {@link BookStoreBook} instances created by fork-join tasks as well, and the
+ * ranking by average rating is sorted in parallel before it is filled, so
+ * that only the insertions into the map and the indexes are sequential.
+ */
+public final class CatalogLoader {
+
+	/** The suffix of the names of CSV catalogs; other catalogs are binary. */
+	public static final String CSV_SUFFIX = ".csv";
+
+	/** The size up to which a range of a CSV catalog is not split. */
+	private static final long SPLIT_THRESHOLD = 4 * 1024 * 1024;
+
+	/** The size of the reads looking for a line boundary. */
+	private static final int SCAN_SIZE = 4 * 1024;
+
+	/** The number of books indexed by each task. */
+	private static final int BOOKS_PER_TASK = 64 * 1024;
+
+	/** The number of fields of a book without its statistics. */
+	private static final int NUM_SHORT_FIELDS = 5;
+
+	/** The number of fields of a book with its statistics. */
+	private static final int NUM_LONG_FIELDS = 9;
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogLoader}.
+	 */
+	private CatalogLoader() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * {@link Catalog} holds the structures of a store built from a catalog,
+	 * ready to be swapped in.
+	 */
+	static final class Catalog {
+
+		/** The mapping of books from ISBN to {@link BookStoreBook}. */
+		final IntObjectHashMap<BookStoreBook> bookMap;
+
+		/** The editor picks. */
+		final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+		/** The ranking by average rating. */
+		final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+		/** The books in demand. */
+		final DemandIndex demandIndex = new DemandIndex();
+
+		/** The inverted index of the words of the titles and authors. */
+		final SearchIndex searchIndex = new SearchIndex();
+
+		/** The books ordered by ISBN and by price. */
+		final RangeIndex rangeIndex = new RangeIndex();
+
+		/**
+		 * Instantiates a new {@link Catalog} with empty indexes.
+		 *
+		 * @param bookMap
+		 *            the mapping of books from ISBN to {@link BookStoreBook}
+		 */
+		private Catalog(IntObjectHashMap<BookStoreBook> bookMap) {
+			this.bookMap = bookMap;
+		}
+	}
+
+	/**
+	 * {@link CatalogFailure} carries a {@link BookStoreException} out of a
+	 * fork-join task.
+	 */
+	private static final class CatalogFailure extends RuntimeException {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Instantiates a new {@link CatalogFailure}.
+		 *
+		 * @param cause
+		 *            the book store exception
+		 */
+		private CatalogFailure(BookStoreException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Gets the {@link BookStoreException} carried by an exception thrown by a
+	 * fork-join task. The task framework may wrap the exception thrown in
+	 * another thread, so the whole chain of causes is searched.
+	 *
+	 * @param ex
+	 *            the exception
+	 * @return the book store exception
+	 * @throws RuntimeException
+	 *             <code>ex</code>, if it carries no book store exception
+	 */
+	private static BookStoreException unwrap(RuntimeException ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof BookStoreException) {
+				return (BookStoreException) cause;
+			}
+		}
+
+		throw ex;
+	}
+
+	/**
+	 * Reads the books of the catalog stored in <code>path</code>. The books
+	 * are not validated; see {@link #build(List, Function)}.
+	 *
+	 * @param path
+	 *            the path of the catalog
+	 * @return the books
+	 * @throws BookStoreException
+	 *             if the catalog cannot be read or a line cannot be parsed
+	 */
+	public static List<StockBook> read(Path path) throws BookStoreException {
+		try {
+			if (!path.getFileName().toString().endsWith(CSV_SUFFIX)) {
+				return CatalogCheckpoint.read(path).getBooks();
+			}
+
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				return ForkJoinPool.commonPool().invoke(new ParseTask(path, channel, 0, channel.size()));
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.CATALOG_UNREADABLE + path, ex);
+		} catch (RuntimeException ex) {
+			throw unwrap(ex);
+		}
+	}
+
+	/**
+	 * {@link ParseTask} parses the lines of a range of a CSV catalog which
+	 * starts at a line boundary and ends at a line boundary or at the end of
+	 * the file.
+	 */
+	private static final class ParseTask extends RecursiveTask<List<StockBook>> {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/** The path of the catalog. */
+		private final Path path;
+
+		/** The channel of the catalog. */
+		private final FileChannel channel;
+
+		/** The start of the range. */
+		private final long start;
+
+		/** The end of the range. */
+		private final long end;
+
+		/**
+		 * Instantiates a new {@link ParseTask}.
+		 *
+		 * @param path
+		 *            the path of the catalog
+		 * @param channel
+		 *            the channel of the catalog
+		 * @param start
+		 *            the start of the range
+		 * @param end
+		 *            the end of the range
+		 */
+		private ParseTask(Path path, FileChannel channel, long start, long end) {
+			this.path = path;
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<StockBook> compute() {
+			try {
+				if (end - start > SPLIT_THRESHOLD) {
+					long middle = nextLineStart(channel, start + (end - start) / 2, end);
+
+					if (middle < end) {
+						ParseTask second = new ParseTask(path, channel, middle, end);
+						second.fork();
+						List<StockBook> books = new ParseTask(path, channel, start, middle).compute();
+						books.addAll(second.join());
+						return books;
+					}
+				}
+
+				return parse(channel, start, end);
+			} catch (IOException ex) {
+				throw new CatalogFailure(new BookStoreException(BookStoreConstants.CATALOG_UNREADABLE + path, ex));
+			} catch (BookStoreException ex) {
+				throw new CatalogFailure(ex);
+			}
+		}
+	}
+
+	/**
+	 * Finds the start of the first line after <code>position</code>.
+	 *
+	 * @param channel
+	 *            the channel of the catalog
+	 * @param position
+	 *            the position to search from
+	 * @param end
+	 *            the position to search up to
+	 * @return the position after the first line feed, or <code>end</code> if
+	 *         there is none
+	 * @throws IOException
+	 *             if the catalog cannot be read
+	 */
+	private static long nextLineStart(FileChannel channel, long position, long end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(SCAN_SIZE, end - position));
+			int read = channel.read(buffer, position);
+
+			if (read < 0) {
+				break;
+			}
+
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+
+			position += read;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Parses the lines of a range of a CSV catalog.
+	 *
+	 * @param channel
+	 *            the channel of the catalog
+	 * @param start
+	 *            the start of the range, at a line boundary
+	 * @param end
+	 *            the end of the range, at a line boundary or the end of the
+	 *            file
+	 * @return the books
+	 * @throws IOException
+	 *             if the catalog cannot be mapped
+	 * @throws BookStoreException
+	 *             if a line cannot be parsed
+	 */
+	private static List<StockBook> parse(FileChannel channel, long start, long end)
+			throws IOException, BookStoreException {
+		List<StockBook> books = new ArrayList<>();
+
+		if (start >= end) {
+			return books;
+		}
+
+		MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		int size = range.limit();
+		int lineStart = 0;
+
+		while (lineStart < size) {
+			int lineEnd = lineStart;
+
+			while (lineEnd < size && range.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+
+			int contentEnd = (lineEnd > lineStart && range.get(lineEnd - 1) == '\r') ? lineEnd - 1 : lineEnd;
+			byte[] bytes = new byte[contentEnd - lineStart];
+			((Buffer) range).position(lineStart);
+			range.get(bytes);
+
+			if (!isBlank(bytes)) {
+				List<String> fields = splitFields(bytes);
+				boolean header = (start + lineStart == 0) && fields.get(0).trim().equalsIgnoreCase("isbn");
+
+				if (!header) {
+					books.add(parseBook(fields, start + lineStart));
+				}
+			}
+
+			lineStart = lineEnd + 1;
+		}
+
+		return books;
+	}
+
+	/**
+	 * Checks whether a line of a CSV catalog is blank.
+	 *
+	 * @param line
+	 *            the line
+	 * @return true, if the line only contains whitespace
+	 */
+	private static boolean isBlank(byte[] line) {
+		for (byte b : line) {
+			if (b != ' ' && b != '\t') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Splits a line of a CSV catalog into its fields. The line is scanned as
+	 * bytes, which is safe since the bytes of quotes and commas never occur
+	 * inside other characters in UTF-8, and each field is decoded once.
+	 *
+	 * @param line
+	 *            the line, encoded in UTF-8
+	 * @return the fields, without their enclosing quotes
+	 */
+	private static List<String> splitFields(byte[] line) {
+		List<String> fields = new ArrayList<>(NUM_LONG_FIELDS);
+		int i = 0;
+
+		while (true) {
+			if (i < line.length && line[i] == '"') {
+				int fieldStart = ++i;
+				boolean escaped = false;
+
+				while (i < line.length && (line[i] != '"' || (i + 1 < line.length && line[i + 1] == '"'))) {
+					if (line[i] == '"') {
+						escaped = true;
+						i++;
+					}
+
+					i++;
+				}
+
+				String field = new String(line, fieldStart, Math.min(i, line.length) - fieldStart,
+						StandardCharsets.UTF_8);
+				fields.add(escaped ? field.replace("\"\"", "\"") : field);
+
+				while (i < line.length && line[i] != ',') {
+					i++;
+				}
+			} else {
+				int fieldStart = i;
+
+				while (i < line.length && line[i] != ',') {
+					i++;
+				}
+
+				fields.add(new String(line, fieldStart, i - fieldStart, StandardCharsets.UTF_8));
+			}
+
+			if (i >= line.length) {
+				return fields;
+			}
+
+			i++; // Skip the comma.
+		}
+	}
+
+	/**
+	 * Parses a book from the fields of a line of a CSV catalog.
+	 *
+	 * @param fields
+	 *            the fields
+	 * @param position
+	 *            the position of the line in the catalog
+	 * @return the book
+	 * @throws BookStoreException
+	 *             if the fields do not describe a book
+	 */
+	private static StockBook parseBook(List<String> fields, long position) throws BookStoreException {
+		if (fields.size() != NUM_SHORT_FIELDS && fields.size() != NUM_LONG_FIELDS) {
+			throw new BookStoreException(BookStoreConstants.CATALOG_ENTRY + position + BookStoreConstants.INVALID);
+		}
+
+		try {
+			int isbn = Integer.parseInt(fields.get(0).trim());
+			String title = fields.get(1);
+			String author = fields.get(2);
+			float price = Float.parseFloat(fields.get(3).trim());
+			int numCopies = Integer.parseInt(fields.get(4).trim());
+
+			if (fields.size() == NUM_SHORT_FIELDS) {
+				return new ImmutableStockBook(isbn, title, author, price, numCopies, 0, 0, 0, false);
+			}
+
+			return new ImmutableStockBook(isbn, title, author, price, numCopies, Long.parseLong(fields.get(5).trim()),
+					Long.parseLong(fields.get(6).trim()), Long.parseLong(fields.get(7).trim()),
+					Boolean.parseBoolean(fields.get(8).trim()));
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(BookStoreConstants.CATALOG_ENTRY + position + BookStoreConstants.INVALID, ex);
+		}
+	}
+
+	/**
+	 * Validates a book of a catalog. Sold out books are valid.
+	 *
+	 * @param book
+	 *            the book
+	 * @throws BookStoreException
+	 *             if the book is invalid
+	 */
+	private static void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(book.getTitle()) || BookStoreUtility.isEmpty(book.getAuthor())
+				|| book.getNumCopies() < 0 || !(book.getPrice() >= 0.0) || book.getNumSaleMisses() < 0
+				|| book.getNumTimesRated() < 0 || book.getTotalRating() < 0) {
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Validates the books of a catalog and builds the structures of a store
+	 * from them.
+	 *
+	 * @param books
+	 *            the books
+	 * @param bookFactory
+	 *            the function making the {@link BookStoreBook} of a book
+	 * @return the structures
+	 * @throws BookStoreException
+	 *             if a book is invalid or duplicated
+	 */
+	static Catalog build(List<StockBook> books, Function<StockBook, BookStoreBook> bookFactory)
+			throws BookStoreException {
+		BookStoreBook[] storeBooks;
+
+		try {
+			storeBooks = books.parallelStream().map(book -> {
+				try {
+					validate(book);
+				} catch (BookStoreException ex) {
+					throw new CatalogFailure(ex);
+				}
+
+				return bookFactory.apply(book);
+			}).toArray(BookStoreBook[]::new);
+		} catch (RuntimeException ex) {
+			throw unwrap(ex);
+		}
+
+		Catalog catalog = new Catalog(new IntObjectHashMap<>(storeBooks.length));
+		IntObjectHashMap<BookStoreBook> bookMap = catalog.bookMap;
+
+		for (BookStoreBook book : storeBooks) {
+			if (bookMap.put(book.getISBN(), book) != null) {
+				throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+			}
+		}
+
+		List<Integer> editorPicks = new ArrayList<>();
+		List<Integer> missedISBNs = new ArrayList<>();
+
+		for (BookStoreBook book : storeBooks) {
+			if (book.isEditorPick()) {
+				editorPicks.add(book.getISBN());
+			}
+
+			if (book.getNumSaleMisses() > 0) {
+				missedISBNs.add(book.getISBN());
+			}
+		}
+
+		// The map is no longer written, so the tasks can read it concurrently.
+		catalog.editorPickIndex.update(editorPicks, isbn -> bookMap.get(isbn).immutableBook());
+		catalog.topRatedIndex.load(Arrays.stream(storeBooks).parallel()
+				.map(book -> new TopRatedIndex.RankedBook(book.immutableBook(), book.getAverageRating()))
+				.toArray(TopRatedIndex.RankedBook[]::new));
+		forEachSlice(missedISBNs,
+				slice -> catalog.demandIndex.update(slice, isbn -> bookMap.get(isbn).getNumSaleMisses()));
+		List<Integer> isbns = Arrays.stream(storeBooks).map(BookStoreBook::getISBN).collect(Collectors.toList());
+		catalog.searchIndex.update(isbns, isbn -> bookMap.get(isbn).immutableBook());
+		catalog.rangeIndex.update(isbns, isbn -> bookMap.get(isbn).immutableBook());
+		return catalog;
+	}
+
+	/**
+	 * Applies an action to slices of {@link #BOOKS_PER_TASK} ISBNs in
+	 * parallel.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param action
+	 *            the action
+	 */
+	private static void forEachSlice(List<Integer> isbns, Consumer<List<Integer>> action) {
+		int numSlices = (isbns.size() + BOOKS_PER_TASK - 1) / BOOKS_PER_TASK;
+		List<List<Integer>> slices = IntStream.range(0, numSlices)
+				.mapToObj(i -> isbns.subList(i * BOOKS_PER_TASK, Math.min(isbns.size(), (i + 1) * BOOKS_PER_TASK)))
+				.collect(Collectors.toList());
+		slices.parallelStream().forEach(action);
+	}
+}
@@ -0,0 +1,235 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ReservationManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.TimerWheel;
+
+/**
+ * {@link CertainReservationManager} implements the {@link ReservationManager}
+ * functionalities on top of a store. A reservation takes its copies out of
+ * <code>numCopies</code> with <code>buyBooks</code>, which validates it and
+ * applies it all or nothing under the locks of the store, so a checkout
+ * holding a reservation commits it without touching the store again and
+ * cannot fail on contention. Releasing a reservation, or letting it expire,
+ * returns the copies with <code>returnCopies</code>, which leaves the sale
+ * misses of the books alone, unlike the new copies of <code>addCopies</code>.
+ *
+ * <p>
+ * The expiries are scheduled on a {@link TimerWheel}, so holding many
+ * reservations costs one entry per reservation in a bucket rather than a
+ * thread or a sorted queue. Commit, release and expiry race on the removal
+ * of the reservation from the map, so exactly one of them settles it. Since
+ * the copies go through the usual mutations, the change stream of the store
+ * sees a reservation as a purchase and its release as a return of copies,
+ * and a reservation failing for lack of copies counts as sale misses.
+ *
+ * <p>
+ * The reservations and their expiries are only held in memory. A store
+ * logging its mutations, such as {@link DurableCertainBookStore}, would
+ * replay a reservation as a purchase after a restart and never return its
+ * copies, so it does not take back copies and is not given reservations.
+ */
+public class CertainReservationManager implements ReservationManager, Closeable {
+
+	/** The duration of a tick of the expiry wheel in milliseconds. */
+	public static final long TICK_MILLIS = 100;
+
+	/** The number of buckets of the expiry wheel, i.e., ticks per turn. */
+	public static final int NUM_BUCKETS = 1024;
+
+	/**
+	 * {@link Reservation} is a reservation being held.
+	 */
+	private static final class Reservation {
+
+		/** The copies held. */
+		private final Set<BookCopy> bookCopies;
+
+		/** The expiry of the reservation, set once it is scheduled. */
+		private volatile TimerWheel.Timeout expiry = null;
+
+		/**
+		 * Instantiates a new {@link Reservation}.
+		 *
+		 * @param bookCopies
+		 *            the copies held
+		 */
+		private Reservation(Set<BookCopy> bookCopies) {
+			this.bookCopies = bookCopies;
+		}
+	}
+
+	/** The book store, which buys the copies reserved. */
+	private final BookStore bookStore;
+
+	/** The store taking back the copies released. */
+	private final StockReturner stockReturner;
+
+	/** The reservations being held, by identifier. */
+	private final ConcurrentMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+	/** The identifier of the last reservation. */
+	private final AtomicLong lastId = new AtomicLong();
+
+	/** The wheel expiring the reservations. */
+	private final TimerWheel expiries = new TimerWheel(TICK_MILLIS, NUM_BUCKETS, "reservation-expiry");
+
+	/**
+	 * Instantiates a new {@link CertainReservationManager}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockReturner
+	 *            the same store, taking back copies
+	 */
+	public CertainReservationManager(BookStore bookStore, StockReturner stockReturner) {
+		this.bookStore = bookStore;
+		this.stockReturner = stockReturner;
+	}
+
+	/**
+	 * Gets the number of reservations being held.
+	 *
+	 * @return the number of reservations
+	 */
+	public int getNumReservations() {
+		return reservations.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.ReservationManager#reserveBooks(java.
+	 * util.Set, long)
+	 */
+	@Override
+	public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException {
+		if (bookCopiesToReserve == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (ttlMillis <= 0) {
+			throw new BookStoreException("ttlMillis = " + ttlMillis + ", but it must be positive");
+		}
+
+		Set<BookCopy> bookCopies = new HashSet<>(bookCopiesToReserve);
+		bookStore.buyBooks(bookCopies);
+
+		long id = lastId.incrementAndGet();
+		Reservation reservation = new Reservation(bookCopies);
+		reservations.put(id, reservation);
+		reservation.expiry = expiries.schedule(() -> expire(id), ttlMillis);
+		return id;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.ReservationManager#commitReservation(
+	 * long)
+	 */
+	@Override
+	public void commitReservation(long reservationId) throws BookStoreException {
+		// The copies were bought when they were reserved.
+		settle(reservationId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.ReservationManager#releaseReservation(
+	 * long)
+	 */
+	@Override
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		restock(settle(reservationId).bookCopies);
+	}
+
+	/**
+	 * Removes a reservation being held and cancels its expiry.
+	 *
+	 * @param reservationId
+	 *            the identifier of the reservation
+	 * @return the reservation
+	 * @throws BookStoreException
+	 *             if the reservation is not being held
+	 */
+	private Reservation settle(long reservationId) throws BookStoreException {
+		Reservation reservation = reservations.remove(reservationId);
+
+		if (reservation == null) {
+			throw new BookStoreException(BookStoreConstants.RESERVATION + reservationId + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		TimerWheel.Timeout expiry = reservation.expiry;
+
+		if (expiry != null) {
+			expiry.cancel();
+		}
+
+		return reservation;
+	}
+
+	/**
+	 * Returns the copies of a reservation to the stock when it expires, unless
+	 * it was committed or released in the meantime.
+	 *
+	 * @param reservationId
+	 *            the identifier of the reservation
+	 */
+	private void expire(long reservationId) {
+		Reservation reservation = reservations.remove(reservationId);
+
+		if (reservation != null) {
+			restock(reservation.bookCopies);
+		}
+	}
+
+	/**
+	 * Returns copies to the stock. If some of the books were removed from the
+	 * store in the meantime, the copies of the others are still returned.
+	 *
+	 * @param bookCopies
+	 *            the copies
+	 */
+	private void restock(Set<BookCopy> bookCopies) {
+		try {
+			stockReturner.returnCopies(bookCopies);
+		} catch (BookStoreException ex) {
+			for (BookCopy bookCopy : bookCopies) {
+				try {
+					stockReturner.returnCopies(Collections.singleton(bookCopy));
+				} catch (BookStoreException ignored) {
+					// The book is no longer in stock.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops expiring the reservations, and returns the copies of those still
+	 * held to the stock.
+	 */
+	@Override
+	public void close() {
+		expiries.close();
+
+		for (Long reservationId : reservations.keySet()) {
+			expire(reservationId);
+		}
+	}
+}
@@ -0,0 +1,492 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BulkLoader;
+import com.acertainbookstore.interfaces.ChangeStream;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ChangeCapturingCertainBookStore} captures the changes made to the
+ * stock of a store and publishes them as a {@link ChangeStream}. It wraps the
+ * {@link BookStore} and {@link StockManager} of the store: reads go straight
+ * to the store, and every successful mutating operation publishes one
+ * {@link StockChangeEvent} per book it changes into a
+ * {@link ChangeRingBuffer}, from which consumers read without locking.
+ *
+ * <p>
+ * An operation holds the stripes of a {@link StripedReadWriteLock} covering
+ * the books it changes from before it is applied until its events are
+ * published, so the events of a book are in the order in which its changes
+ * were made, while operations on disjoint books run in parallel in the
+ * wrapped store. Only the publication of the events is serialized, and the
+ * events of one operation are consecutive in the stream. Removing all books
+ * and loading a catalog exclude every other operation, as does taking a
+ * snapshot, so the events before and after them are ordered with respect to
+ * all books. Operations which fail change nothing and publish nothing; a
+ * failed purchase records its sale misses, but those are not published.
+ *
+ * @see ChangeStream
+ * @see ChangeRingBuffer
+ */
+public class ChangeCapturingCertainBookStore implements BookStore, StockManager, StockReturner, BulkLoader, ChangeStream {
+
+	/**
+	 * {@link Mutation} is a mutating operation of the wrapped store.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+
+		/**
+		 * Applies the operation.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/** The default number of events kept for the consumers. */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The events, published under {@link #publisher}. */
+	private final ChangeRingBuffer changes;
+
+	/** The locks ordering the operations on a book and its events. */
+	private final StripedReadWriteLock bookLocks = new StripedReadWriteLock();
+
+	/**
+	 * The lock shared by the operations on given books, and held exclusively
+	 * by the operations on the whole stock.
+	 */
+	private final ReadWriteLock stockLock = new ReentrantReadWriteLock();
+
+	/** The lock making the publisher of {@link #changes} unique. */
+	private final ReentrantLock publisher = new ReentrantLock();
+
+	/**
+	 * Instantiates a new {@link ChangeCapturingCertainBookStore} keeping the
+	 * {@link #DEFAULT_CAPACITY} latest events.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	public ChangeCapturingCertainBookStore(BookStore bookStore, StockManager stockManager) {
+		this(bookStore, stockManager, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link ChangeCapturingCertainBookStore} keeping at
+	 * least the <code>capacity</code> latest events.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param capacity
+	 *            the minimum number of events kept for the consumers
+	 */
+	public ChangeCapturingCertainBookStore(BookStore bookStore, StockManager stockManager, int capacity) {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.changes = new ChangeRingBuffer(capacity);
+	}
+
+	/**
+	 * Gets the ISBNs of the items of a set, skipping null items, which the
+	 * wrapped store rejects.
+	 *
+	 * @param <T>
+	 *            the type of the items
+	 * @param items
+	 *            the items, or null
+	 * @param isbnOf
+	 *            the function getting the ISBN of an item
+	 * @return the ISBNs
+	 */
+	private static <T> List<Integer> isbnsOf(Set<T> items, ToIntFunction<T> isbnOf) {
+		if (items == null) {
+			return Collections.emptyList();
+		}
+
+		List<Integer> isbns = new ArrayList<>(items.size());
+
+		for (T item : items) {
+			if (item != null) {
+				isbns.add(isbnOf.applyAsInt(item));
+			}
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Applies a mutation of the given books to the store and, if it succeeds,
+	 * publishes its changes before another mutation of these books is applied.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books changed by the mutation
+	 * @param mutation
+	 *            the mutation
+	 * @param publication
+	 *            the publication of the changes
+	 * @throws BookStoreException
+	 *             the exception thrown by the mutation
+	 */
+	private void execute(Collection<Integer> isbns, Mutation mutation, Runnable publication)
+			throws BookStoreException {
+		stockLock.readLock().lock();
+
+		try {
+			List<Lock> locks = bookLocks.lockAll(isbns, true);
+
+			try {
+				mutation.apply();
+				publish(publication);
+			} finally {
+				StripedReadWriteLock.unlockAll(locks);
+			}
+		} finally {
+			stockLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Applies a mutation of the whole stock to the store while no other
+	 * mutation is applied and, if it succeeds, publishes its changes.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @param publication
+	 *            the publication of the changes
+	 * @throws BookStoreException
+	 *             the exception thrown by the mutation
+	 */
+	private void executeExclusively(Mutation mutation, Runnable publication) throws BookStoreException {
+		stockLock.writeLock().lock();
+
+		try {
+			mutation.apply();
+			publish(publication);
+		} finally {
+			stockLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Publishes the changes of a mutation as consecutive events.
+	 *
+	 * @param publication
+	 *            the publication of the changes
+	 */
+	private void publish(Runnable publication) {
+		publisher.lock();
+
+		try {
+			publication.run();
+		} finally {
+			publisher.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.ChangeStream#getChanges(long, long)
+	 */
+	@Override
+	public List<StockChangeEvent> getChanges(long afterSequence, long waitMillis) throws BookStoreException {
+		if (afterSequence < 0) {
+			throw new BookStoreException(BookStoreConstants.CHANGES_LOST + afterSequence);
+		}
+
+		return changes.await(afterSequence, waitMillis);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.ChangeStream#getSnapshot()
+	 */
+	@Override
+	public StockSnapshot getSnapshot() throws BookStoreException {
+		stockLock.writeLock().lock();
+
+		try {
+			return new StockSnapshot(changes.getLastSequence(), stockManager.getBooks());
+		} finally {
+			stockLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the sequence of the last published event.
+	 *
+	 * @return the sequence, or zero if no event was published
+	 */
+	public long getLastSequence() {
+		return changes.getLastSequence();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BulkLoader#loadCatalog(java.util.List)
+	 */
+	@Override
+	public void loadCatalog(List<StockBook> books) throws BookStoreException {
+		if (!(stockManager instanceof BulkLoader)) {
+			throw new BookStoreException(BookStoreConstants.BULK_LOAD_UNSUPPORTED);
+		}
+
+		executeExclusively(() -> ((BulkLoader) stockManager).loadCatalog(books),
+				() -> changes.publish(StockChangeEvent.Type.CATALOG_LOADED, 0, books.size(), null));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		execute(isbnsOf(bookSet, StockBook::getISBN), () -> stockManager.addBooks(bookSet), () -> {
+			for (StockBook book : bookSet) {
+				StockBook image = new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice(), book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+						book.getTotalRating(), book.isEditorPick());
+				changes.publish(StockChangeEvent.Type.BOOK_ADDED, book.getISBN(), book.getNumCopies(), image);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		execute(isbnsOf(bookCopiesSet, BookCopy::getISBN), () -> stockManager.addCopies(bookCopiesSet), () -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				changes.publish(StockChangeEvent.Type.COPIES_ADDED, bookCopy.getISBN(), bookCopy.getNumCopies(), null);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (!(stockManager instanceof StockReturner)) {
+			throw new BookStoreException(BookStoreConstants.RETURNS_UNSUPPORTED);
+		}
+
+		StockReturner stockReturner = (StockReturner) stockManager;
+
+		execute(isbnsOf(bookCopiesSet, BookCopy::getISBN), () -> stockReturner.returnCopies(bookCopiesSet), () -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				changes.publish(StockChangeEvent.Type.COPIES_RETURNED, bookCopy.getISBN(), bookCopy.getNumCopies(),
+						null);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		List<Integer> isbns = isbnsOf(editorPicks, BookEditorPick::getISBN);
+
+		execute(isbns, () -> stockManager.updateEditorPicks(editorPicks), () -> {
+			for (BookEditorPick editorPick : editorPicks) {
+				changes.publish(StockChangeEvent.Type.EDITOR_PICK_CHANGED, editorPick.getISBN(),
+						editorPick.isEditorPick() ? 1 : 0, null);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		execute(isbnsOf(bookCopiesToBuy, BookCopy::getISBN), () -> bookStore.buyBooks(bookCopiesToBuy), () -> {
+			for (BookCopy bookCopy : bookCopiesToBuy) {
+				changes.publish(StockChangeEvent.Type.COPIES_BOUGHT, bookCopy.getISBN(), bookCopy.getNumCopies(),
+						null);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		return bookStore.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		return bookStore.getBooksByPriceRange(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		return bookStore.getBooksByISBNRange(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		execute(isbnsOf(bookRating, BookRating::getISBN), () -> bookStore.rateBooks(bookRating), () -> {
+			for (BookRating rating : bookRating) {
+				changes.publish(StockChangeEvent.Type.BOOK_RATED, rating.getISBN(), rating.getRating(), null);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		executeExclusively(() -> stockManager.removeAllBooks(),
+				() -> changes.publish(StockChangeEvent.Type.ALL_BOOKS_REMOVED, 0, 0, null));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		execute(isbnsOf(isbnSet, Integer::intValue), () -> stockManager.removeBooks(isbnSet), () -> {
+			for (int isbn : isbnSet) {
+				changes.publish(StockChangeEvent.Type.BOOK_REMOVED, isbn, 0, null);
+			}
+		});
+	}
+}
@@ -0,0 +1,160 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ChangeRingBuffer} holds the latest {@link StockChangeEvent} instances
+ * of a change stream in a fixed-size ring, which consumers read without
+ * locking.
+ *
+ * <p>
+ * There is a single producer at a time, which the caller of
+ * {@link #publish(StockChangeEvent.Type, int, int, StockBook)} must ensure.
+ * The producer writes an event into its slot and then advances the volatile
+ * {@link #lastSequence}, so a consumer seeing a sequence number also sees
+ * the events up to it. The producer never waits for consumers: the ring
+ * overwrites its oldest events, and a consumer that fell further behind than
+ * the capacity notices it, since the slots hold newer events, and has to
+ * read the whole stock again. Consumers waiting for new events are only
+ * woken up when there are some, so publishing costs no lock otherwise.
+ */
+public class ChangeRingBuffer {
+
+	/** The maximum number of events returned by one read. */
+	public static final int MAX_EVENTS_PER_READ = 4096;
+
+	/** The slots; the event with sequence s is in slot s & {@link #mask}. */
+	private final AtomicReferenceArray<StockChangeEvent> slots;
+
+	/** The mask of the slot index, i.e., the capacity minus one. */
+	private final int mask;
+
+	/** The sequence number of the last published event. */
+	private volatile long lastSequence = 0;
+
+	/** The number of consumers waiting for new events. */
+	private final AtomicInteger numWaiters = new AtomicInteger();
+
+	/** The monitor the waiting consumers wait on. */
+	private final Object monitor = new Object();
+
+	/**
+	 * Instantiates a new {@link ChangeRingBuffer} holding at least
+	 * <code>capacity</code> events.
+	 *
+	 * @param capacity
+	 *            the minimum capacity, rounded up to a power of two
+	 */
+	public ChangeRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		slots = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Publishes an event, overwriting the oldest one if the ring is full.
+	 * Only one thread may publish at a time.
+	 *
+	 * @param type
+	 *            the kind of change
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param amount
+	 *            the amount of the change
+	 * @param book
+	 *            the added book, or null
+	 * @return the sequence number of the event
+	 */
+	public long publish(StockChangeEvent.Type type, int isbn, int amount, StockBook book) {
+		long sequence = lastSequence + 1;
+		slots.lazySet((int) sequence & mask, new StockChangeEvent(sequence, type, isbn, amount, book));
+		lastSequence = sequence;
+
+		if (numWaiters.get() > 0) {
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * Gets the sequence number of the last published event.
+	 *
+	 * @return the sequence number, or zero if no event was published
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Reads the events published after <code>afterSequence</code>, at most
+	 * {@link #MAX_EVENTS_PER_READ} of them.
+	 *
+	 * @param afterSequence
+	 *            the sequence number of the last event already read
+	 * @return the events, in order, possibly none
+	 * @throws BookStoreException
+	 *             if some of the events were overwritten
+	 */
+	public List<StockChangeEvent> read(long afterSequence) throws BookStoreException {
+		long last = Math.min(lastSequence, afterSequence + MAX_EVENTS_PER_READ);
+		List<StockChangeEvent> events = new ArrayList<>((int) Math.max(0, last - afterSequence));
+
+		for (long sequence = afterSequence + 1; sequence <= last; sequence++) {
+			StockChangeEvent event = slots.get((int) sequence & mask);
+
+			if (event == null || event.getSequence() != sequence) {
+				throw new BookStoreException(BookStoreConstants.CHANGES_LOST + afterSequence);
+			}
+
+			events.add(event);
+		}
+
+		return events;
+	}
+
+	/**
+	 * Reads the events published after <code>afterSequence</code> like
+	 * {@link #read(long)}, waiting up to <code>waitMillis</code> milliseconds
+	 * for one if there are none yet.
+	 *
+	 * @param afterSequence
+	 *            the sequence number of the last event already read
+	 * @param waitMillis
+	 *            the maximum time to wait in milliseconds
+	 * @return the events, in order, or none if the time elapsed
+	 * @throws BookStoreException
+	 *             if some of the events were overwritten
+	 */
+	public List<StockChangeEvent> await(long afterSequence, long waitMillis) throws BookStoreException {
+		if (lastSequence <= afterSequence && waitMillis > 0) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+			numWaiters.incrementAndGet();
+
+			try {
+				synchronized (monitor) {
+					long remaining;
+
+					while (lastSequence <= afterSequence && (remaining = deadline - System.nanoTime()) > 0) {
+						TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+					}
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				numWaiters.decrementAndGet();
+			}
+		}
+
+		return read(afterSequence);
+	}
+}
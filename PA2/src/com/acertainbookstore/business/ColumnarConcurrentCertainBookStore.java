@@ -0,0 +1,775 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntIntHashMap;
+
+/**
+ * {@link ColumnarConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities with a column-oriented layout.
+ *
+ * <p>
+ * Instead of one {@link BookStoreBook} object per book, every book gets a
+ * dense slot, and each mutable attribute lives in its own primitive array
+ * indexed by that slot. The immutable part of a book (ISBN, title, author and
+ * price) is kept as an {@link ImmutableBook} in a separate column, which is
+ * handed out to clients as is. The top rated books and the books in demand
+ * come from a {@link TopRatedIndex} and a {@link DemandIndex}. Removing a book
+ * moves the last slot into the hole, so the live slots always are
+ * <code>0</code> to <code>numBooks - 1</code>.
+ *
+ * <p>
+ * Like {@link SingleLockConcurrentCertainBookStore}, the whole store is guarded
+ * by a single {@link ReadWriteLock}.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ColumnarConcurrentCertainBookStore implements BookStore, StockManager, StockReturner {
+
+	/** The initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The mapping of books from ISBN to their slot. */
+	private IntIntHashMap slotMap = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private DemandIndex demandIndex = null;
+
+	/** The number of books, i.e., of slots in use. */
+	private int numBooks = 0;
+
+	/** The immutable part of the books. */
+	private ImmutableBook[] books = null;
+
+	/** The number of copies of the books. */
+	private int[] numCopies = null;
+
+	/** The total ratings of the books. */
+	private long[] totalRating = null;
+
+	/** The number of times the books were rated. */
+	private long[] numTimesRated = null;
+
+	/** The number of sale misses of the books. */
+	private long[] numSaleMisses = null;
+
+	/** Whether the books are editor picks. */
+	private boolean[] editorPick = null;
+
+	/** The lock guarding the store. */
+	private ReadWriteLock lock = null;
+
+	/**
+	 * Instantiates a new {@link ColumnarConcurrentCertainBookStore}.
+	 */
+	public ColumnarConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		slotMap = new IntIntHashMap();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
+		lock = new ReentrantReadWriteLock();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Allocates empty columns of the given capacity.
+	 *
+	 * @param capacity
+	 *            the capacity
+	 */
+	private void allocate(int capacity) {
+		books = new ImmutableBook[capacity];
+		numCopies = new int[capacity];
+		totalRating = new long[capacity];
+		numTimesRated = new long[capacity];
+		numSaleMisses = new long[capacity];
+		editorPick = new boolean[capacity];
+	}
+
+	/**
+	 * Grows the columns so that they have room for at least
+	 * <code>capacity</code> books.
+	 *
+	 * @param capacity
+	 *            the required capacity
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= books.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, books.length * 2);
+		books = Arrays.copyOf(books, newCapacity);
+		numCopies = Arrays.copyOf(numCopies, newCapacity);
+		totalRating = Arrays.copyOf(totalRating, newCapacity);
+		numTimesRated = Arrays.copyOf(numTimesRated, newCapacity);
+		numSaleMisses = Arrays.copyOf(numSaleMisses, newCapacity);
+		editorPick = Arrays.copyOf(editorPick, newCapacity);
+	}
+
+	/**
+	 * Appends a book in a new slot.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void append(StockBook book) {
+		ensureCapacity(numBooks + 1);
+
+		int slot = numBooks++;
+		books[slot] = new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+		numCopies[slot] = book.getNumCopies();
+		totalRating[slot] = book.getTotalRating();
+		numTimesRated[slot] = book.getNumTimesRated();
+		numSaleMisses[slot] = book.getNumSaleMisses();
+		editorPick[slot] = book.isEditorPick();
+		slotMap.put(book.getISBN(), slot);
+	}
+
+	/**
+	 * Removes the book in <code>slot</code> by moving the book in the last
+	 * slot into it.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void removeSlot(int slot) {
+		int last = --numBooks;
+		slotMap.removeOrDefault(books[slot].getISBN(), -1);
+
+		if (slot != last) {
+			books[slot] = books[last];
+			numCopies[slot] = numCopies[last];
+			totalRating[slot] = totalRating[last];
+			numTimesRated[slot] = numTimesRated[last];
+			numSaleMisses[slot] = numSaleMisses[last];
+			editorPick[slot] = editorPick[last];
+			slotMap.put(books[slot].getISBN(), slot);
+		}
+
+		books[last] = null;
+	}
+
+	/**
+	 * Gets the slot of a book known to be in stock.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot
+	 */
+	private int slotOf(int isbn) {
+		return slotMap.getOrDefault(isbn, -1);
+	}
+
+	/**
+	 * Returns a {@link StockBook} copy of the book in <code>slot</code>.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the stock book
+	 */
+	private StockBook stockBookAt(int slot) {
+		ImmutableBook book = books[slot];
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				numCopies[slot], numSaleMisses[slot], numTimesRated[slot], totalRating[slot], editorPick[slot]);
+	}
+
+	/**
+	 * Gets the average rating of the book in <code>slot</code>.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the average rating, or -1 if the book was never rated
+	 */
+	private float averageRatingAt(int slot) {
+		long timesRated = numTimesRated[slot];
+		return (timesRated == 0 ? -1.0f : (float) totalRating[slot] / timesRated);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!slotMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		int slot = slotMap.getOrDefault(isbn, -1);
+		return (slot >= 0) ? books[slot] : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		int slot = slotMap.getOrDefault(isbn, -1);
+		return (slot >= 0 && editorPick[slot]) ? books[slot] : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		int slot = slotMap.getOrDefault(isbn, -1);
+		return (slot >= 0) ? new TopRatedIndex.RankedBook(books[slot], averageRatingAt(slot)) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		int slot = slotMap.getOrDefault(isbn, -1);
+		return (slot >= 0) ? numSaleMisses[slot] : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				append(book);
+			}
+			List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+			editorPickIndex.update(addedISBNs, this::editorPickOf);
+			topRatedIndex.update(addedISBNs, this::rankedBookOf);
+			searchIndex.update(addedISBNs, this::bookOf);
+			rangeIndex.update(addedISBNs, this::bookOf);
+			demandIndex.update(addedISBNs, this::numSaleMissesOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies; new copies clear the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = slotOf(bookCopy.getISBN());
+				numCopies[slot] += bookCopy.getNumCopies();
+
+				if (newCopies) {
+					numSaleMisses[slot] = 0;
+				}
+			}
+			demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<StockBook> result = new ArrayList<>(numBooks);
+
+			for (int slot = 0; slot < numBooks; slot++) {
+				result.add(stockBookAt(slot));
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				editorPick[slotOf(editorPickArg.getISBN())] = editorPickArg.isEditorPick();
+			}
+			editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), this::editorPickOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+
+				int slot = slotOf(bookCopyToBuy.getISBN());
+
+				if (numCopies[slot] < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - numCopies[slot]);
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					numSaleMisses[saleMissEntry.getKey()] += saleMissEntry.getValue();
+				}
+				demandIndex.update(salesMisses.keySet().stream().map(slot -> books[slot].getISBN()).collect(Collectors.toList()), this::numSaleMissesOf);
+
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				numCopies[slotOf(bookCopyToBuy.getISBN())] -= bookCopyToBuy.getNumCopies();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<StockBook> result = new ArrayList<>(isbnSet.size());
+
+			for (int isbn : isbnSet) {
+				result.add(stockBookAt(slotOf(isbn)));
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<Book> result = new ArrayList<>(isbnSet.size());
+
+			for (int isbn : isbnSet) {
+				result.add(books[slotOf(isbn)]);
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchIndex.search(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			return demandIndex.inDemand().stream()
+					.map(isbn -> stockBookAt(slotOf(isbn)))
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				int slot = slotOf(rating.getISBN());
+				totalRating[slot] += rating.getRating();
+				numTimesRated[slot]++;
+			}
+			topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()), this::rankedBookOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.writeLock().lock();
+		try {
+			slotMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			searchIndex.clear();
+			rangeIndex.clear();
+			demandIndex.clear();
+			numBooks = 0;
+			allocate(INITIAL_CAPACITY);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!slotMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				removeSlot(slotOf(isbn));
+			}
+			editorPickIndex.update(isbnSet, this::editorPickOf);
+			topRatedIndex.update(isbnSet, this::rankedBookOf);
+			searchIndex.update(isbnSet, this::bookOf);
+			rangeIndex.update(isbnSet, this::bookOf);
+			demandIndex.update(isbnSet, this::numSaleMissesOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
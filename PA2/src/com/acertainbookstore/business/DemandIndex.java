@@ -0,0 +1,152 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.IntToLongFunction;
+
+/**
+ * {@link DemandIndex} keeps the ISBNs of the books in demand, i.e., the books
+ * with sale misses, ordered by their number of sale misses. With it,
+ * <code>getBooksInDemand</code> visits the books in demand only instead of the
+ * whole catalog, and the most missed books are the first entries of the
+ * index.
+ *
+ * <p>
+ * The stores update the index whenever the sale misses of a book change, i.e.,
+ * in <code>buyBooks</code> when a purchase misses, in <code>addCopies</code>
+ * which resets them, in <code>addBooks</code>, <code>removeBooks</code> and
+ * <code>removeAllBooks</code>. Like the {@link TopRatedIndex}, the entries are
+ * kept in a {@link ConcurrentSkipListSet} and recorded by ISBN, so that
+ * updates of the same book are serialized and readers never block.
+ */
+public class DemandIndex {
+
+	/**
+	 * {@link Demand} is the entry of a book in demand.
+	 */
+	private static final class Demand implements Comparable<Demand> {
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The number of sale misses. */
+		private final long numSaleMisses;
+
+		/**
+		 * Instantiates a new {@link Demand}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @param numSaleMisses
+		 *            the number of sale misses
+		 */
+		private Demand(int isbn, long numSaleMisses) {
+			this.isbn = isbn;
+			this.numSaleMisses = numSaleMisses;
+		}
+
+		/**
+		 * Orders the entries by decreasing number of sale misses, and then by
+		 * ISBN.
+		 *
+		 * @param other
+		 *            the other entry
+		 * @return the comparison
+		 */
+		@Override
+		public int compareTo(Demand other) {
+			int byMisses = Long.compare(other.numSaleMisses, numSaleMisses);
+			return (byMisses != 0) ? byMisses : Integer.compare(isbn, other.isbn);
+		}
+	}
+
+	/** The books in demand, most missed first. */
+	private final ConcurrentSkipListSet<Demand> ranking = new ConcurrentSkipListSet<>();
+
+	/** The entry of each book in {@link #ranking}, by ISBN. */
+	private final ConcurrentHashMap<Integer, Demand> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, whose
+	 * sale misses changed or which were added or removed.
+	 * <code>numSaleMissesOf</code> is evaluated while the entry of the book is
+	 * locked, so concurrent updates of the same book leave the index in the
+	 * state seen by the last of them.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param numSaleMissesOf
+	 *            the function giving the number of sale misses of a book, and
+	 *            zero if it is not in stock
+	 */
+	public void update(Collection<Integer> isbns, IntToLongFunction numSaleMissesOf) {
+		for (int isbn : isbns) {
+			entries.compute(isbn, (key, previous) -> {
+				long numSaleMisses = numSaleMissesOf.applyAsLong(key);
+
+				if (previous != null && previous.numSaleMisses == numSaleMisses) {
+					return previous;
+				}
+
+				Demand next = (numSaleMisses > 0) ? new Demand(key, numSaleMisses) : null;
+
+				// Insert before removing, so that readers do not miss the book.
+				if (next != null) {
+					ranking.add(next);
+				}
+
+				if (previous != null) {
+					ranking.remove(previous);
+				}
+
+				return next;
+			});
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear() {
+		entries.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the <code>numBooks</code> most missed books, or of all
+	 * books in demand if there are not that many. An entry is only returned
+	 * while it is the current entry of its book, so a book being re-ranked is
+	 * not returned twice.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the ISBNs, most missed first
+	 */
+	public List<Integer> mostMissed(int numBooks) {
+		List<Integer> result = new ArrayList<>(Math.min(numBooks, entries.size()));
+
+		for (Demand demand : ranking) {
+			if (result.size() >= numBooks) {
+				break;
+			}
+
+			if (entries.get(demand.isbn) == demand) {
+				result.add(demand.isbn);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the ISBNs of all books in demand.
+	 *
+	 * @return the ISBNs, most missed first
+	 */
+	public List<Integer> inDemand() {
+		return mostMissed(Integer.MAX_VALUE);
+	}
+}
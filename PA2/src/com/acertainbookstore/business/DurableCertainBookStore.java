@@ -0,0 +1,846 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.BulkLoader;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreLogRecord;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.utils.CatalogCheckpoint;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+import com.acertainbookstore.utils.WriteAheadLog;
+
+/**
+ * {@link DurableCertainBookStore} makes the mutations of an in-memory store
+ * durable by recording them in a {@link WriteAheadLog}. It wraps the
+ * {@link BookStore} and {@link StockManager} of the store: reads go straight
+ * to the store, and every mutating operation is applied to the store, logged
+ * and made durable before it returns.
+ *
+ * <p>
+ * An operation holds the stripes of a {@link StripedReadWriteLock} covering
+ * the books it changes while it is applied, its record is built and the
+ * record is appended to the log, so the changes of a book are logged in the
+ * order in which they were made, while operations on disjoint books are
+ * applied and serialized in parallel. A log record holds the state of the
+ * books after the operation (see {@link BookStoreLogRecord}), which is also
+ * kept in a catalog of the last logged state of every book. Only appending
+ * the serialized record is done under a sequencing lock, and waiting for the
+ * log to be forced happens after the locks are released, so concurrent
+ * operations are made durable together by the group commit of the log.
+ * Removing all books and loading a catalog exclude every other operation.
+ *
+ * <p>
+ * The log is split into numbered segments in a directory. A checkpoint
+ * switches the operations to a new segment under the sequencing lock, which
+ * is the only time it holds them up, and then writes the catalog to a
+ * {@link CatalogCheckpoint} without locking the store. The catalog may
+ * already contain changes logged in the new segment, but replaying them again
+ * yields the same state, so the checkpoint together with the segments from
+ * the new one onwards is a complete copy of the stock, and older segments
+ * and checkpoints are deleted. When it is created, the store recovers from
+ * the latest checkpoint and the log tail after it, and loads the recovered
+ * books into the store, which must be empty.
+ *
+ * <p>
+ * A failed checkpoint does not affect the operations, which keep being logged
+ * to the current segment. The failure is reported by
+ * {@link #getCheckpointFailure()} until a checkpoint succeeds, and the
+ * background checkpointer reports it on the standard error and retries at
+ * its next interval.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see WriteAheadLog
+ * @see CatalogCheckpoint
+ */
+public class DurableCertainBookStore implements BookStore, StockManager, BulkLoader, Closeable {
+
+	/**
+	 * {@link Mutation} is a mutating operation of the wrapped store.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+
+		/**
+		 * Applies the operation.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/** The prefix of the names of the log segments. */
+	private static final String LOG_PREFIX = "wal-";
+
+	/** The suffix of the names of the log segments. */
+	private static final String LOG_SUFFIX = ".log";
+
+	/** The prefix of the names of the checkpoints. */
+	private static final String CHECKPOINT_PREFIX = "checkpoint-";
+
+	/** The suffix of the names of the checkpoints. */
+	private static final String CHECKPOINT_SUFFIX = ".bin";
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The directory of the log segments and checkpoints. */
+	private final Path directory;
+
+	/** The serializer of the log records. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The locks ordering the operations on a book in the store and the log. */
+	private final StripedReadWriteLock bookLocks = new StripedReadWriteLock();
+
+	/**
+	 * The lock shared by the operations on given books, and held exclusively
+	 * by the operations on the whole stock.
+	 */
+	private final ReadWriteLock stockLock = new ReentrantReadWriteLock();
+
+	/** The lock ordering the appends to the log and the switch of segment. */
+	private final ReentrantLock sequencer = new ReentrantLock();
+
+	/** The lock letting one checkpoint run at a time. */
+	private final ReentrantLock checkpointLock = new ReentrantLock();
+
+	/** The last logged state of every book, by ISBN. */
+	private final ConcurrentIntObjectHashMap<StockBook> catalog = new ConcurrentIntObjectHashMap<>();
+
+	/**
+	 * The current log segment, changed under both {@link #checkpointLock}
+	 * and {@link #sequencer}.
+	 */
+	private WriteAheadLog log = null;
+
+	/** The number of the current log segment, changed like {@link #log}. */
+	private long segment = 0;
+
+	/** The executor of the periodic checkpoints, if any. */
+	private ScheduledExecutorService checkpointer = null;
+
+	/** The failure of the last checkpoint, or null if it succeeded. */
+	private volatile BookStoreException checkpointFailure = null;
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore} without periodic
+	 * checkpoints and recovers the stock logged in <code>directory</code>.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param directory
+	 *            the directory of the log segments and checkpoints
+	 * @throws BookStoreException
+	 *             if the stock cannot be recovered
+	 */
+	public DurableCertainBookStore(BookStore bookStore, StockManager stockManager, Path directory)
+			throws BookStoreException {
+		this(bookStore, stockManager, directory, 0);
+	}
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore} and recovers the
+	 * stock logged in <code>directory</code>. If
+	 * <code>checkpointIntervalMillis</code> is positive, a checkpoint is taken
+	 * in the background with that delay between checkpoints.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param directory
+	 *            the directory of the log segments and checkpoints
+	 * @param checkpointIntervalMillis
+	 *            the delay between checkpoints in milliseconds, or zero
+	 * @throws BookStoreException
+	 *             if the stock cannot be recovered
+	 */
+	public DurableCertainBookStore(BookStore bookStore, StockManager stockManager, Path directory,
+			long checkpointIntervalMillis) throws BookStoreException {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.directory = directory;
+
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		try {
+			Files.createDirectories(directory);
+			recover();
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG_FAILED, ex);
+		}
+
+		if (checkpointIntervalMillis > 0) {
+			checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "checkpointer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			checkpointer.scheduleWithFixedDelay(() -> {
+				try {
+					checkpoint();
+				} catch (BookStoreException ex) {
+					System.err.println("Checkpoint failed, retrying in " + checkpointIntervalMillis + " ms: "
+							+ ex.getCause());
+				}
+			}, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Gets the path of a log segment.
+	 *
+	 * @param number
+	 *            the number of the segment
+	 * @return the path
+	 */
+	private Path logPath(long number) {
+		return directory.resolve(LOG_PREFIX + number + LOG_SUFFIX);
+	}
+
+	/**
+	 * Gets the path of a checkpoint.
+	 *
+	 * @param number
+	 *            the number of the log segment the checkpoint starts at
+	 * @return the path
+	 */
+	private Path checkpointPath(long number) {
+		return directory.resolve(CHECKPOINT_PREFIX + number + CHECKPOINT_SUFFIX);
+	}
+
+	/**
+	 * Gets the numbers of the files of the directory named
+	 * <code>prefix</code>, a number and <code>suffix</code>.
+	 *
+	 * @param prefix
+	 *            the prefix of the names
+	 * @param suffix
+	 *            the suffix of the names
+	 * @return the numbers, in ascending order
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	private List<Long> numbersOf(String prefix, String suffix) throws IOException {
+		List<Long> numbers = new ArrayList<>();
+
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+			for (Path path : paths) {
+				String name = path.getFileName().toString();
+
+				try {
+					numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+				} catch (NumberFormatException ex) {
+					// Not one of our files.
+				}
+			}
+		}
+
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Recovers the catalog from the latest checkpoint and the log segments
+	 * after it, loads it into the store and opens a new log segment.
+	 *
+	 * @throws IOException
+	 *             if the checkpoint or the log cannot be read
+	 * @throws BookStoreException
+	 *             if the books cannot be loaded into the store
+	 */
+	private void recover() throws IOException, BookStoreException {
+		List<Long> checkpoints = numbersOf(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+		long firstSegment = 0;
+
+		if (!checkpoints.isEmpty()) {
+			CatalogCheckpoint checkpoint = CatalogCheckpoint.read(checkpointPath(checkpoints.get(checkpoints.size() - 1)));
+
+			for (StockBook book : checkpoint.getBooks()) {
+				catalog.put(book.getISBN(), book);
+			}
+
+			firstSegment = checkpoint.getSegment();
+		}
+
+		segment = firstSegment;
+
+		for (long number : numbersOf(LOG_PREFIX, LOG_SUFFIX)) {
+			if (number < firstSegment) {
+				continue;
+			}
+
+			try (WriteAheadLog segmentLog = new WriteAheadLog(logPath(number))) {
+				for (byte[] bytes : segmentLog.getRecoveredRecords()) {
+					apply((BookStoreLogRecord) serializer.get().deserialize(bytes));
+				}
+			}
+
+			segment = number + 1;
+		}
+
+		load(catalog.values());
+		log = new WriteAheadLog(logPath(segment));
+	}
+
+	/**
+	 * Loads recovered books into the store, at once if it is a
+	 * {@link BulkLoader}. Otherwise, since <code>addBooks</code> only accepts
+	 * books with copies, sold out books are added with one copy which is then
+	 * bought.
+	 *
+	 * @param books
+	 *            the books
+	 * @throws BookStoreException
+	 *             if the books cannot be loaded
+	 */
+	private void load(List<StockBook> books) throws BookStoreException {
+		if (books.isEmpty()) {
+			return;
+		}
+
+		if (stockManager instanceof BulkLoader) {
+			((BulkLoader) stockManager).loadCatalog(books);
+			return;
+		}
+
+		Set<StockBook> booksToAdd = new HashSet<>();
+		Set<BookCopy> soldOutCopies = new HashSet<>();
+
+		for (StockBook book : books) {
+			if (book.getNumCopies() > 0) {
+				booksToAdd.add(book);
+			} else {
+				booksToAdd.add(new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice(), 1, book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+						book.isEditorPick()));
+				soldOutCopies.add(new BookCopy(book.getISBN(), 1));
+			}
+		}
+
+		stockManager.addBooks(booksToAdd);
+
+		if (!soldOutCopies.isEmpty()) {
+			bookStore.buyBooks(soldOutCopies);
+		}
+	}
+
+	/**
+	 * Applies the changes of a record to the {@link #catalog}.
+	 *
+	 * @param record
+	 *            the record
+	 */
+	private void apply(BookStoreLogRecord record) {
+		if (record.isCleared()) {
+			catalog.clear();
+		}
+
+		for (int isbn : record.getRemovedISBNs()) {
+			catalog.remove(isbn);
+		}
+
+		for (StockBook book : record.getChangedBooks()) {
+			catalog.put(book.getISBN(), book);
+		}
+	}
+
+	/**
+	 * Gets the state of books of the store, as logged.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books, all in stock
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<StockBook> changedBooks(Set<Integer> isbns) throws BookStoreException {
+		if (isbns.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		return stockManager.getBooksByISBN(isbns).stream().map(DurableCertainBookStore::imageOf)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Gets an immutable copy of the state of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the book if it is immutable, or a copy of it
+	 */
+	private static StockBook imageOf(StockBook book) {
+		return (book instanceof ImmutableStockBook) ? book
+				: new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+						book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+						book.isEditorPick());
+	}
+
+	/**
+	 * Applies a mutation to the store, logs its changes and waits until they
+	 * are durable. A mutation that fails is not logged, except if
+	 * <code>logFailure</code> is true, as for a purchase, which records its
+	 * sale misses even when it fails.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @param changedISBNs
+	 *            the ISBNs of the books the mutation changes
+	 * @param removedISBNs
+	 *            the ISBNs of the books the mutation removes
+	 * @param cleared
+	 *            whether the mutation removes all books
+	 * @param logFailure
+	 *            whether to log the changes of the mutation if it fails
+	 * @throws BookStoreException
+	 *             the exception thrown by the mutation, or if it cannot be
+	 *             logged
+	 */
+	private void execute(Mutation mutation, Set<Integer> changedISBNs, Set<Integer> removedISBNs, boolean cleared,
+			boolean logFailure) throws BookStoreException {
+		Lock stockLockMode = cleared ? stockLock.writeLock() : stockLock.readLock();
+		BookStoreException failure = null;
+		WriteAheadLog target;
+		long sequence;
+
+		stockLockMode.lock();
+		try {
+			Set<Integer> isbns = new HashSet<>(changedISBNs);
+			isbns.addAll(removedISBNs);
+			List<Lock> locks = bookLocks.lockAll(isbns, true);
+
+			try {
+				try {
+					mutation.apply();
+				} catch (BookStoreException ex) {
+					if (!logFailure) {
+						throw ex;
+					}
+
+					// Only the books in stock can have changed.
+					changedISBNs = changedISBNs.stream().filter(catalog::containsKey).collect(Collectors.toSet());
+
+					if (changedISBNs.isEmpty()) {
+						throw ex;
+					}
+
+					failure = ex;
+				}
+
+				BookStoreLogRecord record = new BookStoreLogRecord(cleared, removedISBNs, changedBooks(changedISBNs));
+				byte[] bytes = serializer.get().serialize(record);
+
+				// The catalog is changed before the record is appended, so a
+				// checkpoint starting at a later segment includes the change.
+				apply(record);
+
+				sequencer.lock();
+				try {
+					target = log;
+					sequence = target.append(bytes);
+				} finally {
+					sequencer.unlock();
+				}
+			} finally {
+				StripedReadWriteLock.unlockAll(locks);
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG_FAILED, ex);
+		} finally {
+			stockLockMode.unlock();
+		}
+
+		try {
+			target.awaitDurable(sequence);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG_FAILED, ex);
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Takes a checkpoint of the stock and deletes the log segments and
+	 * checkpoints it supersedes. Operations are only held up while they are
+	 * switched to a new log segment. If the checkpoint fails, the operations
+	 * go on in the current segment, and the failure is reported by
+	 * {@link #getCheckpointFailure()} until a checkpoint succeeds.
+	 *
+	 * @throws BookStoreException
+	 *             if the checkpoint cannot be written
+	 */
+	public void checkpoint() throws BookStoreException {
+		checkpointLock.lock();
+		try {
+			writeCheckpoint(startSegment());
+			checkpointFailure = null;
+		} catch (IOException ex) {
+			checkpointFailure = new BookStoreException(BookStoreConstants.LOG_FAILED, ex);
+			throw checkpointFailure;
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the failure of the last checkpoint.
+	 *
+	 * @return the failure, or null if the last checkpoint succeeded
+	 */
+	public BookStoreException getCheckpointFailure() {
+		return checkpointFailure;
+	}
+
+	/**
+	 * Switches the operations to a new log segment, under the
+	 * {@link #checkpointLock}.
+	 *
+	 * @return the number of the new segment
+	 * @throws IOException
+	 *             if the new segment cannot be opened or the previous one
+	 *             closed
+	 */
+	private long startSegment() throws IOException {
+		long nextSegment = segment + 1;
+		WriteAheadLog nextLog = new WriteAheadLog(logPath(nextSegment));
+		WriteAheadLog previousLog;
+
+		sequencer.lock();
+		try {
+			previousLog = log;
+			log = nextLog;
+			segment = nextSegment;
+		} finally {
+			sequencer.unlock();
+		}
+
+		previousLog.close();
+		return nextSegment;
+	}
+
+	/**
+	 * Writes the {@link #catalog} to a checkpoint from which the log is
+	 * replayed at <code>checkpointSegment</code>, and deletes the log segments
+	 * and checkpoints it supersedes, under the {@link #checkpointLock}.
+	 *
+	 * @param checkpointSegment
+	 *            the log segment from which the log is replayed
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 */
+	private void writeCheckpoint(long checkpointSegment) throws IOException {
+		CatalogCheckpoint.write(checkpointPath(checkpointSegment), checkpointSegment, catalog.values());
+
+		for (long number : numbersOf(LOG_PREFIX, LOG_SUFFIX)) {
+			if (number < checkpointSegment) {
+				Files.deleteIfExists(logPath(number));
+			}
+		}
+
+		for (long number : numbersOf(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+			if (number < checkpointSegment) {
+				Files.deleteIfExists(checkpointPath(number));
+			}
+		}
+	}
+
+	/**
+	 * Replaces the stock with the books of a catalog, if the wrapped store is
+	 * a {@link BulkLoader}. Instead of being logged, the new stock is written
+	 * to a checkpoint, and the operations are held up until the checkpoint is
+	 * durable, since the log before it no longer describes the stock.
+	 *
+	 * @param books
+	 *            the books of the catalog
+	 * @throws BookStoreException
+	 *             if the wrapped store cannot bulk load, a book is invalid, or
+	 *             the checkpoint cannot be written
+	 */
+	@Override
+	public void loadCatalog(List<StockBook> books) throws BookStoreException {
+		if (!(stockManager instanceof BulkLoader)) {
+			throw new BookStoreException(BookStoreConstants.BULK_LOAD_UNSUPPORTED);
+		}
+
+		checkpointLock.lock();
+		stockLock.writeLock().lock();
+		try {
+			((BulkLoader) stockManager).loadCatalog(books);
+			catalog.clear();
+
+			for (StockBook book : books) {
+				catalog.put(book.getISBN(), imageOf(book));
+			}
+
+			writeCheckpoint(startSegment());
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG_FAILED, ex);
+		} finally {
+			stockLock.writeLock().unlock();
+			checkpointLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the ISBNs of a set of input values.
+	 *
+	 * @param values
+	 *            the input values
+	 * @param isbnOf
+	 *            the function giving the ISBN of a value
+	 * @return the ISBNs
+	 * @throws BookStoreException
+	 *             if <code>values</code> is null
+	 */
+	private static <T> Set<Integer> isbnsOf(Set<T> values, ToIntFunction<T> isbnOf)
+			throws BookStoreException {
+		if (values == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+
+		for (T value : values) {
+			isbns.add(isbnOf.applyAsInt(value));
+		}
+
+		return isbns;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		execute(() -> stockManager.addBooks(bookSet), isbnsOf(bookSet, StockBook::getISBN), new HashSet<>(), false,
+				false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		execute(() -> stockManager.addCopies(bookCopiesSet), isbnsOf(bookCopiesSet, BookCopy::getISBN),
+				new HashSet<>(), false, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		execute(() -> stockManager.updateEditorPicks(editorPicks), isbnsOf(editorPicks, BookEditorPick::getISBN),
+				new HashSet<>(), false, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		execute(() -> bookStore.buyBooks(bookCopiesToBuy), isbnsOf(bookCopiesToBuy, BookCopy::getISBN),
+				new HashSet<>(), false, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		return bookStore.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		return bookStore.getBooksByPriceRange(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		return bookStore.getBooksByISBNRange(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		execute(() -> bookStore.rateBooks(bookRating), isbnsOf(bookRating, BookRating::getISBN), new HashSet<>(),
+				false, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		execute(() -> stockManager.removeAllBooks(), new HashSet<>(), new HashSet<>(), true, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> stockManager.removeBooks(isbnSet), new HashSet<>(), new HashSet<>(isbnSet), false, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (checkpointer != null) {
+			checkpointer.shutdown();
+		}
+
+		checkpointLock.lock();
+		try {
+			log.close();
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.utils.IntIntHashMap;
+
+/**
+ * {@link EditorPickIndex} keeps the editor picks of a store in a dense array,
+ * so that <code>getEditorPicks</code> can sample them in time proportional to
+ * the number of books requested rather than to the size of the catalog.
+ *
+ * <p>
+ * The stores update the index whenever the editor picks change, i.e., in
+ * <code>addBooks</code>, <code>updateEditorPicks</code>,
+ * <code>removeBooks</code> and <code>removeAllBooks</code>, while still
+ * holding the locks of the change. Every update is applied atomically under
+ * a {@link StampedLock}; sampling runs as an optimistic read and only takes
+ * the read lock if it raced with an update.
+ */
+public class EditorPickIndex {
+
+	/** The initial capacity of {@link #picks}. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The editor picks; the first {@link #size} entries are in use. */
+	private Book[] picks = new Book[INITIAL_CAPACITY];
+
+	/** The number of editor picks. */
+	private int size = 0;
+
+	/** The position of each editor pick in {@link #picks}, by ISBN. */
+	private final IntIntHashMap positions = new IntIntHashMap();
+
+	/** The lock guarding the index. */
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, whose
+	 * editor pick flags changed or which were added or removed.
+	 * <code>editorPickOf</code> is evaluated for each of them while the index
+	 * is locked, so concurrent updates of the same book leave the index in the
+	 * state seen by the last of them.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param editorPickOf
+	 *            the function giving the client view of a book if it is an
+	 *            editor pick, and null if it is not or is no longer in stock
+	 */
+	public void update(Collection<Integer> isbns, IntFunction<? extends Book> editorPickOf) {
+		if (isbns.isEmpty()) {
+			return;
+		}
+
+		long stamp = lock.writeLock();
+		try {
+			for (int isbn : isbns) {
+				Book book = editorPickOf.apply(isbn);
+
+				if (book != null) {
+					put(book);
+				} else {
+					remove(isbn);
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes all editor picks.
+	 */
+	public void clear() {
+		long stamp = lock.writeLock();
+		try {
+			Arrays.fill(picks, 0, size, null);
+			size = 0;
+			positions.clear();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Adds or replaces an editor pick.
+	 *
+	 * @param book
+	 *            the client view of the book
+	 */
+	private void put(Book book) {
+		int position = positions.getOrDefault(book.getISBN(), -1);
+
+		if (position >= 0) {
+			picks[position] = book;
+			return;
+		}
+
+		if (size == picks.length) {
+			picks = Arrays.copyOf(picks, size * 2);
+		}
+
+		picks[size] = book;
+		positions.put(book.getISBN(), size);
+		size++;
+	}
+
+	/**
+	 * Removes an editor pick by moving the last one into its position.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	private void remove(int isbn) {
+		int position = positions.removeOrDefault(isbn, -1);
+
+		if (position < 0) {
+			return;
+		}
+
+		int last = --size;
+
+		if (position != last) {
+			picks[position] = picks[last];
+			positions.put(picks[position].getISBN(), position);
+		}
+
+		picks[last] = null;
+	}
+
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @return the number of editor picks
+	 */
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int result = size;
+
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				result = size;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets <code>numBooks</code> distinct editor picks chosen uniformly at
+	 * random, or all of them if there are not that many.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the editor picks
+	 */
+	public List<Book> sample(int numBooks) {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0L) {
+			try {
+				List<Book> result = sample(picks, size, numBooks);
+
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException ex) {
+				// Observed the index mid-update; retry under the read lock.
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return sample(picks, size, numBooks);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Samples <code>numBooks</code> of the first <code>size</code> entries of
+	 * <code>books</code> with a partial Fisher-Yates shuffle. The shuffle runs
+	 * on a virtual copy of the positions in which only the positions that were
+	 * swapped are recorded, so its cost does not depend on <code>size</code>.
+	 *
+	 * @param books
+	 *            the books
+	 * @param size
+	 *            the number of books
+	 * @param numBooks
+	 *            the number of books to sample
+	 * @return the sampled books
+	 */
+	private static List<Book> sample(Book[] books, int size, int numBooks) {
+		if (numBooks >= size) {
+			return new ArrayList<>(Arrays.asList(books).subList(0, size));
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		IntIntHashMap swapped = new IntIntHashMap(numBooks);
+		List<Book> result = new ArrayList<>(numBooks);
+
+		for (int i = 0; i < numBooks; i++) {
+			int j = i + random.nextInt(size - i);
+			int atI = swapped.getOrDefault(i, i);
+			int atJ = swapped.getOrDefault(j, j);
+
+			swapped.put(j, atI);
+			result.add(books[atJ]);
+		}
+
+		return result;
+	}
+}
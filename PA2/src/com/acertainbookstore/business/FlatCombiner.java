@@ -0,0 +1,183 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.LockTimeoutException;
+
+/**
+ * {@link FlatCombiner} runs operations that need the same {@link Lock} by
+ * flat combining: instead of every caller acquiring the lock in turn, each
+ * caller publishes its operation, and whichever caller acquires the lock
+ * becomes the combiner and applies all published operations in one batch
+ * before releasing it. The other callers wait for their operation to be
+ * marked done, so under contention the lock changes hands once per batch
+ * rather than once per operation, and the data the operations touch stays in
+ * the cache of the combining thread.
+ *
+ * <p>
+ * The operations of a batch are applied one after the other, each with its
+ * own outcome: an operation that throws does not affect the others, and its
+ * exception is handed back to and rethrown in the caller that published it.
+ * A waiting caller keeps trying to become the combiner itself, first by
+ * spinning and then by waiting for the lock until its deadline, so an
+ * operation published just after a batch was taken is still applied. A
+ * caller whose deadline passes withdraws its operation and fails, unless a
+ * combiner already took the operation, which is then waited for.
+ */
+public class FlatCombiner {
+
+	/**
+	 * {@link Operation} is the work published by a caller, applied with the
+	 * lock held.
+	 */
+	@FunctionalInterface
+	public interface Operation {
+
+		/**
+		 * Applies the operation.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/**
+	 * {@link Request} is the publication record of an operation.
+	 */
+	private static final class Request {
+
+		/** The operation. */
+		private final Operation operation;
+
+		/**
+		 * The failure of the operation, if any, published by the write of
+		 * {@link #done}.
+		 */
+		private Throwable failure = null;
+
+		/** Whether the operation has been applied. */
+		private volatile boolean done = false;
+
+		/**
+		 * Instantiates a new {@link Request}.
+		 *
+		 * @param operation
+		 *            the operation
+		 */
+		private Request(Operation operation) {
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * The maximum number of operations a combiner applies before releasing the
+	 * lock, so that a combiner does not serve a stream of arrivals forever.
+	 */
+	private static final int MAX_BATCH_SIZE = 256;
+
+	/**
+	 * The number of attempts a waiting caller makes to become the combiner
+	 * before it waits for the lock.
+	 */
+	private static final int MAX_SPINS = 64;
+
+	/** The lock the operations are applied under. */
+	private final Lock lock;
+
+	/** The published operations not yet taken by a combiner. */
+	private final ConcurrentLinkedQueue<Request> published = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Instantiates a new {@link FlatCombiner}.
+	 *
+	 * @param lock
+	 *            the lock the operations are applied under
+	 */
+	public FlatCombiner(Lock lock) {
+		this.lock = lock;
+	}
+
+	/**
+	 * Publishes <code>operation</code> and returns once it has been applied,
+	 * by this thread or by another combiner.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param timeoutMillis
+	 *            the maximum time to wait for the lock in milliseconds
+	 * @throws BookStoreException
+	 *             the exception thrown by the operation, or a
+	 *             {@link LockTimeoutException} if the lock cannot be acquired
+	 *             in time, or the thread is interrupted while waiting, before
+	 *             the operation is taken by a combiner
+	 */
+	public void execute(Operation operation, long timeoutMillis) throws BookStoreException {
+		Request request = new Request(operation);
+		published.add(request);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		for (int spins = 0; !request.done; spins++) {
+			boolean locked;
+
+			if (spins < MAX_SPINS) {
+				locked = lock.tryLock();
+			} else {
+				long remaining = deadline - System.nanoTime();
+
+				try {
+					locked = remaining > 0 && lock.tryLock(remaining, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					locked = false;
+				}
+
+				// Failing is only safe while no combiner took the operation.
+				if (!locked && published.remove(request)) {
+					throw new LockTimeoutException(timeoutMillis);
+				}
+			}
+
+			if (!locked) {
+				Thread.yield();
+				continue;
+			}
+
+			try {
+				combine();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		Throwable failure = request.failure;
+
+		if (failure instanceof BookStoreException) {
+			throw (BookStoreException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Applies a batch of published operations; the lock must be held.
+	 */
+	private void combine() {
+		Request request;
+
+		for (int i = 0; i < MAX_BATCH_SIZE && (request = published.poll()) != null; i++) {
+			try {
+				request.operation.apply();
+			} catch (BookStoreException | RuntimeException | Error ex) {
+				request.failure = ex;
+			}
+
+			request.done = true;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link IntentionLock} implements the top level of a hierarchical (multiple
+ * granularity) locking protocol. Besides the shared (S) and exclusive (X)
+ * modes it offers the intention modes IS and IX, which announce that the
+ * holder is going to take shared or exclusive locks on individual books
+ * further down the hierarchy.
+ *
+ * <p>
+ * The compatibility matrix is the classic one:
+ *
+ * <pre>
+ *        IS   IX   S    X
+ *   IS   yes  yes  yes  no
+ *   IX   yes  yes  no   no
+ *   S    yes  no   yes  no
+ *   X    no   no   no   no
+ * </pre>
+ *
+ * Waiting S and X requests block newly arriving requests they conflict with,
+ * so a steady stream of intention locks cannot starve a catalog-wide reader or
+ * writer. The lock is not reentrant.
+ */
+public class IntentionLock {
+
+	/**
+	 * The lock modes supported by {@link IntentionLock}.
+	 */
+	public enum Mode {
+
+		/** Intention shared. */
+		IS,
+
+		/** Intention exclusive. */
+		IX,
+
+		/** Shared. */
+		S,
+
+		/** Exclusive. */
+		X;
+	}
+
+	/** The monitor protecting the holder and waiter counts. */
+	private final ReentrantLock monitor = new ReentrantLock();
+
+	/** Signalled whenever a holder releases the lock. */
+	private final Condition released = monitor.newCondition();
+
+	/** The number of holders per mode, indexed by {@link Mode#ordinal()}. */
+	private final int[] holders = new int[Mode.values().length];
+
+	/** The number of threads waiting for S. */
+	private int waitingShared = 0;
+
+	/** The number of threads waiting for X. */
+	private int waitingExclusive = 0;
+
+	/**
+	 * Acquires the lock in the given mode, blocking until it is compatible
+	 * with all current holders.
+	 *
+	 * @param mode
+	 *            the mode
+	 */
+	public void lock(Mode mode) {
+		monitor.lock();
+		try {
+			if (mode == Mode.S) {
+				waitingShared++;
+			} else if (mode == Mode.X) {
+				waitingExclusive++;
+			}
+
+			try {
+				while (!isGrantable(mode)) {
+					released.awaitUninterruptibly();
+				}
+			} finally {
+				if (mode == Mode.S) {
+					waitingShared--;
+				} else if (mode == Mode.X) {
+					waitingExclusive--;
+				}
+			}
+
+			holders[mode.ordinal()]++;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Releases the lock previously acquired in the given mode.
+	 *
+	 * @param mode
+	 *            the mode
+	 */
+	public void unlock(Mode mode) {
+		monitor.lock();
+		try {
+			if (holders[mode.ordinal()] == 0) {
+				throw new IllegalMonitorStateException("Lock is not held in mode " + mode);
+			}
+
+			holders[mode.ordinal()]--;
+			released.signalAll();
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether <code>mode</code> can be granted right now. Must be
+	 * called while holding the monitor.
+	 *
+	 * @param mode
+	 *            the mode
+	 * @return true, if the mode is compatible with holders and waiters
+	 */
+	private boolean isGrantable(Mode mode) {
+		int is = holders[Mode.IS.ordinal()];
+		int ix = holders[Mode.IX.ordinal()];
+		int s = holders[Mode.S.ordinal()];
+		int x = holders[Mode.X.ordinal()];
+
+		switch (mode) {
+		case IS:
+			return x == 0 && waitingExclusive == 0;
+
+		case IX:
+			return s == 0 && x == 0 && waitingShared == 0 && waitingExclusive == 0;
+
+		case S:
+			return ix == 0 && x == 0 && waitingExclusive == 0;
+
+		case X:
+			return is == 0 && ix == 0 && s == 0 && x == 0;
+
+		default:
+			throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+	}
+}
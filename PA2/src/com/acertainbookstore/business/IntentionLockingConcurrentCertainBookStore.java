@@ -0,0 +1,658 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.business.IntentionLock.Mode;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link IntentionLockingConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities using
+ * hierarchical locking: the catalog is protected by an {@link IntentionLock}
+ * and the books by a {@link StripedReadWriteLock}.
+ *
+ * <p>
+ * Operations touching individual books take an intention lock (IS/IX) on the
+ * catalog and shared/exclusive locks on the books, so that e.g. two
+ * <code>buyBooks</code> calls on disjoint ISBNs run in parallel. Only the
+ * operations that change the shape of the catalog (<code>addBooks</code>,
+ * <code>removeBooks</code>, <code>removeAllBooks</code>) take X on the
+ * catalog, and catalog-wide reads take S.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see IntentionLock
+ */
+public class IntentionLockingConcurrentCertainBookStore implements BookStore, StockManager, StockReturner {
+
+	/**
+	 * The mapping of books from ISBN to {@link BookStoreBook}. Its structure
+	 * is only modified while holding X on the catalog lock.
+	 */
+	private IntObjectHashMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private DemandIndex demandIndex = null;
+
+	/** The catalog (top level) lock. */
+	private IntentionLock catalogLock = null;
+
+	/** The book (second level) locks. */
+	private StripedReadWriteLock bookLocks = null;
+
+	/**
+	 * Instantiates a new {@link IntentionLockingConcurrentCertainBookStore}.
+	 */
+	public IntentionLockingConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new IntObjectHashMap<>();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
+		catalogLock = new IntentionLock();
+		bookLocks = new StripedReadWriteLock();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null && book.isEditorPick()) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? new TopRatedIndex.RankedBook(book.immutableBook(), book.getAverageRating()) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.getNumSaleMisses() : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock(Mode.X);
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				bookMap.put(isbn, new BookStoreBook(book));
+			}
+			List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+			editorPickIndex.update(addedISBNs, this::editorPickOf);
+			topRatedIndex.update(addedISBNs, this::rankedBookOf);
+			searchIndex.update(addedISBNs, this::bookOf);
+			rangeIndex.update(addedISBNs, this::bookOf);
+			demandIndex.update(addedISBNs, this::numSaleMissesOf);
+		} finally {
+			catalogLock.unlock(Mode.X);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = new ArrayList<>();
+		catalogLock.lock(Mode.IX);
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			locks = bookLocks.lockAll(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), true);
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = bookMap.get(bookCopy.getISBN());
+
+				if (newCopies) {
+					book.addCopies(bookCopy.getNumCopies());
+				} else {
+					book.returnCopies(bookCopy.getNumCopies());
+				}
+			}
+			demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+			catalogLock.unlock(Mode.IX);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		// S on the catalog excludes every writer, so no book locks are needed.
+		catalogLock.lock(Mode.S);
+		try {
+			return bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			catalogLock.unlock(Mode.S);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = new ArrayList<>();
+		catalogLock.lock(Mode.IX);
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			locks = bookLocks.lockAll(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), true);
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+			editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), this::editorPickOf);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+			catalogLock.unlock(Mode.IX);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = new ArrayList<>();
+		catalogLock.lock(Mode.IX);
+		try {
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+			}
+
+			// The stock check and the purchase must see the same copies, so
+			// the books are locked before looking at them.
+			locks = bookLocks.lockAll(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()), true);
+
+			BookStoreBook book;
+			Boolean saleMiss = false;
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+				}
+				demandIndex.update(salesMisses.keySet(), this::numSaleMissesOf);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+			catalogLock.unlock(Mode.IX);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = new ArrayList<>();
+		catalogLock.lock(Mode.IS);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			locks = bookLocks.lockAll(isbnSet, false);
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+			catalogLock.unlock(Mode.IS);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = new ArrayList<>();
+		catalogLock.lock(Mode.IS);
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			locks = bookLocks.lockAll(isbnSet, false);
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+			catalogLock.unlock(Mode.IS);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchIndex.search(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// S on the catalog excludes every writer, so no book locks are needed.
+		catalogLock.lock(Mode.S);
+		try {
+			return demandIndex.inDemand().stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			catalogLock.unlock(Mode.S);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = new ArrayList<>();
+		catalogLock.lock(Mode.IX);
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			locks = bookLocks.lockAll(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()), true);
+
+			for (BookRating rating : bookRating) {
+				bookMap.get(rating.getISBN()).addRating(rating.getRating());
+			}
+			topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()), this::rankedBookOf);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+			catalogLock.unlock(Mode.IX);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		catalogLock.lock(Mode.X);
+		try {
+			bookMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			searchIndex.clear();
+			rangeIndex.clear();
+			demandIndex.clear();
+		} finally {
+			catalogLock.unlock(Mode.X);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock(Mode.X);
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+			}
+			editorPickIndex.update(isbnSet, this::editorPickOf);
+			topRatedIndex.update(isbnSet, this::rankedBookOf);
+			searchIndex.update(isbnSet, this::bookOf);
+			rangeIndex.update(isbnSet, this::bookOf);
+			demandIndex.update(isbnSet, this::numSaleMissesOf);
+		} finally {
+			catalogLock.unlock(Mode.X);
+		}
+	}
+}
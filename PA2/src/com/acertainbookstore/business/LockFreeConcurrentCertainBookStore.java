@@ -0,0 +1,1250 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link LockFreeConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities without locks on the stock: a
+ * mutation or a read of the stock never waits for another one, and a thread
+ * stalled in the middle of a mutation cannot hold the others back.
+ *
+ * <p>
+ * The catalog is a {@link ConcurrentHashMap} from ISBN to a {@link BookEntry}
+ * whose state is an immutable {@link StockBook}. A mutation never changes a
+ * state in place: it reads the states of its books, computes their new states
+ * and swaps them all at once with a {@link Commit}, a multi-word
+ * compare-and-set. The commit puts a descriptor of itself in place of the
+ * states of its books, in ascending ISBN order, decides with one
+ * compare-and-set that it succeeded if it found the states it expected, and
+ * then puts the new states, or the old ones if it failed, back. A mutation
+ * which meets the descriptor of another one completes that commit for it
+ * rather than waiting, and a mutation whose books changed since it read them
+ * reads them again and retries. So a purchase is all-or-nothing and isolated:
+ * it takes its copies only from the states it checked, the sale misses of a
+ * failed purchase are those of that stock, and a purchase never succeeds on a
+ * book removed in the meantime.
+ *
+ * <p>
+ * Readers never write. A read of several books collects their states until
+ * two collections in a row agree, so it never observes half of a mutation and
+ * only reads again after a mutation committed. New books are published under
+ * the descriptor of their addition, which nobody else can decide, so they are
+ * not in stock before the whole addition is, and a failed addition only takes
+ * back its own entries. Only additions and removals change the map itself,
+ * whose updates hold one of its bins for a few instructions, and the secondary
+ * indexes keep their own short critical sections, as in the other stores.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class LockFreeConcurrentCertainBookStore implements BookStore, StockManager, StockReturner {
+
+	/** The state of a book which is being added, or whose addition failed. */
+	private static final Object ABSENT = new Object();
+
+	/** The state of a removed book. */
+	private static final Object REMOVED = new Object();
+
+	/**
+	 * {@link BookEntry} holds the state of one book of the catalog: a
+	 * {@link StockBook} while the book is in stock, {@link #ABSENT} or
+	 * {@link #REMOVED} otherwise, or the {@link Slot} of a commit changing it.
+	 */
+	private static final class BookEntry {
+
+		/** The updater for {@link #state}. */
+		private static final AtomicReferenceFieldUpdater<BookEntry, Object> STATE = AtomicReferenceFieldUpdater
+				.newUpdater(BookEntry.class, Object.class, "state");
+
+		/** The client view of the book, which never changes. */
+		private final Book book;
+
+		/** The state of the book. */
+		private volatile Object state;
+
+		/**
+		 * Instantiates a new {@link BookEntry}.
+		 *
+		 * @param book
+		 *            the client view
+		 */
+		private BookEntry(Book book) {
+			this.book = book;
+		}
+
+		/**
+		 * Gets the state of the book, resolving the descriptor of a commit
+		 * changing it.
+		 *
+		 * @return the state
+		 */
+		private Object read() {
+			Object current = state;
+			return (current instanceof Slot) ? ((Slot) current).value() : current;
+		}
+
+		/**
+		 * Gets the stock view of the book.
+		 *
+		 * @return the book, or null if it is not in stock
+		 */
+		private StockBook stockBook() {
+			Object current = read();
+			return (current instanceof StockBook) ? (StockBook) current : null;
+		}
+
+		/**
+		 * Checks if the book is being added by an addition not decided yet.
+		 *
+		 * @return true, if the book is being added
+		 */
+		private boolean isBeingAdded() {
+			Object current = state;
+			return (current instanceof Slot) && ((Slot) current).commit.isPendingAddition();
+		}
+	}
+
+	/**
+	 * {@link Slot} is the descriptor a {@link Commit} puts in place of the
+	 * state of one of its books.
+	 */
+	private static final class Slot {
+
+		/** The commit. */
+		private final Commit commit;
+
+		/** The index of the book in the commit. */
+		private final int index;
+
+		/**
+		 * Instantiates a new {@link Slot}.
+		 *
+		 * @param commit
+		 *            the commit
+		 * @param index
+		 *            the index of the book
+		 */
+		private Slot(Commit commit, int index) {
+			this.commit = commit;
+			this.index = index;
+		}
+
+		/**
+		 * Gets the state of the book: the new one once the commit succeeded,
+		 * the old one otherwise.
+		 *
+		 * @return the state
+		 */
+		private Object value() {
+			return (commit.status == Commit.SUCCEEDED) ? commit.updated[index] : commit.expected[index];
+		}
+	}
+
+	/**
+	 * {@link Commit} swaps the states of several books atomically. States are
+	 * never reused, so an entry never holds an expected state again once the
+	 * commit is decided, and a thread which puts the descriptor back late does
+	 * not change the state of the book.
+	 */
+	private static final class Commit {
+
+		/** The status of a commit which is not decided yet. */
+		private static final int UNDECIDED = 0;
+
+		/** The status of a commit which swapped its states. */
+		private static final int SUCCEEDED = 1;
+
+		/** The status of a commit which left its states unchanged. */
+		private static final int FAILED = 2;
+
+		/** The updater for {@link #status}. */
+		private static final AtomicIntegerFieldUpdater<Commit> STATUS = AtomicIntegerFieldUpdater
+				.newUpdater(Commit.class, "status");
+
+		/** The entries of the books, in ascending ISBN order. */
+		private final BookEntry[] entries;
+
+		/** The states the books must have. */
+		private final Object[] expected;
+
+		/** The new states of the books. */
+		private final Object[] updated;
+
+		/** The descriptors of the books. */
+		private final Slot[] slots;
+
+		/**
+		 * Whether other threads may complete the commit; an addition is only
+		 * decided by its own mutation.
+		 */
+		private final boolean helpable;
+
+		/** The status. */
+		private volatile int status = UNDECIDED;
+
+		/**
+		 * Instantiates a new {@link Commit}.
+		 *
+		 * @param entries
+		 *            the entries of the books, distinct and in ascending ISBN
+		 *            order
+		 * @param expected
+		 *            the states the books must have
+		 * @param updated
+		 *            the new states of the books
+		 * @param helpable
+		 *            whether other threads may complete the commit
+		 */
+		private Commit(BookEntry[] entries, Object[] expected, Object[] updated, boolean helpable) {
+			this.entries = entries;
+			this.expected = expected;
+			this.updated = updated;
+			this.helpable = helpable;
+			this.slots = new Slot[entries.length];
+
+			for (int i = 0; i < entries.length; i++) {
+				slots[i] = new Slot(this, i);
+			}
+		}
+
+		/**
+		 * Checks if the commit is an addition not decided yet.
+		 *
+		 * @return true, if it is a pending addition
+		 */
+		private boolean isPendingAddition() {
+			return !helpable && status == UNDECIDED;
+		}
+
+		/**
+		 * Runs the commit to its end.
+		 *
+		 * @return true, if the states were swapped
+		 */
+		private boolean run() {
+			help();
+			return status == SUCCEEDED;
+		}
+
+		/**
+		 * Completes the commit: decides it unless it is a pending addition,
+		 * and puts the resulting states in place of its descriptors.
+		 */
+		private void help() {
+			if (status == UNDECIDED && helpable) {
+				decide(acquire());
+			}
+
+			if (status != UNDECIDED) {
+				release();
+			}
+		}
+
+		/**
+		 * Puts the descriptors in place of the expected states, in order.
+		 *
+		 * @return true, if every book holds its descriptor
+		 */
+		private boolean acquire() {
+			for (int i = 0; i < entries.length; i++) {
+				if (status != UNDECIDED) {
+					// Decided by another thread, which acquired for us.
+					return status == SUCCEEDED;
+				}
+
+				if (!install(i)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Puts the descriptor of one book in place of its expected state,
+		 * completing the commits in the way.
+		 *
+		 * @param i
+		 *            the index of the book
+		 * @return false, if the book does not have its expected state
+		 */
+		private boolean install(int i) {
+			BookEntry entry = entries[i];
+
+			while (true) {
+				Object current = entry.state;
+
+				if (current == slots[i]) {
+					return true;
+				}
+
+				if (current instanceof Slot) {
+					Commit other = ((Slot) current).commit;
+
+					if (other.isPendingAddition()) {
+						// The book is not in stock yet, so it is not what we read.
+						return false;
+					}
+
+					// The other commit only waits for books of higher ISBNs,
+					// so helping it cannot come back to us.
+					other.help();
+				} else if (current != expected[i]) {
+					return false;
+				} else if (BookEntry.STATE.compareAndSet(entry, current, slots[i])) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Decides the commit, unless another thread already did.
+		 *
+		 * @param succeeded
+		 *            whether the commit succeeded
+		 */
+		private void decide(boolean succeeded) {
+			STATUS.compareAndSet(this, UNDECIDED, succeeded ? SUCCEEDED : FAILED);
+		}
+
+		/**
+		 * Puts the new states, or the expected ones if the commit failed, in
+		 * place of the descriptors.
+		 */
+		private void release() {
+			boolean succeeded = status == SUCCEEDED;
+
+			for (int i = 0; i < entries.length; i++) {
+				BookEntry.STATE.compareAndSet(entries[i], slots[i], succeeded ? updated[i] : expected[i]);
+			}
+		}
+	}
+
+	/** The mapping of books from ISBN to {@link BookEntry}. */
+	private ConcurrentHashMap<Integer, BookEntry> bookMap = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private DemandIndex demandIndex = null;
+
+	/**
+	 * Instantiates a new {@link LockFreeConcurrentCertainBookStore}.
+	 */
+	public LockFreeConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new ConcurrentHashMap<>();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
+	}
+
+	/**
+	 * Makes a new state of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @param numTimesRated
+	 *            the number of ratings
+	 * @param totalRating
+	 *            the sum of the ratings
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 * @return the state
+	 */
+	private static StockBook stateOf(StockBook book, int numCopies, long numSaleMisses, long numTimesRated,
+			long totalRating, boolean editorPick) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), numCopies,
+				numSaleMisses, numTimesRated, totalRating, editorPick);
+	}
+
+	/**
+	 * Reads the states of books for a commit.
+	 *
+	 * @param entries
+	 *            the entries of the books
+	 * @return the states
+	 * @throws BookStoreException
+	 *             if a book is no longer in stock
+	 */
+	private static StockBook[] read(BookEntry[] entries) throws BookStoreException {
+		StockBook[] books = new StockBook[entries.length];
+
+		for (int i = 0; i < entries.length; i++) {
+			books[i] = entries[i].stockBook();
+
+			if (books[i] == null) {
+				throw new BookStoreException(
+						BookStoreConstants.ISBN + entries[i].book.getISBN() + BookStoreConstants.NOT_AVAILABLE);
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * Swaps the states of books atomically.
+	 *
+	 * @param entries
+	 *            the entries of the books, distinct and in ascending ISBN order
+	 * @param expected
+	 *            the states read by {@link #read(BookEntry[])}
+	 * @param updated
+	 *            the new states
+	 * @return false, if a book changed since its state was read
+	 */
+	private static boolean commit(BookEntry[] entries, StockBook[] expected, Object[] updated) {
+		return new Commit(entries, expected, updated, true).run();
+	}
+
+	/**
+	 * Reads the states of books consistently: the states are collected until
+	 * two collections in a row agree, so no commit changed them in between.
+	 * Since a commit swaps all its states at once, and states are never
+	 * reused, the result never holds half of a mutation.
+	 *
+	 * @param entries
+	 *            the entries of the books
+	 * @return the states, in the order of the entries
+	 */
+	private static List<Object> readConsistently(Collection<BookEntry> entries) {
+		List<Object> states = collect(entries);
+
+		while (true) {
+			List<Object> again = collect(entries);
+
+			if (sameStates(states, again)) {
+				return again;
+			}
+
+			states = again;
+		}
+	}
+
+	/**
+	 * Collects the states of books once.
+	 *
+	 * @param entries
+	 *            the entries of the books
+	 * @return the states
+	 */
+	private static List<Object> collect(Collection<BookEntry> entries) {
+		List<Object> states = new ArrayList<>(entries.size());
+
+		for (BookEntry entry : entries) {
+			states.add(entry.read());
+		}
+
+		return states;
+	}
+
+	/**
+	 * Checks if two collections of states hold the very same states.
+	 *
+	 * @param states
+	 *            the first collection
+	 * @param others
+	 *            the second collection
+	 * @return true, if the states are identical
+	 */
+	private static boolean sameStates(List<Object> states, List<Object> others) {
+		if (states.size() != others.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < states.size(); i++) {
+			if (states.get(i) != others.get(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (stockBookOf(isbn) != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (stockBookOf(ISBN) == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the current state of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private StockBook stockBookOf(int isbn) {
+		BookEntry entry = bookMap.get(isbn);
+		return (entry != null) ? entry.stockBook() : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		BookEntry entry = bookMap.get(isbn);
+		return (entry != null && entry.stockBook() != null) ? entry.book : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}. The
+	 * index evaluates it under its own lock after the book changed, so racing
+	 * mutations of one book leave the index in the state of the last of them.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		BookEntry entry = bookMap.get(isbn);
+		StockBook book = (entry != null) ? entry.stockBook() : null;
+		return (book != null && book.isEditorPick()) ? entry.book : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		BookEntry entry = bookMap.get(isbn);
+		StockBook book = (entry != null) ? entry.stockBook() : null;
+		return (book != null) ? new TopRatedIndex.RankedBook(entry.book, book.getAverageRating()) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		StockBook book = stockBookOf(isbn);
+		return (book != null) ? book.getNumSaleMisses() : 0;
+	}
+
+	/**
+	 * Gets the entries of books, which may have been removed since they were
+	 * validated.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the entries, in the order of the ISBNs
+	 * @throws BookStoreException
+	 *             if a book is no longer in stock
+	 */
+	private BookEntry[] entriesOf(Collection<Integer> isbns) throws BookStoreException {
+		BookEntry[] entries = new BookEntry[isbns.size()];
+		int i = 0;
+
+		for (int isbn : isbns) {
+			BookEntry entry = bookMap.get(isbn);
+
+			if (entry == null) {
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			entries[i++] = entry;
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Puts the entry of a book being added into the catalog, in place of the
+	 * entry of a removed book or of a failed addition.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param entry
+	 *            the entry
+	 * @return false, if the book is in stock or being added by another
+	 *         mutation
+	 */
+	private boolean insert(int isbn, BookEntry entry) {
+		while (true) {
+			BookEntry current = bookMap.putIfAbsent(isbn, entry);
+
+			if (current == null) {
+				return true;
+			}
+
+			// Check the pending addition first, whose books read as absent.
+			if (current.isBeingAdded() || current.stockBook() != null) {
+				return false;
+			}
+
+			if (bookMap.replace(isbn, current, entry)) {
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check if all are there
+		for (StockBook book : bookSet) {
+			validate(book);
+		}
+
+		List<Integer> added = new ArrayList<>();
+		BookEntry[] entries = new BookEntry[bookSet.size()];
+		Object[] expected = new Object[entries.length];
+		Object[] updated = new Object[entries.length];
+
+		for (StockBook book : bookSet) {
+			int i = added.size();
+			entries[i] = new BookEntry(new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+					book.getPrice()));
+			expected[i] = ABSENT;
+			updated[i] = stateOf(book, book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+					book.getTotalRating(), book.isEditorPick());
+			added.add(book.getISBN());
+		}
+
+		// The books are published under the descriptors of the addition, so
+		// nobody sees them in stock, or changes them, before it is decided.
+		Commit addition = new Commit(entries, expected, updated, false);
+
+		for (int i = 0; i < entries.length; i++) {
+			entries[i].state = addition.slots[i];
+		}
+
+		int inserted = 0;
+
+		while (inserted < entries.length && insert(added.get(inserted), entries[inserted])) {
+			inserted++;
+		}
+
+		addition.decide(inserted == entries.length);
+		addition.release();
+
+		if (inserted < entries.length) {
+			// Lost a race against another addBooks, take back our own entries
+			// only: the books already in stock are not ours.
+			for (int i = 0; i < inserted; i++) {
+				bookMap.remove(added.get(i), entries[i]);
+			}
+			throw new BookStoreException(BookStoreConstants.ISBN + added.get(inserted) + BookStoreConstants.DUPLICATED);
+		}
+
+		editorPickIndex.update(added, this::editorPickOf);
+		topRatedIndex.update(added, this::rankedBookOf);
+		searchIndex.update(added, this::bookOf);
+		rangeIndex.update(added, this::bookOf);
+		demandIndex.update(added, this::numSaleMissesOf);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		Map<Integer, Integer> copies = new TreeMap<>();
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			copies.merge(bookCopy.getISBN(), bookCopy.getNumCopies(), Integer::sum);
+		}
+
+		int[] numCopies = copies.values().stream().mapToInt(Integer::intValue).toArray();
+		BookEntry[] entries = entriesOf(copies.keySet());
+		StockBook[] books;
+		Object[] updated;
+
+		do {
+			books = read(entries);
+			updated = new Object[entries.length];
+
+			for (int i = 0; i < books.length; i++) {
+				StockBook book = books[i];
+				updated[i] = stateOf(book, book.getNumCopies() + numCopies[i],
+						newCopies ? 0 : book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+						book.isEditorPick());
+			}
+		} while (!commit(entries, books, updated));
+
+		demandIndex.update(copies.keySet(), this::numSaleMissesOf);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		return readConsistently(bookMap.values()).stream()
+				.filter(StockBook.class::isInstance)
+				.map(StockBook.class::cast)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			validate(editorPickArg);
+		}
+
+		Map<Integer, Boolean> picks = new TreeMap<>();
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			picks.put(editorPickArg.getISBN(), editorPickArg.isEditorPick());
+		}
+
+		List<Boolean> editorPick = new ArrayList<>(picks.values());
+		BookEntry[] entries = entriesOf(picks.keySet());
+		StockBook[] books;
+		Object[] updated;
+
+		do {
+			books = read(entries);
+			updated = new Object[entries.length];
+
+			for (int i = 0; i < books.length; i++) {
+				StockBook book = books[i];
+				updated[i] = stateOf(book, book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+						book.getTotalRating(), editorPick.get(i));
+			}
+		} while (!commit(entries, books, updated));
+
+		editorPickIndex.update(picks.keySet(), this::editorPickOf);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+		}
+
+		Map<Integer, Integer> copies = new TreeMap<>();
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			copies.merge(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies(), Integer::sum);
+		}
+
+		int[] numCopies = copies.values().stream().mapToInt(Integer::intValue).toArray();
+		BookEntry[] entries = entriesOf(copies.keySet());
+		StockBook[] books;
+		Object[] updated;
+		boolean saleMiss;
+
+		do {
+			books = read(entries);
+			updated = new Object[entries.length];
+			saleMiss = false;
+
+			for (int i = 0; i < books.length; i++) {
+				if (books[i].getNumCopies() < numCopies[i]) {
+					saleMiss = true;
+					break;
+				}
+			}
+
+			// The commit checks that the books still have the states we
+			// read, so the check and the purchase are atomic.
+			for (int i = 0; i < books.length; i++) {
+				StockBook book = books[i];
+
+				if (!saleMiss) {
+					updated[i] = stateOf(book, book.getNumCopies() - numCopies[i], book.getNumSaleMisses(),
+							book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick());
+				} else if (book.getNumCopies() < numCopies[i]) {
+					// We throw exception now since we want to see how many
+					// books in the order incurred misses which is used by
+					// books in demand
+					updated[i] = stateOf(book, book.getNumCopies(),
+							book.getNumSaleMisses() + (numCopies[i] - book.getNumCopies()), book.getNumTimesRated(),
+							book.getTotalRating(), book.isEditorPick());
+				} else {
+					updated[i] = book;
+				}
+			}
+		} while (!commit(entries, books, updated));
+
+		if (saleMiss) {
+			demandIndex.update(copies.keySet(), this::numSaleMissesOf);
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		List<BookEntry> entries = Arrays.asList(entriesOf(isbnSet));
+		List<StockBook> books = new ArrayList<>();
+		int i = 0;
+
+		for (Object state : readConsistently(entries)) {
+			if (!(state instanceof StockBook)) {
+				throw new BookStoreException(
+						BookStoreConstants.ISBN + entries.get(i).book.getISBN() + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			books.add((StockBook) state);
+			i++;
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we rate are there to start with.
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		// Title, author and price never change, so no consistent read is needed.
+		List<Book> books = new ArrayList<>();
+
+		for (BookEntry entry : entriesOf(isbnSet)) {
+			books.add(entry.book);
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchIndex.search(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// A book may be removed or restocked while we read; skip it then.
+		List<BookEntry> entries = demandIndex.inDemand().stream()
+				.map(isbn -> bookMap.get(isbn))
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+
+		return readConsistently(entries).stream()
+				.filter(StockBook.class::isInstance)
+				.map(StockBook.class::cast)
+				.filter(book -> book.getNumSaleMisses() > 0)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookRating rating : bookRating) {
+			validate(rating);
+		}
+
+		Map<Integer, Integer> totalRatings = new TreeMap<>();
+		Map<Integer, Integer> numRatings = new TreeMap<>();
+
+		for (BookRating rating : bookRating) {
+			totalRatings.merge(rating.getISBN(), rating.getRating(), Integer::sum);
+			numRatings.merge(rating.getISBN(), 1, Integer::sum);
+		}
+
+		int[] totalRating = totalRatings.values().stream().mapToInt(Integer::intValue).toArray();
+		int[] numTimesRated = numRatings.values().stream().mapToInt(Integer::intValue).toArray();
+		BookEntry[] entries = entriesOf(totalRatings.keySet());
+		StockBook[] books;
+		Object[] updated;
+
+		do {
+			books = read(entries);
+			updated = new Object[entries.length];
+
+			for (int i = 0; i < books.length; i++) {
+				StockBook book = books[i];
+				updated[i] = stateOf(book, book.getNumCopies(), book.getNumSaleMisses(),
+						book.getNumTimesRated() + numTimesRated[i], book.getTotalRating() + totalRating[i],
+						book.isEditorPick());
+			}
+		} while (!commit(entries, books, updated));
+
+		topRatedIndex.update(totalRatings.keySet(), this::rankedBookOf);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		BookEntry[] entries;
+		StockBook[] books;
+		Object[] updated;
+
+		do {
+			Map<Integer, BookEntry> inStock = new TreeMap<>();
+
+			for (Map.Entry<Integer, BookEntry> entry : bookMap.entrySet()) {
+				if (entry.getValue().stockBook() != null) {
+					inStock.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			entries = inStock.values().toArray(new BookEntry[0]);
+			books = new StockBook[entries.length];
+			updated = new Object[entries.length];
+
+			for (int i = 0; i < entries.length; i++) {
+				// A book removed since it was listed reads null, which fails
+				// the commit.
+				books[i] = entries[i].stockBook();
+				updated[i] = REMOVED;
+			}
+		} while (!commit(entries, books, updated));
+
+		removeEntries(entries);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer ISBN : isbnSet) {
+			if (BookStoreUtility.isInvalidISBN(ISBN)) {
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+			}
+
+			if (stockBookOf(ISBN) == null) {
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			}
+		}
+
+		BookEntry[] entries = entriesOf(isbnSet.stream().sorted().collect(Collectors.toList()));
+		StockBook[] books;
+		Object[] updated;
+
+		// Fails if we lost a race against another removal.
+		do {
+			books = read(entries);
+			updated = new Object[entries.length];
+
+			for (int i = 0; i < books.length; i++) {
+				updated[i] = REMOVED;
+			}
+		} while (!commit(entries, books, updated));
+
+		removeEntries(entries);
+	}
+
+	/**
+	 * Takes the entries of removed books out of the catalog and the indexes.
+	 * An entry only leaves the map if no addition replaced it meanwhile.
+	 *
+	 * @param entries
+	 *            the entries of the removed books
+	 */
+	private void removeEntries(BookEntry[] entries) {
+		List<Integer> isbns = new ArrayList<>(entries.length);
+
+		for (BookEntry entry : entries) {
+			int isbn = entry.book.getISBN();
+			bookMap.remove(isbn, entry);
+			isbns.add(isbn);
+		}
+
+		editorPickIndex.update(isbns, this::editorPickOf);
+		topRatedIndex.update(isbns, this::rankedBookOf);
+		searchIndex.update(isbns, this::bookOf);
+		rangeIndex.update(isbns, this::bookOf);
+		demandIndex.update(isbns, this::numSaleMissesOf);
+	}
+}
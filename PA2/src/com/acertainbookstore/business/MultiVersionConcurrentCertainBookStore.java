@@ -0,0 +1,998 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+
+/**
+ * {@link MultiVersionConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities with
+ * multi-version concurrency control.
+ *
+ * <p>
+ * Every committed mutation gets a new version number and publishes a new,
+ * immutable {@link ImmutableStockBook} for each book it changed, without
+ * overwriting the previous one. Readers pin the last committed version and
+ * read the newest state of each book that is not newer than it, so they see a
+ * consistent snapshot, never take a lock and never block writers. Writers are
+ * serialized among themselves by {@link #commitLock}.
+ *
+ * <p>
+ * Versions that no pinned snapshot can see any more are unlinked when
+ * writers commit, and removed books are dropped from the map once no snapshot
+ * can see them, leaving them to the garbage collector.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionConcurrentCertainBookStore implements BookStore, StockManager, StockReturner {
+
+	/**
+	 * {@link BookVersion} is one committed state of a book. A removed book is
+	 * represented by a version without a state.
+	 */
+	private static final class BookVersion {
+
+		/** The version which committed this state. */
+		private final long version;
+
+		/** The stock view of the book, or null if the book was removed. */
+		private final StockBook stockBook;
+
+		/** The client view of the book, shared by the versions of one book. */
+		private final Book book;
+
+		/** The previous version, unlinked once no snapshot needs it. */
+		private volatile BookVersion previous;
+
+		/**
+		 * Instantiates a new {@link BookVersion}.
+		 *
+		 * @param version
+		 *            the version
+		 * @param stockBook
+		 *            the stock view
+		 * @param book
+		 *            the client view
+		 * @param previous
+		 *            the previous version
+		 */
+		private BookVersion(long version, StockBook stockBook, Book book, BookVersion previous) {
+			this.version = version;
+			this.stockBook = stockBook;
+			this.book = book;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * {@link VersionedBook} holds the chain of versions of one ISBN, newest
+	 * first.
+	 */
+	private static final class VersionedBook {
+
+		/** The newest version. */
+		private volatile BookVersion latest;
+
+		/** Whether the book waits in {@link #versionsToReclaim}. */
+		private boolean queued = false;
+
+		/**
+		 * Instantiates a new {@link VersionedBook}.
+		 *
+		 * @param latest
+		 *            the first version
+		 */
+		private VersionedBook(BookVersion latest) {
+			this.latest = latest;
+		}
+
+		/**
+		 * Gets the newest version visible in the snapshot.
+		 *
+		 * @param snapshot
+		 *            the snapshot
+		 * @return the version, or null if the book did not exist yet
+		 */
+		private BookVersion visibleAt(long snapshot) {
+			BookVersion current = latest;
+
+			while (current != null && current.version > snapshot) {
+				current = current.previous;
+			}
+
+			return current;
+		}
+	}
+
+	/** The mapping of books from ISBN to their versions. */
+	private ConcurrentIntObjectHashMap<VersionedBook> bookMap = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private DemandIndex demandIndex = null;
+
+	/** The lock serializing writers. */
+	private ReentrantLock commitLock = null;
+
+	/** The last committed version. */
+	private volatile long committedVersion = 0;
+
+	/** The number of readers pinning each snapshot. */
+	private ConcurrentHashMap<Long, AtomicInteger> pinnedSnapshots = null;
+
+	/** The books with versions to reclaim, guarded by {@link #commitLock}. */
+	private ArrayDeque<VersionedBook> versionsToReclaim = null;
+
+	/**
+	 * Instantiates a new {@link MultiVersionConcurrentCertainBookStore}.
+	 */
+	public MultiVersionConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new ConcurrentIntObjectHashMap<>();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
+		commitLock = new ReentrantLock();
+		pinnedSnapshots = new ConcurrentHashMap<>();
+		versionsToReclaim = new ArrayDeque<>();
+	}
+
+	/**
+	 * Pins the last committed version for reading. The pin is re-checked
+	 * against the committed version, so a writer which committed in between
+	 * cannot have reclaimed anything the snapshot needs.
+	 *
+	 * @return the snapshot
+	 */
+	private long openSnapshot() {
+		while (true) {
+			long snapshot = committedVersion;
+			AtomicInteger readers = pinnedSnapshots.computeIfAbsent(snapshot, k -> new AtomicInteger());
+			readers.incrementAndGet();
+
+			if (committedVersion == snapshot) {
+				return snapshot;
+			}
+
+			readers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Releases a snapshot returned by {@link #openSnapshot()}.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 */
+	private void closeSnapshot(long snapshot) {
+		pinnedSnapshots.get(snapshot).decrementAndGet();
+	}
+
+	/**
+	 * Gets the oldest version any reader may still look at, forgetting about
+	 * snapshots nobody pins any more. Must be called by the writer holding
+	 * {@link #commitLock}.
+	 *
+	 * @return the oldest visible version
+	 */
+	private long oldestVisibleVersion() {
+		long committed = committedVersion;
+		long oldest = committed;
+		Iterator<Map.Entry<Long, AtomicInteger>> it = pinnedSnapshots.entrySet().iterator();
+
+		while (it.hasNext()) {
+			Map.Entry<Long, AtomicInteger> entry = it.next();
+
+			if (entry.getValue().get() > 0) {
+				oldest = Math.min(oldest, entry.getKey());
+			} else if (entry.getKey() < committed) {
+				it.remove();
+			}
+		}
+
+		return oldest;
+	}
+
+	/**
+	 * Gets the current state of a book for a writer.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the latest version, or null if the book is not in stock
+	 */
+	private BookVersion latestInStock(int isbn) {
+		VersionedBook versionedBook = bookMap.get(isbn);
+
+		if (versionedBook == null || versionedBook.latest.stockBook == null) {
+			return null;
+		}
+
+		return versionedBook.latest;
+	}
+
+	/**
+	 * Installs a new version of a book. Must be called by the writer holding
+	 * {@link #commitLock}; the version becomes visible with
+	 * {@link #commit(long)}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param version
+	 *            the version being written
+	 * @param stockBook
+	 *            the new state, or null to remove the book
+	 * @param book
+	 *            the client view
+	 */
+	private void install(int isbn, long version, StockBook stockBook, Book book) {
+		VersionedBook versionedBook = bookMap.get(isbn);
+
+		if (versionedBook == null) {
+			bookMap.put(isbn, new VersionedBook(new BookVersion(version, stockBook, book, null)));
+			return;
+		}
+
+		versionedBook.latest = new BookVersion(version, stockBook, book, versionedBook.latest);
+
+		if (!versionedBook.queued) {
+			versionedBook.queued = true;
+			versionsToReclaim.add(versionedBook);
+		}
+	}
+
+	/**
+	 * Publishes the versions installed by the writer and reclaims the versions
+	 * which became invisible.
+	 *
+	 * @param version
+	 *            the version
+	 */
+	private void commit(long version) {
+		committedVersion = version;
+
+		long oldest = oldestVisibleVersion();
+		Iterator<VersionedBook> it = versionsToReclaim.iterator();
+
+		while (it.hasNext()) {
+			VersionedBook versionedBook = it.next();
+			BookVersion visible = versionedBook.visibleAt(oldest);
+
+			if (visible != null) {
+				visible.previous = null;
+			}
+
+			if (visible == versionedBook.latest) {
+				if (visible.stockBook == null) {
+					bookMap.remove(visible.book.getISBN(), versionedBook);
+				}
+
+				versionedBook.queued = false;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Creates a copy of the stock book with new counters.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 * @return the stock book
+	 */
+	private static StockBook withCounters(StockBook book, int numCopies, long numSaleMisses, boolean editorPick) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), numCopies,
+				numSaleMisses, book.getNumTimesRated(), book.getTotalRating(), editorPick);
+	}
+
+	/**
+	 * Creates a copy of the stock book with one more rating.
+	 *
+	 * @param book
+	 *            the book
+	 * @param rating
+	 *            the rating
+	 * @return the stock book
+	 */
+	private static StockBook withRating(StockBook book, int rating) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated() + 1,
+				book.getTotalRating() + rating, book.isEditorPick());
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (latestInStock(isbn) != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (latestInStock(ISBN) == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}. Must be
+	 * called by the writer holding {@link #commitLock}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		BookVersion latest = latestInStock(isbn);
+		return (latest != null) ? latest.book : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}. Must be
+	 * called by the writer holding {@link #commitLock}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		BookVersion latest = latestInStock(isbn);
+		return (latest != null && latest.stockBook.isEditorPick()) ? latest.book : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		BookVersion latest = latestInStock(isbn);
+		return (latest != null) ? new TopRatedIndex.RankedBook(latest.book, latest.stockBook.getAverageRating()) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		BookVersion latest = latestInStock(isbn);
+		return (latest != null) ? latest.stockBook.getNumSaleMisses() : 0;
+	}
+
+	/**
+	 * Validates an ISBN against a snapshot.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the version of the book visible in the snapshot
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid or the book not in stock
+	 */
+	private BookVersion validateISBNInSnapshot(int ISBN, long snapshot) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		VersionedBook versionedBook = bookMap.get(ISBN);
+		BookVersion visible = (versionedBook == null) ? null : versionedBook.visibleAt(snapshot);
+
+		if (visible == null || visible.stockBook == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return visible;
+	}
+
+	/**
+	 * Gets the versions of all books in stock in the snapshot.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the versions
+	 */
+	private List<BookVersion> booksInSnapshot(long snapshot) {
+		List<BookVersion> versions = new ArrayList<>();
+
+		for (VersionedBook versionedBook : bookMap.values()) {
+			BookVersion visible = versionedBook.visibleAt(snapshot);
+
+			if (visible != null && visible.stockBook != null) {
+				versions.add(visible);
+			}
+		}
+
+		return versions;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commitLock.lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			long version = committedVersion + 1;
+
+			for (StockBook book : bookSet) {
+				StockBook stockBook = new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice(), book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+						book.getTotalRating(), book.isEditorPick());
+				Book clientBook = new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice());
+				install(book.getISBN(), version, stockBook, clientBook);
+			}
+
+			List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+			editorPickIndex.update(addedISBNs, this::editorPickOf);
+			topRatedIndex.update(addedISBNs, this::rankedBookOf);
+			searchIndex.update(addedISBNs, this::bookOf);
+			rangeIndex.update(addedISBNs, this::bookOf);
+			demandIndex.update(addedISBNs, this::numSaleMissesOf);
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commitLock.lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			long version = committedVersion + 1;
+
+			// Update the number of copies; new copies also reset the sale
+			// misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookVersion current = latestInStock(bookCopy.getISBN());
+				StockBook stockBook = current.stockBook;
+				install(bookCopy.getISBN(), version, withCounters(stockBook,
+						stockBook.getNumCopies() + bookCopy.getNumCopies(),
+						newCopies ? 0 : stockBook.getNumSaleMisses(), stockBook.isEditorPick()), current.book);
+			}
+			demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
+
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		long snapshot = openSnapshot();
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (BookVersion visible : booksInSnapshot(snapshot)) {
+				books.add(visible.stockBook);
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commitLock.lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			long version = committedVersion + 1;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookVersion current = latestInStock(editorPickArg.getISBN());
+				StockBook stockBook = current.stockBook;
+				install(editorPickArg.getISBN(), version, withCounters(stockBook, stockBook.getNumCopies(),
+						stockBook.getNumSaleMisses(), editorPickArg.isEditorPick()), current.book);
+			}
+
+			editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()),
+					this::editorPickOf);
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commitLock.lock();
+		try {
+			Boolean saleMiss = false;
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+
+				StockBook stockBook = latestInStock(bookCopyToBuy.getISBN()).stockBook;
+
+				if (stockBook.getNumCopies() < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - stockBook.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			long version = committedVersion + 1;
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					BookVersion current = latestInStock(saleMissEntry.getKey());
+					StockBook stockBook = current.stockBook;
+					install(saleMissEntry.getKey(), version, withCounters(stockBook, stockBook.getNumCopies(),
+							stockBook.getNumSaleMisses() + saleMissEntry.getValue(), stockBook.isEditorPick()),
+							current.book);
+				}
+				demandIndex.update(salesMisses.keySet(), this::numSaleMissesOf);
+
+				commit(version);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				BookVersion current = latestInStock(bookCopyToBuy.getISBN());
+				StockBook stockBook = current.stockBook;
+				install(bookCopyToBuy.getISBN(), version, withCounters(stockBook,
+						stockBook.getNumCopies() - bookCopyToBuy.getNumCopies(), stockBook.getNumSaleMisses(),
+						stockBook.isEditorPick()), current.book);
+			}
+
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = openSnapshot();
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInSnapshot(ISBN, snapshot).stockBook);
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = openSnapshot();
+		try {
+			List<Book> books = new ArrayList<>();
+
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInSnapshot(ISBN, snapshot).book);
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchIndex.search(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		long snapshot = openSnapshot();
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			// The index may be ahead of the snapshot; only keep the books which
+			// are in demand in the snapshot.
+			for (int isbn : demandIndex.inDemand()) {
+				VersionedBook versionedBook = bookMap.get(isbn);
+				BookVersion visible = (versionedBook != null) ? versionedBook.visibleAt(snapshot) : null;
+
+				if (visible != null && visible.stockBook != null && visible.stockBook.getNumSaleMisses() > 0) {
+					books.add(visible.stockBook);
+				}
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commitLock.lock();
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			long version = committedVersion + 1;
+
+			for (BookRating rating : bookRating) {
+				BookVersion current = latestInStock(rating.getISBN());
+				install(rating.getISBN(), version, withRating(current.stockBook, rating.getRating()), current.book);
+			}
+
+			topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()),
+					this::rankedBookOf);
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		commitLock.lock();
+		try {
+			long version = committedVersion + 1;
+
+			for (VersionedBook versionedBook : bookMap.values()) {
+				BookVersion latest = versionedBook.latest;
+
+				if (latest.stockBook != null) {
+					install(latest.book.getISBN(), version, null, latest.book);
+				}
+			}
+
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			searchIndex.clear();
+			rangeIndex.clear();
+			demandIndex.clear();
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commitLock.lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (latestInStock(ISBN) == null) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			long version = committedVersion + 1;
+
+			for (int isbn : isbnSet) {
+				install(isbn, version, null, latestInStock(isbn).book);
+			}
+
+			editorPickIndex.update(isbnSet, this::editorPickOf);
+			topRatedIndex.update(isbnSet, this::rankedBookOf);
+			searchIndex.update(isbnSet, this::bookOf);
+			rangeIndex.update(isbnSet, this::bookOf);
+			demandIndex.update(isbnSet, this::numSaleMissesOf);
+			commit(version);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+}
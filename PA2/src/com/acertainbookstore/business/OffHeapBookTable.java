@@ -0,0 +1,702 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link OffHeapBookTable} stores books outside of the Java heap, in direct
+ * {@link ByteBuffer}s, for {@link OffHeapConcurrentCertainBookStore}.
+ *
+ * <p>
+ * Every book occupies a fixed-size record in a dense slot, holding its ISBN,
+ * price and counters as well as the address of its title and author. The
+ * UTF-8 bytes of titles and authors are appended to a separate text arena.
+ * Both are split into chunks, so the table is not limited by the 2 GB size of
+ * a single buffer. The ISBN-to-slot index is an open-addressing hash table in
+ * a direct buffer as well, leaving the garbage collector only a handful of
+ * buffer objects to trace, however large the catalog.
+ *
+ * <p>
+ * Removing a book moves the record in the last slot into its place; the text
+ * of removed books is reclaimed by compacting the arena once it is mostly
+ * garbage. The table is not thread safe.
+ *
+ * <p>
+ * The indexes of the store refer to books through {@link BookReference}s,
+ * which keep only the ISBN and the price on the heap and read the title and
+ * author from the table when they are asked for them.
+ */
+final class OffHeapBookTable {
+
+	/**
+	 * {@link BookReference} is a {@link Book} whose title and author stay in
+	 * the table. It is only valid while its book is in the table, and must be
+	 * read under the same lock as the table.
+	 */
+	final class BookReference implements Book {
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The price. */
+		private final float price;
+
+		/**
+		 * Instantiates a new {@link BookReference}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @param price
+		 *            the price
+		 */
+		private BookReference(int isbn, float price) {
+			this.isbn = isbn;
+			this.price = price;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.business.Book#getISBN()
+		 */
+		@Override
+		public int getISBN() {
+			return isbn;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.business.Book#getTitle()
+		 */
+		@Override
+		public String getTitle() {
+			return title(slotInTable());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.business.Book#getAuthor()
+		 */
+		@Override
+		public String getAuthor() {
+			return author(slotInTable());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.business.Book#getPrice()
+		 */
+		@Override
+		public float getPrice() {
+			return price;
+		}
+
+		/**
+		 * Gets the current slot of the book, which moves when other books are
+		 * removed.
+		 *
+		 * @return the slot
+		 */
+		private int slotInTable() {
+			int slot = slotOf(isbn);
+
+			if (slot < 0) {
+				throw new IllegalStateException("ISBN = " + isbn + " is no longer in the table");
+			}
+
+			return slot;
+		}
+	}
+
+	/** The offset of the ISBN in a record. */
+	private static final int ISBN = 0;
+
+	/** The offset of the price in a record. */
+	private static final int PRICE = 4;
+
+	/** The offset of the number of copies in a record. */
+	private static final int NUM_COPIES = 8;
+
+	/** The offset of the editor pick flag in a record. */
+	private static final int EDITOR_PICK = 12;
+
+	/** The offset of the total rating in a record. */
+	private static final int TOTAL_RATING = 16;
+
+	/** The offset of the number of times rated in a record. */
+	private static final int NUM_TIMES_RATED = 24;
+
+	/** The offset of the number of sale misses in a record. */
+	private static final int NUM_SALE_MISSES = 32;
+
+	/** The offset of the text address in a record. */
+	private static final int TEXT_ADDRESS = 40;
+
+	/** The offset of the title length in a record. */
+	private static final int TITLE_LENGTH = 48;
+
+	/** The offset of the author length in a record. */
+	private static final int AUTHOR_LENGTH = 52;
+
+	/** The size of a record, a multiple of eight so it can be copied in longs. */
+	private static final int RECORD_SIZE = 56;
+
+	/** The log2 of the number of records per chunk. */
+	private static final int RECORDS_PER_CHUNK_SHIFT = 16;
+
+	/** The mask selecting a record within its chunk. */
+	private static final int RECORDS_PER_CHUNK_MASK = (1 << RECORDS_PER_CHUNK_SHIFT) - 1;
+
+	/** The size of a text chunk; longer texts get a chunk of their own. */
+	private static final int TEXT_CHUNK_SIZE = 1 << 22;
+
+	/** The size of an index entry: the ISBN and the slot plus one. */
+	private static final int INDEX_ENTRY_SIZE = 8;
+
+	/** The initial number of index entries. */
+	private static final int INITIAL_INDEX_CAPACITY = 64;
+
+	/** The record chunks. */
+	private final List<ByteBuffer> recordChunks = new ArrayList<>();
+
+	/** The text chunks. */
+	private List<ByteBuffer> textChunks = new ArrayList<>();
+
+	/** The write position in the last text chunk. */
+	private int textPosition = 0;
+
+	/** The number of text bytes written, including those of removed books. */
+	private long usedTextBytes = 0;
+
+	/** The number of text bytes of the books in the table. */
+	private long liveTextBytes = 0;
+
+	/** The number of books. */
+	private int size = 0;
+
+	/** The ISBN-to-slot index. */
+	private ByteBuffer index = null;
+
+	/** The number of entries in {@link #index}, minus one. */
+	private int indexMask = 0;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapBookTable}.
+	 */
+	OffHeapBookTable() {
+		allocateIndex(INITIAL_INDEX_CAPACITY);
+	}
+
+	/**
+	 * Allocates a direct buffer in native byte order.
+	 *
+	 * @param capacity
+	 *            the capacity in bytes
+	 * @return the buffer
+	 */
+	private static ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all books and releases the buffers.
+	 */
+	void clear() {
+		recordChunks.clear();
+		textChunks = new ArrayList<>();
+		textPosition = 0;
+		usedTextBytes = 0;
+		liveTextBytes = 0;
+		size = 0;
+		allocateIndex(INITIAL_INDEX_CAPACITY);
+	}
+
+	/*
+	 * Records
+	 */
+
+	/**
+	 * Gets the chunk holding the record of a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the chunk
+	 */
+	private ByteBuffer chunkOf(int slot) {
+		return recordChunks.get(slot >>> RECORDS_PER_CHUNK_SHIFT);
+	}
+
+	/**
+	 * Gets the offset of the record of a slot within its chunk.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the offset
+	 */
+	private static int baseOf(int slot) {
+		return (slot & RECORDS_PER_CHUNK_MASK) * RECORD_SIZE;
+	}
+
+	/**
+	 * Appends a book in a new slot. The ISBN must not be in the table.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void add(StockBook book) {
+		int slot = size;
+
+		if ((slot & RECORDS_PER_CHUNK_MASK) == 0 && recordChunks.size() == (slot >>> RECORDS_PER_CHUNK_SHIFT)) {
+			recordChunks.add(allocate(RECORD_SIZE << RECORDS_PER_CHUNK_SHIFT));
+		}
+
+		byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+		byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		chunk.putInt(base + ISBN, book.getISBN());
+		chunk.putFloat(base + PRICE, book.getPrice());
+		chunk.putInt(base + NUM_COPIES, book.getNumCopies());
+		chunk.putInt(base + EDITOR_PICK, book.isEditorPick() ? 1 : 0);
+		chunk.putLong(base + TOTAL_RATING, book.getTotalRating());
+		chunk.putLong(base + NUM_TIMES_RATED, book.getNumTimesRated());
+		chunk.putLong(base + NUM_SALE_MISSES, book.getNumSaleMisses());
+		chunk.putLong(base + TEXT_ADDRESS, appendText(title, author));
+		chunk.putInt(base + TITLE_LENGTH, title.length);
+		chunk.putInt(base + AUTHOR_LENGTH, author.length);
+
+		size++;
+		indexPut(book.getISBN(), slot);
+	}
+
+	/**
+	 * Removes the book in <code>slot</code>, moving the book in the last slot
+	 * into it.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	void remove(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		int last = --size;
+
+		indexRemove(chunk.getInt(base + ISBN));
+		liveTextBytes -= chunk.getInt(base + TITLE_LENGTH) + chunk.getInt(base + AUTHOR_LENGTH);
+
+		if (slot != last) {
+			ByteBuffer lastChunk = chunkOf(last);
+			int lastBase = baseOf(last);
+
+			for (int i = 0; i < RECORD_SIZE; i += Long.BYTES) {
+				chunk.putLong(base + i, lastChunk.getLong(lastBase + i));
+			}
+
+			indexPut(chunk.getInt(base + ISBN), slot);
+		}
+
+		if ((last & RECORDS_PER_CHUNK_MASK) == 0) {
+			recordChunks.remove(recordChunks.size() - 1);
+		}
+
+		if (usedTextBytes > TEXT_CHUNK_SIZE && usedTextBytes > 2 * liveTextBytes) {
+			compactText();
+		}
+	}
+
+	/**
+	 * Gets the ISBN of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the ISBN
+	 */
+	int getISBN(int slot) {
+		return chunkOf(slot).getInt(baseOf(slot) + ISBN);
+	}
+
+	/**
+	 * Gets the number of copies of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of copies
+	 */
+	int getNumCopies(int slot) {
+		return chunkOf(slot).getInt(baseOf(slot) + NUM_COPIES);
+	}
+
+	/**
+	 * Sets the number of copies of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param numCopies
+	 *            the new number of copies
+	 */
+	void setNumCopies(int slot, int numCopies) {
+		chunkOf(slot).putInt(baseOf(slot) + NUM_COPIES, numCopies);
+	}
+
+	/**
+	 * Gets the number of sale misses of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of sale misses
+	 */
+	long getNumSaleMisses(int slot) {
+		return chunkOf(slot).getLong(baseOf(slot) + NUM_SALE_MISSES);
+	}
+
+	/**
+	 * Sets the number of sale misses of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param numSaleMisses
+	 *            the new number of sale misses
+	 */
+	void setNumSaleMisses(int slot, long numSaleMisses) {
+		chunkOf(slot).putLong(baseOf(slot) + NUM_SALE_MISSES, numSaleMisses);
+	}
+
+	/**
+	 * Checks if the book in a slot is an editor pick.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return true, if it is an editor pick
+	 */
+	boolean isEditorPick(int slot) {
+		return chunkOf(slot).getInt(baseOf(slot) + EDITOR_PICK) != 0;
+	}
+
+	/**
+	 * Sets whether the book in a slot is an editor pick.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param editorPick
+	 *            the new editor pick flag
+	 */
+	void setEditorPick(int slot, boolean editorPick) {
+		chunkOf(slot).putInt(baseOf(slot) + EDITOR_PICK, editorPick ? 1 : 0);
+	}
+
+	/**
+	 * Adds a rating to the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param rating
+	 *            the rating
+	 */
+	void addRating(int slot, int rating) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		chunk.putLong(base + TOTAL_RATING, chunk.getLong(base + TOTAL_RATING) + rating);
+		chunk.putLong(base + NUM_TIMES_RATED, chunk.getLong(base + NUM_TIMES_RATED) + 1);
+	}
+
+	/**
+	 * Gets the average rating of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the average rating, or -1 if the book was never rated
+	 */
+	float getAverageRating(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		long timesRated = chunk.getLong(base + NUM_TIMES_RATED);
+		return (timesRated == 0 ? -1.0f : (float) chunk.getLong(base + TOTAL_RATING) / timesRated);
+	}
+
+	/**
+	 * Gets the title of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the title
+	 */
+	String title(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		return readText(chunk.getLong(base + TEXT_ADDRESS), chunk.getInt(base + TITLE_LENGTH));
+	}
+
+	/**
+	 * Gets the author of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the author
+	 */
+	String author(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		return readText(chunk.getLong(base + TEXT_ADDRESS) + chunk.getInt(base + TITLE_LENGTH),
+				chunk.getInt(base + AUTHOR_LENGTH));
+	}
+
+	/**
+	 * Gets a {@link BookReference} to the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the reference
+	 */
+	BookReference reference(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		return new BookReference(chunk.getInt(base + ISBN), chunk.getFloat(base + PRICE));
+	}
+
+	/**
+	 * Materializes the client view of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	ImmutableBook book(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		long address = chunk.getLong(base + TEXT_ADDRESS);
+		int titleLength = chunk.getInt(base + TITLE_LENGTH);
+		int authorLength = chunk.getInt(base + AUTHOR_LENGTH);
+
+		return new ImmutableBook(chunk.getInt(base + ISBN), readText(address, titleLength),
+				readText(address + titleLength, authorLength), chunk.getFloat(base + PRICE));
+	}
+
+	/**
+	 * Materializes the stock view of the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the stock book
+	 */
+	StockBook stockBook(int slot) {
+		ByteBuffer chunk = chunkOf(slot);
+		int base = baseOf(slot);
+		long address = chunk.getLong(base + TEXT_ADDRESS);
+		int titleLength = chunk.getInt(base + TITLE_LENGTH);
+		int authorLength = chunk.getInt(base + AUTHOR_LENGTH);
+
+		return new ImmutableStockBook(chunk.getInt(base + ISBN), readText(address, titleLength),
+				readText(address + titleLength, authorLength), chunk.getFloat(base + PRICE),
+				chunk.getInt(base + NUM_COPIES), chunk.getLong(base + NUM_SALE_MISSES),
+				chunk.getLong(base + NUM_TIMES_RATED), chunk.getLong(base + TOTAL_RATING),
+				chunk.getInt(base + EDITOR_PICK) != 0);
+	}
+
+	/*
+	 * Text arena
+	 */
+
+	/**
+	 * Appends the title and author of a book to the text arena.
+	 *
+	 * @param title
+	 *            the UTF-8 title
+	 * @param author
+	 *            the UTF-8 author
+	 * @return the address of the title; the author follows it
+	 */
+	private long appendText(byte[] title, byte[] author) {
+		int length = title.length + author.length;
+
+		if (textChunks.isEmpty() || textPosition + length > textChunks.get(textChunks.size() - 1).capacity()) {
+			textChunks.add(allocate(Math.max(TEXT_CHUNK_SIZE, length)));
+			textPosition = 0;
+		}
+
+		ByteBuffer chunk = textChunks.get(textChunks.size() - 1).duplicate();
+		long address = ((long) (textChunks.size() - 1) << 32) | textPosition;
+		chunk.position(textPosition);
+		chunk.put(title);
+		chunk.put(author);
+
+		textPosition += length;
+		usedTextBytes += length;
+		liveTextBytes += length;
+		return address;
+	}
+
+	/**
+	 * Reads a string from the text arena.
+	 *
+	 * @param address
+	 *            the address
+	 * @param length
+	 *            the length in bytes
+	 * @return the string
+	 */
+	private String readText(long address, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer chunk = textChunks.get((int) (address >>> 32)).duplicate();
+		chunk.position((int) address);
+		chunk.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Copies the text of the books in the table into a fresh arena, dropping
+	 * the text of removed books.
+	 */
+	private void compactText() {
+		List<ByteBuffer> oldChunks = textChunks;
+		textChunks = new ArrayList<>();
+		textPosition = 0;
+		usedTextBytes = 0;
+		liveTextBytes = 0;
+
+		for (int slot = 0; slot < size; slot++) {
+			ByteBuffer chunk = chunkOf(slot);
+			int base = baseOf(slot);
+			long address = chunk.getLong(base + TEXT_ADDRESS);
+			byte[] title = new byte[chunk.getInt(base + TITLE_LENGTH)];
+			byte[] author = new byte[chunk.getInt(base + AUTHOR_LENGTH)];
+
+			ByteBuffer oldChunk = oldChunks.get((int) (address >>> 32)).duplicate();
+			oldChunk.position((int) address);
+			oldChunk.get(title);
+			oldChunk.get(author);
+
+			chunk.putLong(base + TEXT_ADDRESS, appendText(title, author));
+		}
+	}
+
+	/*
+	 * Index
+	 */
+
+	/**
+	 * Allocates an empty index.
+	 *
+	 * @param capacity
+	 *            the number of entries, a power of two
+	 */
+	private void allocateIndex(int capacity) {
+		index = allocate(capacity * INDEX_ENTRY_SIZE);
+		indexMask = capacity - 1;
+	}
+
+	/**
+	 * Gets the home entry of an ISBN in the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry
+	 */
+	private int homeOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & indexMask;
+	}
+
+	/**
+	 * Finds the index entry of an ISBN, or the free entry ending its probe
+	 * sequence.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry
+	 */
+	private int findEntry(int isbn) {
+		int entry = homeOf(isbn);
+
+		while (index.getInt(entry * INDEX_ENTRY_SIZE + 4) != 0
+				&& index.getInt(entry * INDEX_ENTRY_SIZE) != isbn) {
+			entry = (entry + 1) & indexMask;
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Gets the slot of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or -1 if the book is not in the table
+	 */
+	int slotOf(int isbn) {
+		return index.getInt(findEntry(isbn) * INDEX_ENTRY_SIZE + 4) - 1;
+	}
+
+	/**
+	 * Maps an ISBN to a slot in the index, growing it if it gets more than
+	 * half full.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param slot
+	 *            the slot
+	 */
+	private void indexPut(int isbn, int slot) {
+		if (size * 2 > indexMask + 1) {
+			ByteBuffer oldIndex = index;
+			int oldCapacity = indexMask + 1;
+			allocateIndex(oldCapacity * 2);
+
+			for (int entry = 0; entry < oldCapacity; entry++) {
+				int value = oldIndex.getInt(entry * INDEX_ENTRY_SIZE + 4);
+
+				if (value != 0) {
+					int key = oldIndex.getInt(entry * INDEX_ENTRY_SIZE);
+					int newEntry = findEntry(key);
+					index.putInt(newEntry * INDEX_ENTRY_SIZE, key);
+					index.putInt(newEntry * INDEX_ENTRY_SIZE + 4, value);
+				}
+			}
+		}
+
+		int entry = findEntry(isbn);
+		index.putInt(entry * INDEX_ENTRY_SIZE, isbn);
+		index.putInt(entry * INDEX_ENTRY_SIZE + 4, slot + 1);
+	}
+
+	/**
+	 * Removes an ISBN from the index, shifting back the entries behind it like
+	 * {@link com.acertainbookstore.utils.IntObjectHashMap} does.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	private void indexRemove(int isbn) {
+		int hole = findEntry(isbn);
+		int next = (hole + 1) & indexMask;
+
+		while (index.getInt(next * INDEX_ENTRY_SIZE + 4) != 0) {
+			int key = index.getInt(next * INDEX_ENTRY_SIZE);
+			int home = homeOf(key);
+
+			if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+				index.putLong(hole * INDEX_ENTRY_SIZE, index.getLong(next * INDEX_ENTRY_SIZE));
+				hole = next;
+			}
+
+			next = (next + 1) & indexMask;
+		}
+
+		index.putInt(hole * INDEX_ENTRY_SIZE + 4, 0);
+	}
+}
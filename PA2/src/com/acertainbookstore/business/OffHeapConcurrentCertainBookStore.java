@@ -0,0 +1,675 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link OffHeapConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities with the catalog kept off the Java
+ * heap in an {@link OffHeapBookTable}.
+ *
+ * <p>
+ * However large the catalog, the records only take a few buffer objects on the
+ * heap, so they do not add to the work of the garbage collector. {@link Book}
+ * and {@link StockBook} objects are only materialized for the results of the
+ * calls, i.e., right before the server serializes them. The indexes hold
+ * {@link OffHeapBookTable.BookReference}s, which keep the ISBN and the price
+ * of a book but not its title and author; the {@link SearchIndex} still keeps
+ * its words and phrases, which are the index itself.
+ *
+ * <p>
+ * Like {@link SingleLockConcurrentCertainBookStore}, the whole store is guarded
+ * by a single {@link ReadWriteLock}.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OffHeapConcurrentCertainBookStore implements BookStore, StockManager, StockReturner {
+
+	/** The books. */
+	private OffHeapBookTable table = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private DemandIndex demandIndex = null;
+
+	/** The lock guarding the store. */
+	private ReadWriteLock lock = null;
+
+	/**
+	 * Instantiates a new {@link OffHeapConcurrentCertainBookStore}.
+	 */
+	public OffHeapConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		table = new OffHeapBookTable();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
+		lock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Gets the slot of a book known to be in stock.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot
+	 */
+	private int slotOf(int isbn) {
+		return table.slotOf(isbn);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (table.slotOf(isbn) >= 0) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (table.slotOf(ISBN) < 0) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the reference to a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the reference, or null if the book is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		int slot = table.slotOf(isbn);
+		return (slot >= 0) ? table.reference(slot) : null;
+	}
+
+	/**
+	 * Gets the reference to a book for the {@link #editorPickIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the reference, or null if the book is not an editor pick or not
+	 *         in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		int slot = table.slotOf(isbn);
+		return (slot >= 0 && table.isEditorPick(slot)) ? table.reference(slot) : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		int slot = table.slotOf(isbn);
+		return (slot >= 0) ? new TopRatedIndex.RankedBook(table.reference(slot), table.getAverageRating(slot))
+				: null;
+	}
+
+	/**
+	 * Materializes the books referenced by the result of an index query. The
+	 * indexes are read without the lock of the store, so a book removed since
+	 * is left out.
+	 *
+	 * @param references
+	 *            the references
+	 * @return the books
+	 */
+	private List<Book> materialize(List<Book> references) {
+		List<Book> result = new ArrayList<>(references.size());
+
+		lock.readLock().lock();
+		try {
+			for (Book reference : references) {
+				int slot = table.slotOf(reference.getISBN());
+
+				if (slot >= 0) {
+					result.add(table.book(slot));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		int slot = table.slotOf(isbn);
+		return (slot >= 0) ? table.getNumSaleMisses(slot) : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				table.add(book);
+			}
+			List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+			editorPickIndex.update(addedISBNs, this::editorPickOf);
+			topRatedIndex.update(addedISBNs, this::rankedBookOf);
+			searchIndex.update(addedISBNs, this::bookOf);
+			rangeIndex.update(addedISBNs, this::bookOf);
+			demandIndex.update(addedISBNs, this::numSaleMissesOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies; new copies clear the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = slotOf(bookCopy.getISBN());
+				table.setNumCopies(slot, table.getNumCopies(slot) + bookCopy.getNumCopies());
+
+				if (newCopies) {
+					table.setNumSaleMisses(slot, 0);
+				}
+			}
+			demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<StockBook> result = new ArrayList<>(table.size());
+
+			for (int slot = 0; slot < table.size(); slot++) {
+				result.add(table.stockBook(slot));
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				table.setEditorPick(slotOf(editorPickArg.getISBN()), editorPickArg.isEditorPick());
+			}
+			editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), this::editorPickOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+
+				int slot = slotOf(bookCopyToBuy.getISBN());
+
+				if (table.getNumCopies(slot) < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - table.getNumCopies(slot));
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					int slot = saleMissEntry.getKey();
+					table.setNumSaleMisses(slot, table.getNumSaleMisses(slot) + saleMissEntry.getValue());
+				}
+				demandIndex.update(salesMisses.keySet().stream().map(table::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
+
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = slotOf(bookCopyToBuy.getISBN());
+				table.setNumCopies(slot, table.getNumCopies(slot) - bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<StockBook> result = new ArrayList<>(isbnSet.size());
+
+			for (int isbn : isbnSet) {
+				result.add(table.stockBook(slotOf(isbn)));
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<Book> result = new ArrayList<>(isbnSet.size());
+
+			for (int isbn : isbnSet) {
+				result.add(table.book(slotOf(isbn)));
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return materialize(editorPickIndex.sample(numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return materialize(searchIndex.search(query, numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return materialize(rangeIndex.getByPrice(minPrice, maxPrice, numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return materialize(rangeIndex.getByISBN(fromISBN, toISBN, numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return materialize(topRatedIndex.top(numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			return demandIndex.inDemand().stream()
+					.map(isbn -> table.stockBook(table.slotOf(isbn)))
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				table.addRating(slotOf(rating.getISBN()), rating.getRating());
+			}
+			topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()), this::rankedBookOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.writeLock().lock();
+		try {
+			table.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			searchIndex.clear();
+			rangeIndex.clear();
+			demandIndex.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (table.slotOf(ISBN) < 0) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			// The indexes drop the books first, while their references can
+			// still read them.
+			editorPickIndex.update(isbnSet, isbn -> null);
+			topRatedIndex.update(isbnSet, isbn -> null);
+			searchIndex.update(isbnSet, isbn -> null);
+			rangeIndex.update(isbnSet, isbn -> null);
+
+			for (int isbn : isbnSet) {
+				table.remove(slotOf(isbn));
+			}
+			demandIndex.update(isbnSet, this::numSaleMissesOf);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
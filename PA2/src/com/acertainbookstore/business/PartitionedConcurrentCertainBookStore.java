@@ -0,0 +1,922 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link PartitionedConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities on a catalog
+ * split into independent shards by the hash of the ISBN. Every shard has its
+ * own map, lock and indexes, so writes to books in different shards never
+ * contend, and the number of shards is the knob scaling write throughput
+ * with the number of cores.
+ *
+ * <p>
+ * An operation on a set of books locks the shards of those books in
+ * ascending shard order, validates the whole request and only then applies
+ * it, so multi-book operations such as <code>buyBooks</code> and
+ * <code>addCopies</code> stay all or nothing across shards, and two
+ * operations locking overlapping shards cannot deadlock. Catalog-wide
+ * queries are answered by scatter-gather: they read-lock every shard in the
+ * same order, so they see a consistent cut of the catalog, and merge the
+ * answers of the shards. <code>getTopRatedBooks</code> merges the rankings of
+ * the shards without locking, like the other stores read their ranking.
+ * The titles and authors are indexed once for the whole store, so that
+ * <code>autocomplete</code> counts the books of every shard having a phrase,
+ * and so are the ISBN and price orders of the range queries; the
+ * {@link SearchIndex} and the {@link RangeIndex} synchronize their own
+ * updates, and the shards being changed update them while they are write
+ * locked.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class PartitionedConcurrentCertainBookStore implements BookStore, StockManager, StockReturner {
+
+	/**
+	 * {@link Shard} is a partition of the catalog with its own lock and
+	 * indexes. Its map is only modified while holding its write lock.
+	 */
+	private static final class Shard {
+
+		/** The mapping of books from ISBN to {@link BookStoreBook}. */
+		private final IntObjectHashMap<BookStoreBook> bookMap = new IntObjectHashMap<>();
+
+		/** The editor picks of the shard. */
+		private final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+		/** The ranking of the shard by average rating. */
+		private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+		/** The books in demand of the shard. */
+		private final DemandIndex demandIndex = new DemandIndex();
+
+		/** The lock guarding the shard. */
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/**
+		 * Gets the client view of a book for the search and range indexes.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the book, or null if it is not in stock
+		 */
+		private Book bookOf(int isbn) {
+			BookStoreBook book = bookMap.get(isbn);
+			return (book != null) ? book.immutableBook() : null;
+		}
+
+		/**
+		 * Gets the client view of a book for the {@link #editorPickIndex}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the book, or null if it is not an editor pick or not in stock
+		 */
+		private Book editorPickOf(int isbn) {
+			BookStoreBook book = bookMap.get(isbn);
+			return (book != null && book.isEditorPick()) ? book.immutableBook() : null;
+		}
+
+		/**
+		 * Gets the entry of a book for the {@link #topRatedIndex}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the entry, or null if the book is not in stock
+		 */
+		private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+			BookStoreBook book = bookMap.get(isbn);
+			return (book != null) ? new TopRatedIndex.RankedBook(book.immutableBook(), book.getAverageRating()) : null;
+		}
+
+		/**
+		 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the number of sale misses, or zero if the book is not in stock
+		 */
+		private long numSaleMissesOf(int isbn) {
+			BookStoreBook book = bookMap.get(isbn);
+			return (book != null) ? book.getNumSaleMisses() : 0;
+		}
+	}
+
+	/** The order of the books in demand, most missed first. */
+	private static final Comparator<StockBook> BY_SALE_MISSES = Comparator
+			.comparingLong(StockBook::getNumSaleMisses).reversed()
+			.thenComparingInt(StockBook::getISBN);
+
+	/** The shards. */
+	private Shard[] shards = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private final SearchIndex searchIndex = new SearchIndex();
+
+	/** The books ordered by ISBN and by price. */
+	private final RangeIndex rangeIndex = new RangeIndex();
+
+	/** The mask selecting a shard from a spread hash. */
+	private int mask = 0;
+
+	/**
+	 * Instantiates a new {@link PartitionedConcurrentCertainBookStore} with
+	 * one shard per available processor.
+	 */
+	public PartitionedConcurrentCertainBookStore() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Instantiates a new {@link PartitionedConcurrentCertainBookStore} with at
+	 * least <code>minShards</code> shards, rounded up to a power of two.
+	 *
+	 * @param minShards
+	 *            the minimum number of shards
+	 */
+	public PartitionedConcurrentCertainBookStore(int minShards) {
+		// Constructors are not synchronized
+		if (minShards < 1 || minShards > (1 << 30)) {
+			throw new IllegalArgumentException("minShards = " + minShards + " is out of range");
+		}
+
+		int numShards = Integer.highestOneBit(minShards);
+
+		if (numShards < minShards) {
+			numShards <<= 1;
+		}
+
+		shards = new Shard[numShards];
+		mask = numShards - 1;
+
+		for (int i = 0; i < numShards; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	/**
+	 * Gets the shard index of the ISBN. The hash is spread first, so that
+	 * consecutive ISBNs are distributed over all shards.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the shard index
+	 */
+	private int indexOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the shard holding the book with the given ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the shard
+	 */
+	private Shard shardOf(int isbn) {
+		return shards[indexOf(isbn)];
+	}
+
+	/**
+	 * Acquires the read or write locks of the shards holding
+	 * <code>isbns</code>, in ascending shard order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param exclusive
+	 *            whether to take the write locks
+	 * @return the acquired locks, to be passed to
+	 *         {@link StripedReadWriteLock#unlockAll(List)}
+	 */
+	private List<Lock> lockShards(Collection<Integer> isbns, boolean exclusive) {
+		boolean[] selected = new boolean[shards.length];
+
+		for (int isbn : isbns) {
+			selected[indexOf(isbn)] = true;
+		}
+
+		return lockShards(selected, exclusive);
+	}
+
+	/**
+	 * Acquires the read or write locks of all shards, in ascending shard
+	 * order.
+	 *
+	 * @param exclusive
+	 *            whether to take the write locks
+	 * @return the acquired locks, to be passed to
+	 *         {@link StripedReadWriteLock#unlockAll(List)}
+	 */
+	private List<Lock> lockAllShards(boolean exclusive) {
+		boolean[] selected = new boolean[shards.length];
+		Arrays.fill(selected, true);
+		return lockShards(selected, exclusive);
+	}
+
+	/**
+	 * Acquires the read or write locks of the selected shards, in ascending
+	 * shard order.
+	 *
+	 * @param selected
+	 *            whether each shard is selected
+	 * @param exclusive
+	 *            whether to take the write locks
+	 * @return the acquired locks
+	 */
+	private List<Lock> lockShards(boolean[] selected, boolean exclusive) {
+		List<Lock> locks = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < selected.length; i++) {
+				if (selected[i]) {
+					Lock lock = exclusive ? shards[i].lock.writeLock() : shards[i].lock.readLock();
+					lock.lock();
+					locks.add(lock);
+				}
+			}
+		} catch (RuntimeException ex) {
+			StripedReadWriteLock.unlockAll(locks);
+			throw ex;
+		}
+
+		return locks;
+	}
+
+	/**
+	 * Groups ISBNs by the shard holding them.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the ISBNs of each shard
+	 */
+	private Map<Shard, List<Integer>> groupByShard(Collection<Integer> isbns) {
+		Map<Shard, List<Integer>> isbnsByShard = new HashMap<>();
+
+		for (int isbn : isbns) {
+			isbnsByShard.computeIfAbsent(shardOf(isbn), shard -> new ArrayList<>()).add(isbn);
+		}
+
+		return isbnsByShard;
+	}
+
+	/**
+	 * Brings the editor pick indexes of the shards holding <code>isbns</code>
+	 * up to date; the shards must be write locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 */
+	private void updateEditorPickIndexes(Collection<Integer> isbns) {
+		groupByShard(isbns).forEach((shard, shardISBNs) -> shard.editorPickIndex.update(shardISBNs, shard::editorPickOf));
+	}
+
+	/**
+	 * Brings the rankings of the shards holding <code>isbns</code> up to date;
+	 * the shards must be write locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 */
+	private void updateTopRatedIndexes(Collection<Integer> isbns) {
+		groupByShard(isbns).forEach((shard, shardISBNs) -> shard.topRatedIndex.update(shardISBNs, shard::rankedBookOf));
+	}
+
+	/**
+	 * Brings the search index up to date for <code>isbns</code>; the shards
+	 * holding them must be write locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that were added or removed
+	 */
+	private void updateSearchIndex(Collection<Integer> isbns) {
+		groupByShard(isbns).forEach((shard, shardISBNs) -> searchIndex.update(shardISBNs, shard::bookOf));
+	}
+
+	/**
+	 * Brings the range index up to date for <code>isbns</code>; the shards
+	 * holding them must be write locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that were added or removed
+	 */
+	private void updateRangeIndex(Collection<Integer> isbns) {
+		groupByShard(isbns).forEach((shard, shardISBNs) -> rangeIndex.update(shardISBNs, shard::bookOf));
+	}
+
+	/**
+	 * Brings the demand indexes of the shards holding <code>isbns</code> up to
+	 * date; the shards must be write locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 */
+	private void updateDemandIndexes(Collection<Integer> isbns) {
+		groupByShard(isbns).forEach((shard, shardISBNs) -> shard.demandIndex.update(shardISBNs, shard::numSaleMissesOf));
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (shardOf(isbn).bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!shardOf(ISBN).bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets a book of a locked shard.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private BookStoreBook bookOf(int isbn) {
+		return shardOf(isbn).bookMap.get(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+		List<Lock> locks = lockShards(addedISBNs, true);
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				shardOf(isbn).bookMap.put(isbn, new BookStoreBook(book));
+			}
+			updateEditorPickIndexes(addedISBNs);
+			updateTopRatedIndexes(addedISBNs);
+			updateSearchIndex(addedISBNs);
+			updateRangeIndex(addedISBNs);
+			updateDemandIndexes(addedISBNs);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList());
+		List<Lock> locks = lockShards(isbns, true);
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = bookOf(bookCopy.getISBN());
+
+				if (newCopies) {
+					book.addCopies(bookCopy.getNumCopies());
+				} else {
+					book.returnCopies(bookCopy.getNumCopies());
+				}
+			}
+			updateDemandIndexes(isbns);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		List<Lock> locks = lockAllShards(false);
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (Shard shard : shards) {
+				for (BookStoreBook book : shard.bookMap.values()) {
+					books.add(book.immutableStockBook());
+				}
+			}
+
+			return books;
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList());
+		List<Lock> locks = lockShards(isbns, true);
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				bookOf(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+			updateEditorPickIndexes(isbns);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The shards of all books stay locked from the stock check to the
+		// purchase, so the purchase commits in all of them or in none.
+		List<Lock> locks = lockShards(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()), true);
+		try {
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+			}
+
+			BookStoreBook book;
+			Boolean saleMiss = false;
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookOf(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookOf(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+				}
+				updateDemandIndexes(salesMisses.keySet());
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookOf(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(isbnSet, false);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookOf(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(isbnSet, false);
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookOf(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Lock> locks = lockAllShards(false);
+		try {
+			// Decide how many picks each shard contributes by drawing the
+			// shards without replacement, weighted by their remaining picks,
+			// so that the union of the samples is a uniform sample.
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int[] remaining = new int[shards.length];
+			int[] counts = new int[shards.length];
+			int total = 0;
+
+			for (int i = 0; i < shards.length; i++) {
+				remaining[i] = shards[i].editorPickIndex.size();
+				total += remaining[i];
+			}
+
+			for (int n = Math.min(numBooks, total); n > 0; n--) {
+				int drawn = random.nextInt(total);
+				int i = 0;
+
+				while (drawn >= remaining[i]) {
+					drawn -= remaining[i];
+					i++;
+				}
+
+				counts[i]++;
+				remaining[i]--;
+				total--;
+			}
+
+			List<Book> result = new ArrayList<>();
+
+			for (int i = 0; i < shards.length; i++) {
+				if (counts[i] > 0) {
+					result.addAll(shards[i].editorPickIndex.sample(counts[i]));
+				}
+			}
+
+			Collections.shuffle(result, random);
+			return result;
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchIndex.search(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The best books overall are among the best books of each shard.
+		List<TopRatedIndex.RankedBook> candidates = new ArrayList<>();
+
+		for (Shard shard : shards) {
+			candidates.addAll(shard.topRatedIndex.topRanked(numBooks));
+		}
+
+		Collections.sort(candidates);
+		return candidates.stream()
+				.limit(numBooks)
+				.map(TopRatedIndex.RankedBook::getBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<Lock> locks = lockAllShards(false);
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (Shard shard : shards) {
+				for (int isbn : shard.demandIndex.inDemand()) {
+					books.add(shard.bookMap.get(isbn).immutableStockBook());
+				}
+			}
+
+			books.sort(BY_SALE_MISSES);
+			return books;
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList());
+		List<Lock> locks = lockShards(isbns, true);
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				bookOf(rating.getISBN()).addRating(rating.getRating());
+			}
+			updateTopRatedIndexes(isbns);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		List<Lock> locks = lockAllShards(true);
+		try {
+			for (Shard shard : shards) {
+				shard.bookMap.clear();
+				shard.editorPickIndex.clear();
+				shard.topRatedIndex.clear();
+				shard.demandIndex.clear();
+			}
+
+			searchIndex.clear();
+			rangeIndex.clear();
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(isbnSet, true);
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!shardOf(ISBN).bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				shardOf(isbn).bookMap.remove(isbn);
+			}
+			updateEditorPickIndexes(isbnSet);
+			updateTopRatedIndexes(isbnSet);
+			updateSearchIndex(isbnSet);
+			updateRangeIndex(isbnSet);
+			updateDemandIndexes(isbnSet);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * {@link RangeIndex} keeps the books of a store ordered by ISBN and by price,
+ * so that the books of an ISBN or price range are found in time proportional
+ * to their number rather than to the size of the catalog.
+ *
+ * <p>
+ * The orders are held in concurrent skip lists, which readers traverse
+ * without locking, so range queries never wait for the mutations of the stock
+ * nor hold them up. The updates, which the stores apply in
+ * <code>addBooks</code>, <code>removeBooks</code> and
+ * <code>removeAllBooks</code> like those of the {@link SearchIndex}, are
+ * serialized by a lock among themselves only; a range query running during an
+ * update may therefore see some of the books it changes and not others. The
+ * client view of a book never changes while it is in stock, so the entries
+ * need no updates but additions and removals.
+ */
+public class RangeIndex {
+
+	/** The books, by ISBN. */
+	private final ConcurrentSkipListMap<Integer, Book> booksByISBN = new ConcurrentSkipListMap<>();
+
+	/** The books, by {@link #priceKey(float, int)}. */
+	private final ConcurrentSkipListMap<Long, Book> booksByPrice = new ConcurrentSkipListMap<>();
+
+	/** The lock serializing the updates. */
+	private final Lock updateLock = new ReentrantLock();
+
+	/**
+	 * Gets the key of a book in {@link #booksByPrice}, ordering the books by
+	 * price and then by ISBN. The bits of a non-negative float order like the
+	 * float itself, so the price is kept in the high half of the key.
+	 *
+	 * @param price
+	 *            the price, not negative
+	 * @param isbn
+	 *            the ISBN, not negative
+	 * @return the key
+	 */
+	private static long priceKey(float price, int isbn) {
+		return ((long) Float.floatToIntBits(price) << 32) | isbn;
+	}
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, which
+	 * were added or removed. <code>bookOf</code> is evaluated for each of them
+	 * while the updates are locked, so concurrent updates of the same book
+	 * leave the index in the state seen by the last of them.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param bookOf
+	 *            the function giving the client view of a book, and null if
+	 *            it is no longer in stock
+	 */
+	public void update(Collection<Integer> isbns, IntFunction<? extends Book> bookOf) {
+		if (isbns.isEmpty()) {
+			return;
+		}
+
+		updateLock.lock();
+		try {
+			for (int isbn : isbns) {
+				Book book = bookOf.apply(isbn);
+				Book oldBook = (book != null) ? booksByISBN.put(isbn, book) : booksByISBN.remove(isbn);
+
+				if (oldBook != null) {
+					booksByPrice.remove(priceKey(oldBook.getPrice(), isbn));
+				}
+
+				if (book != null) {
+					booksByPrice.put(priceKey(book.getPrice(), isbn), book);
+				}
+			}
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear() {
+		updateLock.lock();
+		try {
+			booksByISBN.clear();
+			booksByPrice.clear();
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets up to <code>numBooks</code> books whose ISBN is between
+	 * <code>fromISBN</code> and <code>toISBN</code>, both included, in
+	 * ascending ISBN order.
+	 *
+	 * @param fromISBN
+	 *            the lowest ISBN
+	 * @param toISBN
+	 *            the highest ISBN
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	public List<Book> getByISBN(int fromISBN, int toISBN, int numBooks) {
+		if (fromISBN > toISBN) {
+			return new ArrayList<>();
+		}
+
+		return first(booksByISBN.subMap(fromISBN, true, toISBN, true), numBooks);
+	}
+
+	/**
+	 * Gets up to <code>numBooks</code> books whose price is between
+	 * <code>minPrice</code> and <code>maxPrice</code>, both included, in
+	 * ascending price order and then ISBN order.
+	 *
+	 * @param minPrice
+	 *            the lowest price
+	 * @param maxPrice
+	 *            the highest price
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	public List<Book> getByPrice(float minPrice, float maxPrice, int numBooks) {
+		// Prices are not negative, and the bits of -0.0f would not order.
+		float from = Math.max(minPrice, 0.0f);
+
+		if (!(from <= maxPrice)) {
+			return new ArrayList<>();
+		}
+
+		return first(booksByPrice.subMap(priceKey(from, 0), true, priceKey(maxPrice, Integer.MAX_VALUE), true),
+				numBooks);
+	}
+
+	/**
+	 * Gets the first books of a range.
+	 *
+	 * @param range
+	 *            the range
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books, in order
+	 */
+	private static List<Book> first(ConcurrentNavigableMap<?, Book> range, int numBooks) {
+		List<Book> result = new ArrayList<>();
+
+		for (Book book : range.values()) {
+			if (result.size() >= numBooks) {
+				break;
+			}
+
+			result.add(book);
+		}
+
+		return result;
+	}
+}
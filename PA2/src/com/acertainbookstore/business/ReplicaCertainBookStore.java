@@ -0,0 +1,427 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BulkLoader;
+import com.acertainbookstore.interfaces.ChangeStream;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicaCertainBookStore} keeps a read-only replica of the stock of a
+ * primary store in a local store, and serves the reads from it. A background
+ * thread starts from a {@link StockSnapshot} of the primary, loaded into the
+ * local store at once, and then applies the changes of the
+ * {@link ChangeStream} of the primary as they are published. It serves the
+ * reads of the {@link BookStore} only: mutations are rejected, since they
+ * have to go to the primary, and so are the reads of the
+ * {@link StockManager}, since failed purchases are not published and the sale
+ * misses of the replica are therefore not kept up to date.
+ *
+ * <p>
+ * The changes are applied in the order of the stream, so the replica goes
+ * through the states of the primary, behind it by the time a change takes to
+ * be polled. Consecutive changes of the same kind are applied as one
+ * operation as long as they concern different books, so that a purchase of
+ * several books, for instance, is never seen half applied. The replica starts
+ * again from a snapshot when it fell too far behind to read the changes it
+ * missed, or when the primary loaded a catalog.
+ *
+ * @see ChangeStream
+ */
+public class ReplicaCertainBookStore implements BookStore, StockManager, Closeable {
+
+	/** The time a poll of the change stream waits for changes. */
+	private static final long POLL_WAIT_MILLIS = 10 * 1000;
+
+	/** The delay before trying again when the primary cannot be reached. */
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	/** The change stream of the primary. */
+	private final ChangeStream primary;
+
+	/** The local book store. */
+	private final BookStore bookStore;
+
+	/** The local stock manager, which loads the snapshots. */
+	private final StockManager stockManager;
+
+	/** The thread applying the changes of the primary. */
+	private final Thread replicator;
+
+	/** The sequence of the last change applied to the local store. */
+	private volatile long appliedSequence = -1;
+
+	/** Whether the replica is closed. */
+	private volatile boolean closed = false;
+
+	/**
+	 * Instantiates a new {@link ReplicaCertainBookStore} and starts following
+	 * the primary.
+	 *
+	 * @param primary
+	 *            the change stream of the primary
+	 * @param bookStore
+	 *            the local book store, which must be empty
+	 * @param stockManager
+	 *            the local stock manager, which must be a {@link BulkLoader}
+	 * @throws BookStoreException
+	 *             if the local stock manager cannot bulk load a snapshot
+	 */
+	public ReplicaCertainBookStore(ChangeStream primary, BookStore bookStore, StockManager stockManager)
+			throws BookStoreException {
+		if (!(stockManager instanceof BulkLoader)) {
+			throw new BookStoreException(BookStoreConstants.BULK_LOAD_UNSUPPORTED);
+		}
+
+		this.primary = primary;
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+
+		replicator = new Thread(this::replicate, "replicator");
+		replicator.setDaemon(true);
+		replicator.start();
+	}
+
+	/**
+	 * Gets the sequence of the last change of the primary applied to the
+	 * replica.
+	 *
+	 * @return the sequence, or -1 if the replica has not loaded a snapshot yet
+	 */
+	public long getAppliedSequence() {
+		return appliedSequence;
+	}
+
+	/**
+	 * Follows the primary until the replica is closed.
+	 */
+	private void replicate() {
+		boolean needsSnapshot = true;
+
+		while (!closed) {
+			try {
+				if (needsSnapshot) {
+					StockSnapshot snapshot = primary.getSnapshot();
+					((BulkLoader) stockManager).loadCatalog(snapshot.getBooks());
+					appliedSequence = snapshot.getSequence();
+					needsSnapshot = false;
+				}
+
+				needsSnapshot = !apply(primary.getChanges(appliedSequence, POLL_WAIT_MILLIS));
+			} catch (BookStoreException ex) {
+				// The changes were lost, the primary cannot be reached, or a
+				// change cannot be applied; start again from a snapshot.
+				needsSnapshot = true;
+
+				if (!closed) {
+					try {
+						Thread.sleep(RETRY_DELAY_MILLIS);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies changes to the local store, grouping the consecutive changes of
+	 * the same kind which concern different books.
+	 *
+	 * @param changes
+	 *            the changes, in order
+	 * @return false if the replica has to start again from a snapshot
+	 * @throws BookStoreException
+	 *             if a change cannot be applied
+	 */
+	private boolean apply(List<StockChangeEvent> changes) throws BookStoreException {
+		List<StockChangeEvent> group = new ArrayList<>();
+		Set<Integer> groupISBNs = new HashSet<>();
+
+		for (StockChangeEvent change : changes) {
+			if (change.getType() == StockChangeEvent.Type.CATALOG_LOADED) {
+				applyGroup(group);
+				return false;
+			}
+
+			if (!group.isEmpty()
+					&& (group.get(0).getType() != change.getType() || groupISBNs.contains(change.getISBN()))) {
+				applyGroup(group);
+				group.clear();
+				groupISBNs.clear();
+			}
+
+			group.add(change);
+			groupISBNs.add(change.getISBN());
+		}
+
+		applyGroup(group);
+		return true;
+	}
+
+	/**
+	 * Applies a group of changes of the same kind concerning different books
+	 * to the local store as one operation, and records the sequence of the
+	 * last one.
+	 *
+	 * @param group
+	 *            the changes, possibly none
+	 * @throws BookStoreException
+	 *             if the changes cannot be applied
+	 */
+	private void applyGroup(List<StockChangeEvent> group) throws BookStoreException {
+		if (group.isEmpty()) {
+			return;
+		}
+
+		switch (group.get(0).getType()) {
+		case BOOK_ADDED:
+			Set<StockBook> books = new HashSet<>();
+			group.forEach(change -> books.add(change.getBook()));
+			stockManager.addBooks(books);
+			break;
+
+		case BOOK_REMOVED:
+			Set<Integer> isbns = new HashSet<>();
+			group.forEach(change -> isbns.add(change.getISBN()));
+			stockManager.removeBooks(isbns);
+			break;
+
+		case ALL_BOOKS_REMOVED:
+			stockManager.removeAllBooks();
+			break;
+
+		case COPIES_ADDED:
+			Set<BookCopy> copiesToAdd = new HashSet<>();
+			group.forEach(change -> copiesToAdd.add(new BookCopy(change.getISBN(), change.getAmount())));
+			stockManager.addCopies(copiesToAdd);
+			break;
+
+		case COPIES_BOUGHT:
+			Set<BookCopy> copiesToBuy = new HashSet<>();
+			group.forEach(change -> copiesToBuy.add(new BookCopy(change.getISBN(), change.getAmount())));
+			bookStore.buyBooks(copiesToBuy);
+			break;
+
+		case COPIES_RETURNED:
+			Set<BookCopy> copiesToReturn = new HashSet<>();
+			group.forEach(change -> copiesToReturn.add(new BookCopy(change.getISBN(), change.getAmount())));
+
+			if (stockManager instanceof StockReturner) {
+				((StockReturner) stockManager).returnCopies(copiesToReturn);
+			} else {
+				// The sale misses of the replica are not served anyway.
+				stockManager.addCopies(copiesToReturn);
+			}
+			break;
+
+		case EDITOR_PICK_CHANGED:
+			Set<BookEditorPick> editorPicks = new HashSet<>();
+			group.forEach(change -> editorPicks.add(new BookEditorPick(change.getISBN(), change.getAmount() != 0)));
+			stockManager.updateEditorPicks(editorPicks);
+			break;
+
+		case BOOK_RATED:
+			Set<BookRating> ratings = new HashSet<>();
+			group.forEach(change -> ratings.add(new BookRating(change.getISBN(), change.getAmount())));
+			bookStore.rateBooks(ratings);
+			break;
+
+		default:
+			break;
+		}
+
+		appliedSequence = group.get(group.size() - 1).getSequence();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		replicator.interrupt();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.REPLICA_STOCK_UNAVAILABLE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.REPLICA_STOCK_UNAVAILABLE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		return bookStore.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		return bookStore.getBooksByPriceRange(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		return bookStore.getBooksByISBNRange(fromISBN, toISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.REPLICA_STOCK_UNAVAILABLE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.READ_ONLY_REPLICA);
+	}
+}
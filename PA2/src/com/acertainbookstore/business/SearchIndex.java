@@ -0,0 +1,408 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.utils.IntIntHashMap;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link SearchIndex} is an inverted index of the words of the titles and
+ * authors of the books of a store, so that <code>searchBooks</code> finds the
+ * books matching a query in time proportional to the postings of its words
+ * rather than to the size of the catalog. It also keeps the phrases of the
+ * titles and authors in an {@link AutocompleteIndex}, so that
+ * <code>autocomplete</code> completes a prefix without looking at the books.
+ *
+ * <p>
+ * The words of a book are the maximal runs of letters and digits of its
+ * title and author, in lower case, and its phrases are its title and author
+ * written as their words separated by single spaces. A book matches a query
+ * if it has all the words of the query, so a query is answered by walking the
+ * shortest of the posting lists of its words and probing the others. Like the
+ * {@link EditorPickIndex}, the index is kept in step by the stores in
+ * <code>addBooks</code>, <code>removeBooks</code> and
+ * <code>removeAllBooks</code> while they hold the locks of the change, and
+ * every update is applied atomically under a {@link StampedLock}.
+ */
+public class SearchIndex {
+
+	/**
+	 * {@link Postings} holds the books having a word in a dense array, so
+	 * that a book is added or removed in constant time and a query can stop
+	 * after the books it needs. Most words only have a few books, which are
+	 * found by scanning the array; the positions of the books are only mapped
+	 * once there are more.
+	 */
+	private static final class Postings {
+
+		/** The initial capacity of {@link #books}. */
+		private static final int INITIAL_CAPACITY = 4;
+
+		/** The number of books above which {@link #positions} is kept. */
+		private static final int SCAN_LIMIT = 8;
+
+		/** The books; the first {@link #size} entries are in use. */
+		private Book[] books = new Book[INITIAL_CAPACITY];
+
+		/** The number of books. */
+		private int size = 0;
+
+		/**
+		 * The position of each book in {@link #books}, by ISBN, or null while
+		 * there are at most {@link #SCAN_LIMIT} books.
+		 */
+		private IntIntHashMap positions = null;
+
+		/**
+		 * Gets the position of a book.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the position, or -1 if the book does not have the word
+		 */
+		private int positionOf(int isbn) {
+			if (positions != null) {
+				return positions.getOrDefault(isbn, -1);
+			}
+
+			for (int i = 0; i < size; i++) {
+				if (books[i].getISBN() == isbn) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Adds a book.
+		 *
+		 * @param book
+		 *            the client view of the book
+		 */
+		private void add(Book book) {
+			if (size == books.length) {
+				books = Arrays.copyOf(books, size * 2);
+			}
+
+			books[size] = book;
+
+			if (positions != null) {
+				positions.put(book.getISBN(), size);
+			} else if (size == SCAN_LIMIT) {
+				positions = new IntIntHashMap(2 * SCAN_LIMIT);
+
+				for (int i = 0; i <= size; i++) {
+					positions.put(books[i].getISBN(), i);
+				}
+			}
+
+			size++;
+		}
+
+		/**
+		 * Removes a book by moving the last one into its position.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 */
+		private void remove(int isbn) {
+			int position = positionOf(isbn);
+
+			if (position < 0) {
+				return;
+			}
+
+			if (positions != null) {
+				positions.removeOrDefault(isbn, -1);
+			}
+
+			int last = --size;
+
+			if (position != last) {
+				books[position] = books[last];
+
+				if (positions != null) {
+					positions.put(books[position].getISBN(), position);
+				}
+			}
+
+			books[last] = null;
+		}
+	}
+
+	/** The posting list of every word. */
+	private final Map<String, Postings> postings = new HashMap<>();
+
+	/** The indexed books, by ISBN. */
+	private final IntObjectHashMap<Book> indexedBooks = new IntObjectHashMap<>();
+
+	/** The phrases of the titles and authors. */
+	private final AutocompleteIndex phrases = new AutocompleteIndex();
+
+	/** The lock guarding the index. */
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * Gets the words of a text, i.e., its maximal runs of letters and digits,
+	 * in lower case.
+	 *
+	 * @param text
+	 *            the text, possibly null
+	 * @return the words, in order
+	 */
+	private static List<String> tokensOf(String text) {
+		List<String> words = new ArrayList<>();
+
+		if (text == null) {
+			return words;
+		}
+
+		int start = -1;
+
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+
+		return words;
+	}
+
+	/**
+	 * Gets the distinct words of a text.
+	 *
+	 * @param text
+	 *            the text, possibly null
+	 * @return the words, in order of first occurrence
+	 */
+	public static Set<String> wordsOf(String text) {
+		return new LinkedHashSet<>(tokensOf(text));
+	}
+
+	/**
+	 * Gets the phrase of a text, i.e., its words separated by single spaces.
+	 *
+	 * @param text
+	 *            the text, possibly null
+	 * @return the phrase, empty if the text has no words
+	 */
+	public static String phraseOf(String text) {
+		return String.join(" ", tokensOf(text));
+	}
+
+	/**
+	 * Gets the distinct words of the title and author of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the words
+	 */
+	private static Set<String> wordsOf(Book book) {
+		Set<String> words = wordsOf(book.getTitle());
+		words.addAll(wordsOf(book.getAuthor()));
+		return words;
+	}
+
+	/**
+	 * Gets the distinct, non-empty phrases of the title and author of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the phrases
+	 */
+	private static Set<String> phrasesOf(Book book) {
+		Set<String> bookPhrases = new LinkedHashSet<>();
+		bookPhrases.add(phraseOf(book.getTitle()));
+		bookPhrases.add(phraseOf(book.getAuthor()));
+		bookPhrases.remove("");
+		return bookPhrases;
+	}
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, which
+	 * were added or removed. <code>bookOf</code> is evaluated for each of them
+	 * while the index is locked, so concurrent updates of the same book leave
+	 * the index in the state seen by the last of them.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param bookOf
+	 *            the function giving the client view of a book, and null if
+	 *            it is no longer in stock
+	 */
+	public void update(Collection<Integer> isbns, IntFunction<? extends Book> bookOf) {
+		if (isbns.isEmpty()) {
+			return;
+		}
+
+		long stamp = lock.writeLock();
+		try {
+			for (int isbn : isbns) {
+				remove(isbn);
+				Book book = bookOf.apply(isbn);
+
+				if (book != null) {
+					add(book);
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear() {
+		long stamp = lock.writeLock();
+		try {
+			postings.clear();
+			indexedBooks.clear();
+			phrases.clear();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Adds a book which is not indexed.
+	 *
+	 * @param book
+	 *            the client view of the book
+	 */
+	private void add(Book book) {
+		for (String word : wordsOf(book)) {
+			postings.computeIfAbsent(word, key -> new Postings()).add(book);
+		}
+
+		for (String phrase : phrasesOf(book)) {
+			phrases.add(phrase);
+		}
+
+		indexedBooks.put(book.getISBN(), book);
+	}
+
+	/**
+	 * Removes a book, if it is indexed.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	private void remove(int isbn) {
+		Book book = indexedBooks.remove(isbn);
+
+		if (book == null) {
+			return;
+		}
+
+		for (String phrase : phrasesOf(book)) {
+			phrases.remove(phrase);
+		}
+
+		for (String word : wordsOf(book)) {
+			Postings wordPostings = postings.get(word);
+			wordPostings.remove(isbn);
+
+			if (wordPostings.size == 0) {
+				postings.remove(word);
+			}
+		}
+	}
+
+	/**
+	 * Gets up to <code>numBooks</code> books having all the words of
+	 * <code>query</code>, in no particular order. A query without words
+	 * matches no book.
+	 *
+	 * @param query
+	 *            the query
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	public List<Book> search(String query, int numBooks) {
+		Set<String> words = wordsOf(query);
+		List<Book> result = new ArrayList<>();
+
+		if (words.isEmpty() || numBooks == 0) {
+			return result;
+		}
+
+		long stamp = lock.readLock();
+		try {
+			Postings[] lists = new Postings[words.size()];
+			int n = 0;
+
+			for (String word : words) {
+				Postings wordPostings = postings.get(word);
+
+				if (wordPostings == null) {
+					return result;
+				}
+
+				lists[n++] = wordPostings;
+			}
+
+			Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+			for (int i = 0; i < lists[0].size && result.size() < numBooks; i++) {
+				Book book = lists[0].books[i];
+				boolean matches = true;
+
+				for (int j = 1; j < n && matches; j++) {
+					matches = lists[j].positionOf(book.getISBN()) >= 0;
+				}
+
+				if (matches) {
+					result.add(book);
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets up to <code>numPhrases</code> phrases of titles and authors
+	 * starting with the phrase of <code>prefix</code>, those of the most books
+	 * first.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @param numPhrases
+	 *            the maximum number of phrases
+	 * @return the phrases
+	 */
+	public List<String> autocomplete(String prefix, int numPhrases) {
+		String phrasePrefix = phraseOf(prefix);
+
+		if (numPhrases == 0) {
+			return new ArrayList<>();
+		}
+
+		long stamp = lock.readLock();
+		try {
+			return phrases.complete(phrasePrefix, numPhrases);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+}
@@ -3,40 +3,63 @@ package com.acertainbookstore.business;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BulkLoader;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  * 
  * @see BookStore
  * @see StockManager
+ * @see BulkLoader
  */
-public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
+public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager, StockReturner, BulkLoader {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntObjectHashMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private volatile EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private volatile TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private volatile SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private volatile RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private volatile DemandIndex demandIndex = null;
+
     private ReadWriteLock bookMapLock = new ReentrantReadWriteLock();
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectHashMap<>();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
         bookMapLock = new ReentrantReadWriteLock();
 	}
 
@@ -101,8 +124,19 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		int isbn = editorPickArg.getISBN();
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -111,6 +145,55 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 	}
 
+	/**
+	 * Gets the client view of a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null && book.isEditorPick()) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? new TopRatedIndex.RankedBook(book.immutableBook(), book.getAverageRating()) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.getNumSaleMisses() : 0;
+	}
+
 	
 	/*
 	 * (non-Javadoc)
@@ -133,6 +216,12 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                 int isbn = book.getISBN();
                 bookMap.put(isbn, new BookStoreBook(book));
             }
+            List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+            editorPickIndex.update(addedISBNs, this::editorPickOf);
+            topRatedIndex.update(addedISBNs, this::rankedBookOf);
+            searchIndex.update(addedISBNs, this::bookOf);
+            rangeIndex.update(addedISBNs, this::bookOf);
+            demandIndex.update(addedISBNs, this::numSaleMissesOf);
         }
         finally{
             bookMapLock.writeLock().unlock();
@@ -148,6 +237,32 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
 		int isbn;
 		int numCopies;
 
@@ -167,8 +282,14 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                 isbn = bookCopy.getISBN();
                 numCopies = bookCopy.getNumCopies();
                 book = bookMap.get(isbn);
-                book.addCopies(numCopies);
+
+                if (newCopies) {
+                    book.addCopies(numCopies);
+                } else {
+                    book.returnCopies(numCopies);
+                }
             }
+            demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
         }
         finally {
             bookMapLock.writeLock().unlock();
@@ -217,6 +338,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
             for (BookEditorPick editorPickArg : editorPicks) {
                 bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
             }
+            editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), this::editorPickOf);
         }
         finally {
             bookMapLock.writeLock().unlock();
@@ -264,6 +386,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                     book = bookMap.get(saleMissEntry.getKey());
                     book.addSaleMiss(saleMissEntry.getValue());
                 }
+                demandIndex.update(salesMisses.keySet(), this::numSaleMissesOf);
                 throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
             }
 
@@ -337,47 +460,81 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-        if (numBooks < 0) {
-            throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
-        }
-        bookMapLock.readLock().lock();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-        try {
-            List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                    .map(pair -> pair.getValue())
-                    .filter(book -> book.isEditorPick())
-                    .collect(Collectors.toList());
+		return editorPickIndex.sample(numBooks);
+	}
 
-            // Find numBooks random indices of books that will be picked.
-            Random rand = new Random();
-            Set<Integer> tobePicked = new HashSet<>();
-            int rangePicks = listAllEditorPicks.size();
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-            if (rangePicks <= numBooks) {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-                // We need to add all books.
-                for (int i = 0; i < listAllEditorPicks.size(); i++) {
-                    tobePicked.add(i);
-                }
-            } else {
+		return searchIndex.search(query, numBooks);
+	}
 
-                // We need to pick randomly the books that need to be returned.
-                int randNum;
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-                while (tobePicked.size() < numBooks) {
-                    randNum = rand.nextInt(rangePicks);
-                    tobePicked.add(randNum);
-                }
-            }
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
+	}
 
-            // Return all the books by the randomly chosen indices.
-            return tobePicked.stream()
-                    .map(index -> listAllEditorPicks.get(index).immutableBook())
-                    .collect(Collectors.toList());
-        } finally {
-            bookMapLock.readLock().unlock();
-        }
-    }
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -385,7 +542,11 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks);
 	}
 
 	/*
@@ -395,7 +556,14 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		bookMapLock.readLock().lock();
+		try {
+			return demandIndex.inDemand().stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			bookMapLock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -405,7 +573,24 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+        bookMapLock.writeLock().lock();
+        try {
+            for (BookRating rating : bookRating) {
+                validate(rating);
+            }
+
+            for (BookRating rating : bookRating) {
+                bookMap.get(rating.getISBN()).addRating(rating.getRating());
+            }
+            topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()), this::rankedBookOf);
+        }
+        finally {
+            bookMapLock.writeLock().unlock();
+        }
 	}
 
 	/*
@@ -417,6 +602,11 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
         bookMapLock.writeLock().lock();
         try{
 		    bookMap.clear();
+		    editorPickIndex.clear();
+		    topRatedIndex.clear();
+		    searchIndex.clear();
+		    rangeIndex.clear();
+		    demandIndex.clear();
 	    }
         finally {
             bookMapLock.writeLock().unlock();
@@ -450,10 +640,41 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
             for (int isbn : isbnSet) {
                 bookMap.remove(isbn);
             }
+            editorPickIndex.update(isbnSet, this::editorPickOf);
+            topRatedIndex.update(isbnSet, this::rankedBookOf);
+            searchIndex.update(isbnSet, this::bookOf);
+            rangeIndex.update(isbnSet, this::bookOf);
+            demandIndex.update(isbnSet, this::numSaleMissesOf);
         }
         finally {
             bookMapLock.writeLock().unlock();
 
         }
 	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BulkLoader#loadCatalog(java.util.List)
+	 */
+	public void loadCatalog(List<StockBook> books) throws BookStoreException {
+		if (books == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		CatalogLoader.Catalog catalog = CatalogLoader.build(books, BookStoreBook::new);
+
+		bookMapLock.writeLock().lock();
+		try {
+			bookMap = catalog.bookMap;
+			editorPickIndex = catalog.editorPickIndex;
+			topRatedIndex = catalog.topRatedIndex;
+			searchIndex = catalog.searchIndex;
+			rangeIndex = catalog.rangeIndex;
+			demandIndex = catalog.demandIndex;
+		} finally {
+			bookMapLock.writeLock().unlock();
+		}
+	}
 }
@@ -0,0 +1,142 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link StockChangeEvent} describes one change of the stock made by a
+ * successful mutation, as published in the change stream of a
+ * {@link ChangeCapturingCertainBookStore}. Events are numbered by a sequence
+ * which starts at one and grows by one per event, in the order the changes
+ * were made.
+ */
+public final class StockChangeEvent {
+
+	/**
+	 * {@link Type} is the kind of a change.
+	 */
+	public enum Type {
+
+		/** A book was added; the amount is its number of copies. */
+		BOOK_ADDED,
+
+		/** A book was removed. */
+		BOOK_REMOVED,
+
+		/** All books were removed; the ISBN is zero. */
+		ALL_BOOKS_REMOVED,
+
+		/** Copies of a book were added; the amount is their number. */
+		COPIES_ADDED,
+
+		/** Copies of a book were bought; the amount is their number. */
+		COPIES_BOUGHT,
+
+		/**
+		 * Copies of a book bought were returned, leaving its sale misses
+		 * untouched; the amount is their number.
+		 */
+		COPIES_RETURNED,
+
+		/** The editor pick flag of a book was set; the amount is 1 or 0. */
+		EDITOR_PICK_CHANGED,
+
+		/** A book was rated; the amount is the rating. */
+		BOOK_RATED,
+
+		/**
+		 * The stock was replaced by a catalog; the ISBN is zero, and consumers
+		 * have to read the whole stock again.
+		 */
+		CATALOG_LOADED;
+	}
+
+	/** The sequence number. */
+	private final long sequence;
+
+	/** The kind of change. */
+	private final Type type;
+
+	/** The ISBN of the book. */
+	private final int isbn;
+
+	/** The amount of the change, whose meaning depends on the type. */
+	private final int amount;
+
+	/** The book, for a {@link Type#BOOK_ADDED} event, or null. */
+	private final StockBook book;
+
+	/**
+	 * Instantiates a new {@link StockChangeEvent}.
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 * @param type
+	 *            the kind of change
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param amount
+	 *            the amount of the change
+	 * @param book
+	 *            the book, for a {@link Type#BOOK_ADDED} event, or null
+	 */
+	public StockChangeEvent(long sequence, Type type, int isbn, int amount, StockBook book) {
+		this.sequence = sequence;
+		this.type = type;
+		this.isbn = isbn;
+		this.amount = amount;
+		this.book = book;
+	}
+
+	/**
+	 * Gets the sequence number.
+	 *
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the kind of change.
+	 *
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the ISBN of the book.
+	 *
+	 * @return the ISBN
+	 */
+	public int getISBN() {
+		return isbn;
+	}
+
+	/**
+	 * Gets the amount of the change, whose meaning depends on the type.
+	 *
+	 * @return the amount
+	 */
+	public int getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Gets the book added by a {@link Type#BOOK_ADDED} event.
+	 *
+	 * @return the book, or null for other events
+	 */
+	public StockBook getBook() {
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "#" + sequence + " " + type + " ISBN = " + isbn + " Amount = " + amount;
+	}
+}
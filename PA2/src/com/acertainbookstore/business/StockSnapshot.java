@@ -0,0 +1,49 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link StockSnapshot} is a copy of the whole stock of a store publishing
+ * its changes, together with the sequence of the last change it reflects.
+ * A consumer of the change stream starts from a snapshot and applies the
+ * changes after its sequence.
+ */
+public final class StockSnapshot {
+
+	/** The sequence of the last change reflected by the snapshot. */
+	private final long sequence;
+
+	/** The books of the stock. */
+	private final List<StockBook> books;
+
+	/**
+	 * Instantiates a new {@link StockSnapshot}.
+	 *
+	 * @param sequence
+	 *            the sequence of the last change reflected by the snapshot
+	 * @param books
+	 *            the books of the stock
+	 */
+	public StockSnapshot(long sequence, List<StockBook> books) {
+		this.sequence = sequence;
+		this.books = books;
+	}
+
+	/**
+	 * Gets the sequence of the last change reflected by the snapshot.
+	 *
+	 * @return the sequence
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the books of the stock.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+}
@@ -0,0 +1,149 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link StripedCounterBook} is a {@link BookStoreBook} whose statistics,
+ * i.e., the total rating, the number of times rated and the number of sale
+ * misses, are kept in {@link LongAdder} instances instead of single fields.
+ * Concurrent ratings and sale misses of the same book then add to different
+ * cells of the adders rather than racing on one word, and the getters read
+ * the sums.
+ *
+ * <p>
+ * The sums are not read atomically with respect to each other. A rating
+ * adds to {@link #numTimesRated} before {@link #totalRating} and
+ * {@link #getAverageRating()} reads them in the opposite order, so a racing
+ * rating can only lower the average it returns, never put it out of range.
+ * Since the statistics change without bumping the version of the book, the
+ * {@link StockBook} copies of a striped book are not cached.
+ *
+ * @see BookStoreBook
+ */
+public class StripedCounterBook extends BookStoreBook {
+
+	/** The total rating. */
+	private final LongAdder totalRating = new LongAdder();
+
+	/** The number of times rated. */
+	private final LongAdder numTimesRated = new LongAdder();
+
+	/** The number of sale misses. */
+	private final LongAdder numSaleMisses = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link StripedCounterBook} from a {@link StockBook}
+	 * instance.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 */
+	public StripedCounterBook(StockBook bookToCopy) {
+		super(bookToCopy);
+
+		totalRating.add(bookToCopy.getTotalRating());
+		numTimesRated.add(bookToCopy.getNumTimesRated());
+		numSaleMisses.add(bookToCopy.getNumSaleMisses());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getTotalRating()
+	 */
+	@Override
+	public long getTotalRating() {
+		return totalRating.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumTimesRated()
+	 */
+	@Override
+	public long getNumTimesRated() {
+		return numTimesRated.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumSaleMisses()
+	 */
+	@Override
+	public long getNumSaleMisses() {
+		return numSaleMisses.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getAverageRating()
+	 */
+	@Override
+	public float getAverageRating() {
+		long total = totalRating.sum();
+		long timesRated = numTimesRated.sum();
+		return (timesRated == 0 ? -1.0f : (float) total / timesRated);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addCopies(int)
+	 */
+	@Override
+	public void addCopies(int numNewCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
+			super.addCopies(numNewCopies);
+			numSaleMisses.reset();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addSaleMiss(int)
+	 */
+	@Override
+	public void addSaleMiss(int numSaleMisses) {
+		this.numSaleMisses.add(numSaleMisses);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addRating(int)
+	 */
+	@Override
+	public void addRating(int rating) {
+		if (!BookStoreUtility.isInvalidRating(rating)) {
+			numTimesRated.increment();
+			totalRating.add(rating);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#hadSaleMiss()
+	 */
+	@Override
+	public boolean hadSaleMiss() {
+		return numSaleMisses.sum() > 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#immutableStockBook()
+	 */
+	@Override
+	public StockBook immutableStockBook() {
+		return new ImmutableStockBook(getISBN(), getTitle(), getAuthor(), getPrice(), getNumCopies(),
+				getNumSaleMisses(), getNumTimesRated(), getTotalRating(), isEditorPick());
+	}
+}
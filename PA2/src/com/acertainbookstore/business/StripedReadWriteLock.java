@@ -0,0 +1,258 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.utils.LockTimeoutException;
+
+/**
+ * {@link StripedReadWriteLock} maps ISBNs onto a fixed, power-of-two sized
+ * table of {@link ReadWriteLock}s. The memory used for locking is therefore
+ * independent of the size of the catalog, at the price of unrelated books
+ * occasionally sharing a stripe.
+ *
+ * <p>
+ * Sets of books are always locked in ascending stripe order, and each stripe
+ * at most once, so two callers locking overlapping sets cannot deadlock.
+ * The order is on stripes rather than ISBNs, since unrelated books may share
+ * a stripe. {@link #tryLockAll(Lock, Collection, boolean, long)} also bounds
+ * the time a caller waits, so a request stuck behind a long operation fails
+ * instead of holding its thread indefinitely.
+ */
+public class StripedReadWriteLock {
+
+	/** The number of stripes per available processor. */
+	private static final int STRIPES_PER_PROCESSOR = 8;
+
+	/** The lower bound on the number of stripes. */
+	private static final int MIN_STRIPES = 16;
+
+	/**
+	 * The longest a lock is waited for while other locks are held, in
+	 * nanoseconds.
+	 */
+	private static final long HOLDING_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/** The bound of the first backoff, in nanoseconds. */
+	private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/** The bound of the longest backoff, in nanoseconds. */
+	private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** The stripes. */
+	private final ReadWriteLock[] stripes;
+
+	/** The mask selecting a stripe from a spread hash. */
+	private final int mask;
+
+	/**
+	 * Instantiates a new {@link StripedReadWriteLock} sized from the number of
+	 * available processors.
+	 */
+	public StripedReadWriteLock() {
+		this(Math.max(MIN_STRIPES, Runtime.getRuntime().availableProcessors() * STRIPES_PER_PROCESSOR));
+	}
+
+	/**
+	 * Instantiates a new {@link StripedReadWriteLock} with at least
+	 * <code>minStripes</code> stripes, rounded up to a power of two.
+	 *
+	 * @param minStripes
+	 *            the minimum number of stripes
+	 */
+	public StripedReadWriteLock(int minStripes) {
+		if (minStripes < 1 || minStripes > (1 << 30)) {
+			throw new IllegalArgumentException("minStripes = " + minStripes + " is out of range");
+		}
+
+		int numStripes = Integer.highestOneBit(minStripes);
+
+		if (numStripes < minStripes) {
+			numStripes <<= 1;
+		}
+
+		stripes = new ReadWriteLock[numStripes];
+		mask = numStripes - 1;
+
+		for (int i = 0; i < numStripes; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int size() {
+		return stripes.length;
+	}
+
+	/**
+	 * Gets the stripe index of the ISBN. The hash is spread first, so that
+	 * consecutive ISBNs do not all land in neighbouring stripes.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	private int indexOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the lock guarding the book with the given ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the lock
+	 */
+	public ReadWriteLock getLock(int isbn) {
+		return stripes[indexOf(isbn)];
+	}
+
+	/**
+	 * Acquires the read or write locks of all stripes covering
+	 * <code>isbns</code>, in ascending stripe order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param exclusive
+	 *            whether to take the write locks
+	 * @return the acquired locks, to be passed to {@link #unlockAll(List)}
+	 */
+	public List<Lock> lockAll(Collection<Integer> isbns, boolean exclusive) {
+		boolean[] selected = new boolean[stripes.length];
+
+		for (int isbn : isbns) {
+			selected[indexOf(isbn)] = true;
+		}
+
+		List<Lock> locks = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < selected.length; i++) {
+				if (selected[i]) {
+					Lock lock = exclusive ? stripes[i].writeLock() : stripes[i].readLock();
+					lock.lock();
+					locks.add(lock);
+				}
+			}
+		} catch (RuntimeException ex) {
+			unlockAll(locks);
+			throw ex;
+		}
+
+		return locks;
+	}
+
+	/**
+	 * Acquires <code>first</code>, if not null, and then the read or write
+	 * locks of all stripes covering <code>isbns</code> in ascending stripe
+	 * order, waiting at most <code>timeoutMillis</code> milliseconds in all.
+	 *
+	 * <p>
+	 * A lock is waited for until the deadline while no other lock is held,
+	 * and only briefly otherwise. If it cannot be had, the locks held are
+	 * released and the whole set is tried again after a random backoff, whose
+	 * bound doubles with every attempt, so that callers contending for
+	 * overlapping sets neither keep others waiting while they wait nor retry
+	 * in lockstep.
+	 *
+	 * @param first
+	 *            the lock to acquire before the stripes, or null
+	 * @param isbns
+	 *            the ISBNs
+	 * @param exclusive
+	 *            whether to take the write locks of the stripes
+	 * @param timeoutMillis
+	 *            the maximum time to wait in milliseconds
+	 * @return the acquired locks, to be passed to {@link #unlockAll(List)}
+	 * @throws LockTimeoutException
+	 *             if the locks cannot be acquired in time, or the thread is
+	 *             interrupted while waiting, in which case no lock is held
+	 */
+	public List<Lock> tryLockAll(Lock first, Collection<Integer> isbns, boolean exclusive, long timeoutMillis)
+			throws LockTimeoutException {
+		boolean[] selected = new boolean[stripes.length];
+
+		for (int isbn : isbns) {
+			selected[indexOf(isbn)] = true;
+		}
+
+		List<Lock> wanted = new ArrayList<>();
+
+		if (first != null) {
+			wanted.add(first);
+		}
+
+		for (int i = 0; i < selected.length; i++) {
+			if (selected[i]) {
+				wanted.add(exclusive ? stripes[i].writeLock() : stripes[i].readLock());
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long backoffBound = MIN_BACKOFF_NANOS;
+		List<Lock> locks = new ArrayList<>(wanted.size());
+
+		try {
+			while (true) {
+				for (Lock lock : wanted) {
+					long remaining = deadline - System.nanoTime();
+					long wait = locks.isEmpty() ? remaining : Math.min(remaining, HOLDING_WAIT_NANOS);
+
+					if (!lock.tryLock(Math.max(0, wait), TimeUnit.NANOSECONDS)) {
+						break;
+					}
+
+					locks.add(lock);
+				}
+
+				if (locks.size() == wanted.size()) {
+					return locks;
+				}
+
+				unlockAll(locks);
+				locks.clear();
+
+				long remaining = deadline - System.nanoTime();
+
+				if (remaining <= 0) {
+					throw new LockTimeoutException(timeoutMillis);
+				}
+
+				LockSupport.parkNanos(Math.min(remaining, 1 + ThreadLocalRandom.current().nextLong(backoffBound)));
+				backoffBound = Math.min(MAX_BACKOFF_NANOS, backoffBound * 2);
+			}
+		} catch (InterruptedException ex) {
+			unlockAll(locks);
+			Thread.currentThread().interrupt();
+			throw new LockTimeoutException(timeoutMillis);
+		} catch (RuntimeException ex) {
+			unlockAll(locks);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Releases locks acquired by {@link #lockAll(Collection, boolean)} or
+	 * {@link #tryLockAll(Lock, Collection, boolean, long)} in reverse order.
+	 *
+	 * @param locks
+	 *            the locks
+	 */
+	public static void unlockAll(List<Lock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * {@link TopRatedIndex} keeps the books of a store ordered by their average
+ * rating, so that <code>getTopRatedBooks</code> returns the first entries of
+ * the ranking in time proportional to the number of books requested instead
+ * of sorting the catalog.
+ *
+ * <p>
+ * The stores update the index whenever an average rating changes or a book
+ * is added or removed, i.e., in <code>addBooks</code>, <code>rateBooks</code>,
+ * <code>removeBooks</code> and <code>removeAllBooks</code>. The ranking is a
+ * {@link ConcurrentSkipListSet} ordered by (rating, ISBN), and the entry of
+ * each book is recorded by ISBN so that it can be found and replaced when its
+ * rating changes. Updates of the same book are serialized by the map, and
+ * readers never block.
+ */
+public class TopRatedIndex {
+
+	/**
+	 * {@link RankedBook} is the entry of a book in the ranking: the client view
+	 * of the book together with the average rating it is ranked by.
+	 */
+	public static final class RankedBook implements Comparable<RankedBook> {
+
+		/** The client view of the book. */
+		private final Book book;
+
+		/** The average rating. */
+		private final float averageRating;
+
+		/**
+		 * Instantiates a new {@link RankedBook}.
+		 *
+		 * @param book
+		 *            the client view of the book
+		 * @param averageRating
+		 *            the average rating
+		 */
+		public RankedBook(Book book, float averageRating) {
+			this.book = book;
+			this.averageRating = averageRating;
+		}
+
+		/**
+		 * Gets the client view of the book.
+		 *
+		 * @return the client view of the book
+		 */
+		public Book getBook() {
+			return book;
+		}
+
+		/**
+		 * Orders the entries by decreasing average rating, and then by ISBN.
+		 *
+		 * @param other
+		 *            the other entry
+		 * @return the comparison
+		 */
+		@Override
+		public int compareTo(RankedBook other) {
+			int byRating = Float.compare(other.averageRating, averageRating);
+			return (byRating != 0) ? byRating : Integer.compare(book.getISBN(), other.book.getISBN());
+		}
+	}
+
+	/** The ranking, best rated first. */
+	private final ConcurrentSkipListSet<RankedBook> ranking = new ConcurrentSkipListSet<>();
+
+	/** The entry of each book in {@link #ranking}, by ISBN. */
+	private final ConcurrentHashMap<Integer, RankedBook> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Brings the index up to date for the books in <code>isbns</code>, whose
+	 * ratings changed or which were added or removed.
+	 * <code>rankedBookOf</code> is evaluated while the entry of the book is
+	 * locked, so concurrent updates of the same book leave the index in the
+	 * state seen by the last of them.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books that changed
+	 * @param rankedBookOf
+	 *            the function giving the entry of a book, or null if it is no
+	 *            longer in stock
+	 */
+	public void update(Collection<Integer> isbns, IntFunction<RankedBook> rankedBookOf) {
+		for (int isbn : isbns) {
+			entries.compute(isbn, (key, previous) -> {
+				RankedBook next = rankedBookOf.apply(key);
+
+				if (previous != null && next != null && previous.compareTo(next) == 0) {
+					return previous;
+				}
+
+				// Insert before removing, so that readers do not miss the book.
+				if (next != null) {
+					ranking.add(next);
+				}
+
+				if (previous != null) {
+					ranking.remove(previous);
+				}
+
+				return next;
+			});
+		}
+	}
+
+	/**
+	 * Fills an empty index with the entries of a whole catalog, e.g., when a
+	 * store bulk loads one. The entries are sorted first, so that they are
+	 * appended to the end of the ranking rather than inserted at random
+	 * places of it as {@link #update(Collection, IntFunction)} would.
+	 *
+	 * @param rankedBooks
+	 *            the entries of the books, one per ISBN
+	 */
+	public void load(RankedBook[] rankedBooks) {
+		RankedBook[] sorted = rankedBooks.clone();
+		Arrays.parallelSort(sorted);
+
+		for (RankedBook ranked : sorted) {
+			entries.put(ranked.book.getISBN(), ranked);
+			ranking.add(ranked);
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear() {
+		entries.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Gets the <code>numBooks</code> best rated books, or all of them if there
+	 * are not that many.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books, best rated first
+	 */
+	public List<Book> top(int numBooks) {
+		return topRanked(numBooks).stream().map(RankedBook::getBook).collect(Collectors.toList());
+	}
+
+	/**
+	 * Gets the entries of the <code>numBooks</code> best rated books, or of all
+	 * of them if there are not that many. An entry is only returned while it
+	 * is the current entry of its book, so a book being re-ranked is not
+	 * returned twice.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the entries, best rated first
+	 */
+	public List<RankedBook> topRanked(int numBooks) {
+		List<RankedBook> result = new ArrayList<>(Math.min(numBooks, entries.size()));
+
+		for (RankedBook ranked : ranking) {
+			if (result.size() >= numBooks) {
+				break;
+			}
+
+			if (entries.get(ranked.book.getISBN()) == ranked) {
+				result.add(ranked);
+			}
+		}
+
+		return result;
+	}
+}
@@ -2,13 +2,12 @@ package com.acertainbookstore.business;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -17,42 +16,169 @@ import java.util.concurrent.locks.Lock;
 import java.util.Comparator;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BulkLoader;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+import com.acertainbookstore.utils.LockTimeoutException;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  * 
  * @see BookStore
  * @see StockManager
+ * @see BulkLoader
  */
-public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
+public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager, StockReturner, BulkLoader {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private HashMap<Integer, BookStoreBook> bookMap = null;
+	private IntObjectHashMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks, kept up to date by the mutations. */
+	private volatile EditorPickIndex editorPickIndex = null;
+
+	/** The ranking by average rating, kept up to date by the mutations. */
+	private volatile TopRatedIndex topRatedIndex = null;
+
+	/** The inverted index of the words of the titles and authors. */
+	private volatile SearchIndex searchIndex = null;
+
+	/** The books ordered by ISBN and by price. */
+	private volatile RangeIndex rangeIndex = null;
+
+	/** The books in demand, kept up to date by the mutations. */
+	private volatile DemandIndex demandIndex = null;
+
     private ReadWriteLock globalLock = new ReentrantReadWriteLock();
-    private Map<Integer, ReadWriteLock> bookLocks = new HashMap<>();
+    private StripedReadWriteLock bookLocks = new StripedReadWriteLock();
+
+	/**
+	 * The combiner batching the purchases under the global write lock, or null
+	 * if every purchase acquires the lock itself.
+	 */
+	private FlatCombiner buyCombiner = null;
+
+	/**
+	 * Whether the statistics of the books are kept in striped counters, see
+	 * {@link StripedCounterBook}.
+	 */
+	private boolean stripedCounters = false;
+
+	/** The default time an operation waits for its locks, in milliseconds. */
+	public static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 30 * 1000;
+
+	/**
+	 * The time a mutation waits for its locks before failing with a
+	 * {@link LockTimeoutException}, in milliseconds. Every mutation takes its
+	 * stripes while it holds the global lock, and the global write lock
+	 * excludes the other mutations, so the stripes are never contended and
+	 * the bound is in effect on the wait for the global lock. The reads wait
+	 * for the global read lock without a bound: the global write lock is only
+	 * held while a mutation is applied, so a read only waits for the
+	 * mutations being applied.
+	 */
+	private volatile long lockTimeoutMillis = DEFAULT_LOCK_TIMEOUT_MILLIS;
 
     /**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}, in which concurrent
+	 * purchases are applied in batches by a {@link FlatCombiner} if
+	 * <code>combinePurchases</code> is true. Combining pays off when many
+	 * clients buy the same books at once, e.g., during a launch, since the
+	 * global write lock then changes hands once per batch instead of once per
+	 * purchase.
+	 *
+	 * @param combinePurchases
+	 *            whether to combine concurrent purchases
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean combinePurchases) {
+		this(combinePurchases, false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}, in which concurrent
+	 * purchases are combined as above if <code>combinePurchases</code> is
+	 * true, and the statistics of the books are kept in striped counters if
+	 * <code>stripedCounters</code> is true. With striped counters, ratings and
+	 * purchases failing with sale misses only hold the global read lock, so
+	 * floods of them no longer queue up with the mutations of the stock.
+	 *
+	 * @param combinePurchases
+	 *            whether to combine concurrent purchases
+	 * @param stripedCounters
+	 *            whether to keep the statistics in striped counters
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean combinePurchases, boolean stripedCounters) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectHashMap<>();
+		editorPickIndex = new EditorPickIndex();
+		topRatedIndex = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		rangeIndex = new RangeIndex();
+		demandIndex = new DemandIndex();
         globalLock = new ReentrantReadWriteLock();
-        bookLocks = new HashMap<>();
-
+        bookLocks = new StripedReadWriteLock();
+		buyCombiner = combinePurchases ? new FlatCombiner(globalLock.writeLock()) : null;
+		this.stripedCounters = stripedCounters;
 	}
     private ReadWriteLock getGlobalLock() {
         return globalLock;
     }
 
-    private ReadWriteLock getBookLock(int isbn) {
-        return bookLocks.computeIfAbsent(isbn, k -> new ReentrantReadWriteLock());
+	/**
+	 * Sets the time a mutation waits for its locks before failing with a
+	 * {@link LockTimeoutException}.
+	 *
+	 * @param lockTimeoutMillis
+	 *            the time in milliseconds
+	 */
+	public void setLockTimeoutMillis(long lockTimeoutMillis) {
+		if (lockTimeoutMillis < 0) {
+			throw new IllegalArgumentException("lockTimeoutMillis = " + lockTimeoutMillis + " is out of range");
+		}
 
-    }
+		this.lockTimeoutMillis = lockTimeoutMillis;
+	}
+
+	/**
+	 * Acquires the global write lock and then the write locks of the stripes
+	 * of <code>isbns</code> in ascending stripe order, waiting at most the
+	 * lock timeout for them.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the acquired locks, to be passed to
+	 *         {@link StripedReadWriteLock#unlockAll(List)}
+	 * @throws LockTimeoutException
+	 *             if the locks cannot be acquired in time
+	 */
+	private List<Lock> lockBooks(Collection<Integer> isbns) throws LockTimeoutException {
+		return bookLocks.tryLockAll(globalLock.writeLock(), isbns, true, lockTimeoutMillis);
+	}
+
+	/**
+	 * Acquires the global read or write lock, waiting at most the lock
+	 * timeout for it.
+	 *
+	 * @param lock
+	 *            the global read or write lock
+	 * @return the acquired lock, to be passed to
+	 *         {@link StripedReadWriteLock#unlockAll(List)}
+	 * @throws LockTimeoutException
+	 *             if the lock cannot be acquired in time
+	 */
+	private List<Lock> lockGlobal(Lock lock) throws LockTimeoutException {
+		return bookLocks.tryLockAll(lock, Collections.emptyList(), false, lockTimeoutMillis);
+	}
 	
 	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
@@ -101,8 +227,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		int isbn = editorPickArg.getISBN();
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is in range
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -111,6 +248,66 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 	}
 
+	/**
+	 * Makes the {@link BookStoreBook} of a book added to the store.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the book store book
+	 */
+	private BookStoreBook newBook(StockBook book) {
+		return stripedCounters ? new StripedCounterBook(book) : new BookStoreBook(book);
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #searchIndex} and the
+	 * {@link #rangeIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not in stock
+	 */
+	private Book bookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the client view of a book for the {@link #editorPickIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not an editor pick or not in stock
+	 */
+	private Book editorPickOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null && book.isEditorPick()) ? book.immutableBook() : null;
+	}
+
+	/**
+	 * Gets the entry of a book for the {@link #topRatedIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in stock
+	 */
+	private TopRatedIndex.RankedBook rankedBookOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? new TopRatedIndex.RankedBook(book.immutableBook(), book.getAverageRating()) : null;
+	}
+
+	/**
+	 * Gets the number of sale misses of a book for the {@link #demandIndex}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of sale misses, or zero if the book is not in stock
+	 */
+	private long numSaleMissesOf(int isbn) {
+		BookStoreBook book = bookMap.get(isbn);
+		return (book != null) ? book.getNumSaleMisses() : 0;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -125,9 +322,9 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             List<StockBook> sortedBooks = bookSet.stream()
                     .sorted(Comparator.comparingInt(StockBook::getISBN))
                     .collect(Collectors.toList());
-            globalLock.writeLock().lock();
-
-            List<Lock> locks = new ArrayList<>();
+            List<Lock> locks = lockBooks(sortedBooks.stream()
+                    .map(StockBook::getISBN)
+                    .collect(Collectors.toList()));
 
             try {
                 // Check if all are there
@@ -136,21 +333,17 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
                 }
                 for (StockBook book : sortedBooks) {
                     int isbn = book.getISBN();
-                    ReadWriteLock lock = getBookLock(isbn);
-                    Lock writeLock = lock.writeLock();
-                    writeLock.lock();
-                    locks.add(writeLock);
-                }
-                for (StockBook book : sortedBooks) {
-                    int isbn = book.getISBN();
-                    bookMap.put(isbn, new BookStoreBook(book));
+                    bookMap.put(isbn, newBook(book));
                 }
+                List<Integer> addedISBNs = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
+                editorPickIndex.update(addedISBNs, this::editorPickOf);
+                topRatedIndex.update(addedISBNs, this::rankedBookOf);
+                searchIndex.update(addedISBNs, this::bookOf);
+                rangeIndex.update(addedISBNs, this::bookOf);
+                demandIndex.update(addedISBNs, this::numSaleMissesOf);
             }
             finally {
-                for (Lock lock : locks) {
-                    lock.unlock();
-                }
-                globalLock.writeLock().unlock();
+                StripedReadWriteLock.unlockAll(locks);
             }
         }
 	/*
@@ -160,16 +353,43 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockReturner#returnCopies(java.util.Set)
+	 */
+	@Override
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of books to the stock, all or nothing.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param newCopies
+	 *            whether the copies are new, which clears the sale misses of
+	 *            the books, rather than returned
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is invalid
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean newCopies) throws BookStoreException {
 		int isbn;
 		int numCopies;
         if (bookCopiesSet == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
-        List<Lock> locks = new ArrayList<>();
         List<BookCopy> sortedBookCopies = bookCopiesSet.stream()
                 .sorted(Comparator.comparingInt(BookCopy::getISBN))
                 .collect(Collectors.toList());
-        globalLock.writeLock().lock();
+        List<Lock> locks = lockBooks(sortedBookCopies.stream()
+                .map(BookCopy::getISBN)
+                .collect(Collectors.toList()));
 
         try {
             for (BookCopy bookCopy : sortedBookCopies) {
@@ -177,27 +397,22 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             }
             BookStoreBook book;
 
-            for (BookCopy bookCopy : sortedBookCopies)
-            {
-                isbn = bookCopy.getISBN();
-                ReadWriteLock lock = getBookLock(isbn);
-                Lock writeLock = lock.writeLock();
-                writeLock.lock();
-                locks.add(writeLock);
-            }
             // Update the number of copies
             for (BookCopy bookCopy : sortedBookCopies) {
                 isbn = bookCopy.getISBN();
                 numCopies = bookCopy.getNumCopies();
                 book = bookMap.get(isbn);
-                book.addCopies(numCopies);
+
+                if (newCopies) {
+                    book.addCopies(numCopies);
+                } else {
+                    book.returnCopies(numCopies);
+                }
             }
+            demandIndex.update(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()), this::numSaleMissesOf);
         }
         finally {
-            for (Lock lock : locks) {
-                lock.unlock();
-            }
-            globalLock.writeLock().unlock();
+            StripedReadWriteLock.unlockAll(locks);
         }
 	}
 
@@ -233,33 +448,25 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (editorPicks == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-        List<Lock> locks = new ArrayList<>();
-        int isbnValue;
         List<BookEditorPick> sortedEditorPicks = editorPicks.stream()
                 .sorted(Comparator.comparingInt(BookEditorPick::getISBN))
                 .collect(Collectors.toList());
 
-        globalLock.writeLock().lock();
+        List<Lock> locks = lockBooks(sortedEditorPicks.stream()
+                .map(BookEditorPick::getISBN)
+                .collect(Collectors.toList()));
         try {
 
             for (BookEditorPick editorPickArg : sortedEditorPicks) {
                 validate(editorPickArg);
             }
-            for(BookEditorPick editorPick : sortedEditorPicks){
-                isbnValue = editorPick.getISBN();
-                ReadWriteLock lock = getBookLock(isbnValue);
-                Lock writeLock = lock.writeLock();
-                writeLock.lock();
-                locks.add(writeLock);
-            }
-            for (BookEditorPick editorPickArg : sortedEditorPicks)
+            for (BookEditorPick editorPickArg : sortedEditorPicks) {
                 bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
             }
+            editorPickIndex.update(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()), this::editorPickOf);
+        }
         finally {
-            for(Lock lock : locks){
-                lock.unlock();
-            }
-            globalLock.writeLock().unlock();
+            StripedReadWriteLock.unlockAll(locks);
         }
 	}
 
@@ -273,6 +480,76 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
+		if (stripedCounters) {
+			recordSaleMisses(bookCopiesToBuy);
+		}
+
+		if (buyCombiner != null) {
+			buyCombiner.execute(() -> buyBooksLocked(bookCopiesToBuy), lockTimeoutMillis);
+			return;
+		}
+
+        // buyBooksLocked locks the stripes once it has checked the purchase.
+        List<Lock> locks = lockBooks(Collections.emptyList());
+        try {
+            buyBooksLocked(bookCopiesToBuy);
+        }
+        finally {
+            StripedReadWriteLock.unlockAll(locks);
+        }
+	}
+
+	/**
+	 * Checks a purchase under the global read lock, and fails it if some
+	 * books do not have enough copies, recording the sale misses in the
+	 * striped counters. A purchase passing the check may still fail with sale
+	 * misses under the global write lock, if copies are sold in between.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @throws BookStoreException
+	 *             if a book is invalid or does not have enough copies
+	 */
+	private void recordSaleMisses(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		Map<Integer, Integer> salesMisses = new HashMap<>();
+
+		List<Lock> locks = lockGlobal(globalLock.readLock());
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+				BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+			}
+
+			if (salesMisses.isEmpty()) {
+				return;
+			}
+
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				bookMap.get(saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
+			}
+
+			demandIndex.update(salesMisses.keySet(), this::numSaleMissesOf);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+
+		throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+	}
+
+	/**
+	 * Buys the books in <code>bookCopiesToBuy</code>, all or nothing; the
+	 * global write lock must be held.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void buyBooksLocked(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
 		// Check that all ISBNs that we buy are there first.
 		int isbn;
 		BookStoreBook book;
@@ -280,7 +557,6 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 		Map<Integer, Integer> salesMisses = new HashMap<>();
         List<Lock> locks = new ArrayList<>();
-        globalLock.writeLock().lock();
         try{
 
             for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
@@ -304,15 +580,12 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
                     book = bookMap.get(saleMissEntry.getKey());
                     book.addSaleMiss(saleMissEntry.getValue());
                 }
+                demandIndex.update(salesMisses.keySet(), this::numSaleMissesOf);
                 throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
             }
-            for(BookCopy bookCopyToBuy : bookCopiesToBuy){
-                isbn = bookCopyToBuy.getISBN();
-                ReadWriteLock lock = getBookLock(isbn);
-                Lock writeLock = lock.writeLock();
-                writeLock.lock();
-                locks.add(writeLock);
-            }
+            locks = bookLocks.tryLockAll(null, bookCopiesToBuy.stream()
+                    .map(BookCopy::getISBN)
+                    .collect(Collectors.toList()), true, lockTimeoutMillis);
             // Then make the purchase.
             for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
                 book = bookMap.get(bookCopyToBuy.getISBN());
@@ -320,12 +593,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
                 }
         }
         finally {
-
-            for(Lock lock : locks){
-                lock.unlock();
-
-            }
-            globalLock.writeLock().unlock();
+            StripedReadWriteLock.unlockAll(locks);
         }
 	}
 
@@ -390,43 +658,76 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (numBooks < 0) {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
-        globalLock.readLock().lock();
-        try {
 
-            List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                    .map(pair -> pair.getValue())
-                    .filter(book -> book.isEditorPick())
-                    .collect(Collectors.toList());
-            // Find numBooks random indices of books that will be picked.
-            Random rand = new Random();
-            Set<Integer> tobePicked = new HashSet<>();
-            int rangePicks = listAllEditorPicks.size();
+		return editorPickIndex.sample(numBooks);
+	}
 
-            if (rangePicks <= numBooks) {
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-                // We need to add all books.
-                for (int i = 0; i < listAllEditorPicks.size(); i++) {
-                    tobePicked.add(i);
-                }
-            } else {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-                // We need to pick randomly the books that need to be returned.
-                int randNum;
+		return searchIndex.search(query, numBooks);
+	}
 
-                while (tobePicked.size() < numBooks) {
-                    randNum = rand.nextInt(rangePicks);
-                    tobePicked.add(randNum);
-                }
-            }
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-            // Return all the books by the randomly chosen indices.
-            return tobePicked.stream()
-                    .map(index -> listAllEditorPicks.get(index).immutableBook())
-                    .collect(Collectors.toList());
-        }
-        finally {
-            globalLock.readLock().unlock();
-        }
+		if (numSuggestions < 0) {
+			throw new BookStoreException("numSuggestions = " + numSuggestions + ", but it must be positive");
+		}
+
+		return searchIndex.autocomplete(prefix, numSuggestions);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByPrice(minPrice, maxPrice, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return rangeIndex.getByISBN(fromISBN, toISBN, numBooks);
 	}
 
 	/*
@@ -436,7 +737,11 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks);
 	}
 
 	/*
@@ -446,7 +751,14 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		globalLock.readLock().lock();
+		try {
+			return demandIndex.inDemand().stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -456,7 +768,62 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+        if (stripedCounters) {
+            rateBooksStriped(bookRating);
+            return;
+        }
+
+        List<BookRating> sortedRatings = bookRating.stream()
+                .sorted(Comparator.comparingInt(BookRating::getISBN))
+                .collect(Collectors.toList());
+
+        List<Lock> locks = lockBooks(sortedRatings.stream()
+                .map(BookRating::getISBN)
+                .collect(Collectors.toList()));
+        try {
+
+            for (BookRating rating : sortedRatings) {
+                validate(rating);
+            }
+            for (BookRating rating : sortedRatings) {
+                bookMap.get(rating.getISBN()).addRating(rating.getRating());
+            }
+            topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()), this::rankedBookOf);
+        }
+        finally {
+            StripedReadWriteLock.unlockAll(locks);
+        }
+	}
+
+	/**
+	 * Rates books under the global read lock, adding the ratings to the
+	 * striped counters of the books.
+	 *
+	 * @param bookRating
+	 *            the ratings
+	 * @throws BookStoreException
+	 *             if a rating is invalid
+	 */
+	private void rateBooksStriped(Set<BookRating> bookRating) throws BookStoreException {
+		List<Lock> locks = lockGlobal(globalLock.readLock());
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				bookMap.get(rating.getISBN()).addRating(rating.getRating());
+			}
+
+			topRatedIndex.update(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()),
+					this::rankedBookOf);
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
 	}
 
 	/*
@@ -465,12 +832,17 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		globalLock.writeLock().lock();
+		List<Lock> locks = lockGlobal(globalLock.writeLock());
         try {
             bookMap.clear();
+            editorPickIndex.clear();
+            topRatedIndex.clear();
+            searchIndex.clear();
+            rangeIndex.clear();
+            demandIndex.clear();
         }
         finally {
-            globalLock.writeLock().unlock();
+            StripedReadWriteLock.unlockAll(locks);
         }
 	}
 
@@ -487,8 +859,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         List<Integer> sortedIsbns = isbnSet.stream()
                 .sorted() // Sortiert die Integer aufsteigend
                 .collect(Collectors.toList());
-        List<Lock> locks = new ArrayList<>();
-        globalLock.writeLock().lock();
+        List<Lock> locks = lockBooks(sortedIsbns);
         try{
             for (Integer ISBN : sortedIsbns) {
                 if (BookStoreUtility.isInvalidISBN(ISBN)) {
@@ -499,24 +870,44 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
                     throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
                 }
             }
-            for (int isbn : sortedIsbns) {
-
-                ReadWriteLock lock = getBookLock(isbn);
-                Lock writeLock = lock.writeLock();
-                writeLock.lock();
-                locks.add(writeLock);
-
-            }
             for (int isbn : sortedIsbns) {
                 bookMap.remove(isbn);
             }
+            editorPickIndex.update(isbnSet, this::editorPickOf);
+            topRatedIndex.update(isbnSet, this::rankedBookOf);
+            searchIndex.update(isbnSet, this::bookOf);
+            rangeIndex.update(isbnSet, this::bookOf);
+            demandIndex.update(isbnSet, this::numSaleMissesOf);
 
         }
         finally {
-            for(Lock lock : locks){
-                lock.unlock();
-            }
-            globalLock.writeLock().unlock();
+            StripedReadWriteLock.unlockAll(locks);
         }
         }
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BulkLoader#loadCatalog(java.util.List)
+	 */
+	public void loadCatalog(List<StockBook> books) throws BookStoreException {
+		if (books == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		CatalogLoader.Catalog catalog = CatalogLoader.build(books, this::newBook);
+
+		List<Lock> locks = lockGlobal(globalLock.writeLock());
+		try {
+			bookMap = catalog.bookMap;
+			editorPickIndex = catalog.editorPickIndex;
+			topRatedIndex = catalog.topRatedIndex;
+			searchIndex = catalog.searchIndex;
+			rangeIndex = catalog.rangeIndex;
+			demandIndex = catalog.demandIndex;
+		} finally {
+			StripedReadWriteLock.unlockAll(locks);
+		}
+	}
 }
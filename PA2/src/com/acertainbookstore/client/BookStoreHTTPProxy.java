@@ -3,8 +3,13 @@ package com.acertainbookstore.client;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
@@ -12,6 +17,7 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ReservationManager;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
@@ -25,11 +31,16 @@ import com.acertainbookstore.utils.BookStoreUtility;
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
  * {@link CertainBookStore} API declared in the {@link BookStore} class.
+ * Given the addresses of replicas of the server, the proxy spreads the
+ * read-only calls over them in turn and sends the others to the server; a
+ * read which cannot reach its replica is sent to the server instead. Reads
+ * from replicas may not reflect the latest changes yet. Reservations are
+ * always sent to the server.
  * 
  * @see BookStore
  * @see CertainBookStore
  */
-public class BookStoreHTTPProxy implements BookStore {
+public class BookStoreHTTPProxy implements BookStore, ReservationManager {
 
 	/** The client. */
 	protected HttpClient client;
@@ -37,6 +48,12 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The server address. */
 	protected String serverAddress;
 
+	/** The addresses of the replicas serving the reads. */
+	protected List<String> replicaAddresses;
+
+	/** The index of the replica serving the next read. */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
@@ -49,6 +66,22 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Collections.emptyList());
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} spreading the reads over
+	 * replicas of the server.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param replicaAddresses
+	 *            the addresses of the replicas, possibly none
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, List<String> replicaAddresses) throws Exception {
+		this.replicaAddresses = new ArrayList<>(replicaAddresses);
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -91,6 +124,40 @@ public class BookStoreHTTPProxy implements BookStore {
 		this.serverAddress = serverAddress;
 	}
 
+	/**
+	 * Performs a read-only exchange with the next replica, or with the server
+	 * if there are no replicas or the replica cannot be reached.
+	 *
+	 * @param requestFor
+	 *            the function making the request for an address
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performReadExchange(Function<String, BookStoreRequest> requestFor)
+			throws BookStoreException {
+		if (replicaAddresses.isEmpty()) {
+			return BookStoreUtility.performHttpExchange(client, requestFor.apply(serverAddress), serializer.get());
+		}
+
+		String replicaAddress = replicaAddresses
+				.get(Math.floorMod(nextReplica.getAndIncrement(), replicaAddresses.size()));
+
+		try {
+			return BookStoreUtility.performHttpExchange(client, requestFor.apply(replicaAddress), serializer.get());
+		} catch (BookStoreException ex) {
+			String message = ex.getMessage();
+
+			if (!BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING.equals(message)
+					&& !BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION.equals(message)
+					&& !BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT.equals(message)) {
+				throw ex;
+			}
+
+			return BookStoreUtility.performHttpExchange(client, requestFor.apply(serverAddress), serializer.get());
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -102,6 +169,52 @@ public class BookStoreHTTPProxy implements BookStore {
 		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReservationManager#reserveBooks(java.
+	 * util.Set, long)
+	 */
+	@Override
+	public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RESERVEBOOKS + "?"
+				+ BookStoreConstants.TTL_MILLIS_PARAM + "="
+				+ URLEncoder.encode(Long.toString(ttlMillis), StandardCharsets.UTF_8);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesToReserve);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (Long) bookStoreResponse.getList().get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReservationManager#commitReservation(
+	 * long)
+	 */
+	@Override
+	public void commitReservation(long reservationId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.COMMITRESERVATION;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, reservationId);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReservationManager#releaseReservation(
+	 * long)
+	 */
+	@Override
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RELEASERESERVATION;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, reservationId);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -109,10 +222,8 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newPostRequest(address + "/" + BookStoreMessageTag.GETBOOKS, isbnSet));
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -127,12 +238,11 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
 
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
-				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+		String urlSuffix = "/" + BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ urlEncodedNumBooks;
 
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newGetRequest(address + urlSuffix));
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -154,7 +264,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -162,8 +274,100 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlSuffix = "/" + BookStoreMessageTag.GETTOPRATEDBOOKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ urlEncodedNumBooks;
+
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newGetRequest(address + urlSuffix));
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlSuffix = "/" + BookStoreMessageTag.SEARCHBOOKS + "?" + BookStoreConstants.QUERY_PARAM + "="
+				+ URLEncoder.encode(query, StandardCharsets.UTF_8) + "&" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newGetRequest(address + urlSuffix));
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#autocomplete(java.lang.
+	 * String, int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlSuffix = "/" + BookStoreMessageTag.AUTOCOMPLETE + "?" + BookStoreConstants.PREFIX_PARAM + "="
+				+ URLEncoder.encode(prefix, StandardCharsets.UTF_8) + "&" + BookStoreConstants.SUGGESTION_NUM_PARAM
+				+ "=" + URLEncoder.encode(Integer.toString(numSuggestions), StandardCharsets.UTF_8);
+
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newGetRequest(address + urlSuffix));
+		return (List<String>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException {
+		String urlSuffix = "/" + BookStoreMessageTag.GETBOOKSBYPRICERANGE + "?" + BookStoreConstants.MIN_PRICE_PARAM
+				+ "=" + URLEncoder.encode(Float.toString(minPrice), StandardCharsets.UTF_8) + "&"
+				+ BookStoreConstants.MAX_PRICE_PARAM + "=" + URLEncoder.encode(Float.toString(maxPrice), StandardCharsets.UTF_8)
+				+ "&" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newGetRequest(address + urlSuffix));
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooksByISBNRange(int,
+	 * int, int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException {
+		String urlSuffix = "/" + BookStoreMessageTag.GETBOOKSBYISBNRANGE + "?" + BookStoreConstants.FROM_ISBN_PARAM
+				+ "=" + URLEncoder.encode(Integer.toString(fromISBN), StandardCharsets.UTF_8) + "&"
+				+ BookStoreConstants.TO_ISBN_PARAM + "=" + URLEncoder.encode(Integer.toString(toISBN), StandardCharsets.UTF_8)
+				+ "&" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		BookStoreResponse bookStoreResponse = performReadExchange(
+				address -> BookStoreRequest.newGetRequest(address + urlSuffix));
+		return (List<Book>) bookStoreResponse.getList();
 	}
 }
@@ -1,5 +1,7 @@
 package com.acertainbookstore.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -9,8 +11,11 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StockChangeEvent;
+import com.acertainbookstore.business.StockSnapshot;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.ChangeStream;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -28,7 +33,7 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see CertainBookStore
  * @see StockManager
  */
-public class StockManagerHTTPProxy implements StockManager {
+public class StockManagerHTTPProxy implements StockManager, ChangeStream {
 
 	/** The client. */
 	protected HttpClient client;
@@ -146,9 +151,48 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.ChangeStream#getChanges(long, long)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StockChangeEvent> getChanges(long afterSequence, long waitMillis) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETCHANGES + "?"
+				+ BookStoreConstants.SEQUENCE_PARAM + "="
+				+ URLEncoder.encode(Long.toString(afterSequence), StandardCharsets.UTF_8) + "&"
+				+ BookStoreConstants.WAIT_MILLIS_PARAM + "="
+				+ URLEncoder.encode(Long.toString(waitMillis), StandardCharsets.UTF_8);
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockChangeEvent>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.ChangeStream#getSnapshot()
+	 */
+	@Override
+	public StockSnapshot getSnapshot() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSNAPSHOT;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (StockSnapshot) bookStoreResponse.getList().get(0);
 	}
 
 	/*
@@ -2,7 +2,10 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -16,14 +19,28 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.PartitionedConcurrentCertainBookStore;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainReservationManager;
+import com.acertainbookstore.business.ChangeCapturingCertainBookStore;
+import com.acertainbookstore.business.OffHeapConcurrentCertainBookStore;
+import com.acertainbookstore.business.ColumnarConcurrentCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.LockFreeConcurrentCertainBookStore;
+import com.acertainbookstore.business.IntentionLockingConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.ReplicaCertainBookStore;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ReservationManager;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -53,6 +70,9 @@ public class BookStoreTest {
 	/** The client. */
 	private static BookStore client;
 
+	/** The reservation manager. */
+	private static ReservationManager reservations;
+
 	/**
 	 * Sets the up before class.
 	 */
@@ -65,8 +85,47 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+			String storeProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE);
+
 			if (localTest) {
-				if (singleLock) {
+				if (BookStoreConstants.STORE_INTENTION_LOCK.equals(storeProperty)) {
+					IntentionLockingConcurrentCertainBookStore store = new IntentionLockingConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_LOCK_FREE.equals(storeProperty)) {
+					LockFreeConcurrentCertainBookStore store = new LockFreeConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_STAMPED_LOCK.equals(storeProperty)) {
+					StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_MULTI_VERSION.equals(storeProperty)) {
+					MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_COLUMNAR.equals(storeProperty)) {
+					ColumnarConcurrentCertainBookStore store = new ColumnarConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_OFF_HEAP.equals(storeProperty)) {
+					OffHeapConcurrentCertainBookStore store = new OffHeapConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_COMBINING.equals(storeProperty)) {
+					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(true);
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_STRIPED_COUNTERS.equals(storeProperty)) {
+					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(false,
+							true);
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_PARTITIONED.equals(storeProperty)) {
+					PartitionedConcurrentCertainBookStore store = new PartitionedConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
@@ -80,6 +139,9 @@ public class BookStoreTest {
 				client = new BookStoreHTTPProxy("http://localhost:8081");
 			}
 
+			reservations = localTest ? new CertainReservationManager(client, (StockReturner) storeManager)
+					: (ReservationManager) client;
+
 			storeManager.removeAllBooks();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -365,6 +427,192 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that rating books updates the order of the top rated books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooksUpdatesTopRatedBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 3));
+		ratings.add(new BookRating(TEST_ISBN + 1, 5));
+		client.rateBooks(ratings);
+
+		List<Book> topRated = client.getTopRatedBooks(2);
+		assertEquals(2, topRated.size());
+		assertEquals(TEST_ISBN + 1, topRated.get(0).getISBN());
+		assertEquals(TEST_ISBN, topRated.get(1).getISBN());
+
+		// Lower the average of the best rated book below the default book.
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN + 1, 0));
+		ratings.add(new BookRating(TEST_ISBN + 2, 4));
+		client.rateBooks(ratings);
+
+		topRated = client.getTopRatedBooks(3);
+		assertEquals(3, topRated.size());
+		assertEquals(TEST_ISBN + 2, topRated.get(0).getISBN());
+		assertEquals(TEST_ISBN, topRated.get(1).getISBN());
+		assertEquals(TEST_ISBN + 1, topRated.get(2).getISBN());
+
+		// Removed books are no longer ranked.
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+
+		topRated = client.getTopRatedBooks(3);
+		assertEquals(2, topRated.size());
+		assertEquals(TEST_ISBN, topRated.get(0).getISBN());
+	}
+
+	/**
+	 * Tests that getEditorPicks returns distinct editor picks only, every pick
+	 * in turn, and follows the picks being withdrawn and the books removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetEditorPicks() throws BookStoreException {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		Set<Integer> pickedISBNs = new HashSet<Integer>();
+
+		for (int i = 1; i <= 10; i++) {
+			addBooks(TEST_ISBN + i, NUM_COPIES);
+
+			if (i <= 6) {
+				editorPicks.add(new BookEditorPick(TEST_ISBN + i, true));
+				pickedISBNs.add(TEST_ISBN + i);
+			}
+		}
+
+		storeManager.updateEditorPicks(editorPicks);
+		Set<Integer> sampledISBNs = new HashSet<Integer>();
+
+		for (int i = 0; i < 200; i++) {
+			List<Book> picks = client.getEditorPicks(4);
+			Set<Integer> isbns = new HashSet<Integer>();
+
+			for (Book book : picks) {
+				isbns.add(book.getISBN());
+			}
+
+			assertEquals(4, picks.size());
+			assertEquals(4, isbns.size());
+			assertTrue(pickedISBNs.containsAll(isbns));
+			sampledISBNs.addAll(isbns);
+		}
+
+		assertEquals(pickedISBNs, sampledISBNs);
+		assertEquals(6, client.getEditorPicks(10).size());
+		assertTrue(client.getEditorPicks(0).isEmpty());
+
+		// Withdrawn picks and removed books are no longer sampled.
+		editorPicks.clear();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, false));
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 7, false));
+		storeManager.updateEditorPicks(editorPicks);
+		storeManager.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN + 2, TEST_ISBN + 3)));
+		pickedISBNs.removeAll(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3));
+
+		List<Book> picks = client.getEditorPicks(10);
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (Book book : picks) {
+			isbns.add(book.getISBN());
+		}
+
+		assertEquals(3, picks.size());
+		assertEquals(pickedISBNs, isbns);
+
+		// A pick toggled back on is sampled again.
+		editorPicks.clear();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+		storeManager.updateEditorPicks(editorPicks);
+		assertEquals(4, client.getEditorPicks(10).size());
+	}
+
+	/**
+	 * Tests that the sale misses of buyBooks make books in demand, most missed
+	 * first, until they are restocked.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBuyTooManyBooksPutsBooksInDemand() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 3));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(2, booksInDemand.size());
+		assertEquals(TEST_ISBN + 1, booksInDemand.get(0).getISBN());
+		assertEquals(3, booksInDemand.get(0).getNumSaleMisses());
+		assertEquals(TEST_ISBN, booksInDemand.get(1).getISBN());
+		assertEquals(1, booksInDemand.get(1).getNumSaleMisses());
+
+		// Restocking resets the sale misses.
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN + 1, 1));
+		storeManager.addCopies(copiesToAdd);
+
+		booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(TEST_ISBN, booksInDemand.get(0).getISBN());
+	}
+
+	/**
+	 * Tests that books cannot be rated if one of the ratings is invalid.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateInvalidRating() throws BookStoreException {
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 6));
+
+		try {
+			client.rateBooks(ratings);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		ratings.add(new BookRating(TEST_ISBN + 1, 4)); // not in stock
+
+		try {
+			client.rateBooks(ratings);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStore = storeManager.getBooks();
+		assertEquals(1, booksInStore.size());
+		assertEquals(0, booksInStore.get(0).getNumTimesRated());
+	}
+
 
     /**
      * Tests concurrency of buyBook and addCopy.
@@ -608,6 +856,700 @@ public class BookStoreTest {
         assertTrue(testSucces.get());
     }
 
+    /**
+     * Tests that many clients buying the same book at once sell exactly the
+     * copies in stock, and that the other purchases are sale misses.
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testConcurrencyBuySameBook() throws BookStoreException {
+        int numThreads = 8;
+        int n = 200;
+        int numCopies = 500;
+        Set<StockBook> booksToAdd = new HashSet<StockBook>();
+        booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+                (float) 300, numCopies, 0, 0, 0, false));
+        storeManager.removeAllBooks();
+        storeManager.addBooks(booksToAdd);
+
+        AtomicInteger bought = new AtomicInteger();
+        AtomicInteger missed = new AtomicInteger();
+        Thread[] threads = new Thread[numThreads];
+
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(() -> {
+                Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+                booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+                for (int i = 0; i < n; i++) {
+                    try {
+                        client.buyBooks(booksToBuy);
+                        bought.incrementAndGet();
+                    } catch (BookStoreException e) {
+                        missed.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        // Wait for all threads to complete
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(numCopies, bought.get());
+        assertEquals(numThreads * n - numCopies, missed.get());
+
+        List<StockBook> booksInStoreList = storeManager.getBooks();
+        assertEquals(0, booksInStoreList.get(0).getNumCopies());
+        assertEquals(numThreads * n - numCopies, booksInStoreList.get(0).getNumSaleMisses());
+    }
+
+    /**
+     * Tests that a purchase failing for lack of copies of one book never takes
+     * the copies of the other books away from a concurrent purchase, and only
+     * records sale misses for the book it lacks.
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testConcurrencyFailedBuyIsIsolated() throws BookStoreException {
+        int n = 20000;
+        Set<StockBook> booksToAdd = new HashSet<StockBook>();
+        booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+                (float) 300, 1, 0, 0, 0, false));
+        storeManager.removeAllBooks();
+        storeManager.addBooks(booksToAdd);
+        addBooks(TEST_ISBN + 2, 1);
+
+        Set<BookCopy> soldOut = new HashSet<BookCopy>();
+        soldOut.add(new BookCopy(TEST_ISBN + 2, 1));
+        client.buyBooks(soldOut);
+
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger misses = new AtomicInteger();
+
+        Thread failingBuyer = new Thread(() -> {
+            Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+            booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+            booksToBuy.add(new BookCopy(TEST_ISBN + 2, 1));
+
+            for (int i = 0; i < n; i++) {
+                try {
+                    client.buyBooks(booksToBuy);
+                    failures.incrementAndGet();
+                } catch (BookStoreException e) {
+                    misses.incrementAndGet();
+                }
+            }
+        });
+
+        Thread buyer = new Thread(() -> {
+            Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+            booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+            for (int i = 0; i < n; i++) {
+                try {
+                    client.buyBooks(booksToBuy);
+                    storeManager.addCopies(booksToBuy);
+                } catch (BookStoreException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        });
+
+        failingBuyer.start();
+        buyer.start();
+
+        // Wait for all threads to complete
+        try {
+            failingBuyer.join();
+            buyer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(n, misses.get());
+
+        List<StockBook> booksInStoreList = storeManager.getBooksByISBN(
+                new HashSet<Integer>(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2)));
+
+        for (StockBook book : booksInStoreList) {
+            if (book.getISBN() == TEST_ISBN + 1) {
+                assertEquals(1, book.getNumCopies());
+            } else {
+                assertEquals(0, book.getNumCopies());
+                assertEquals(n, book.getNumSaleMisses());
+            }
+        }
+    }
+
+    /**
+     * Tests that an addition failing on a book added concurrently leaves no
+     * trace: no copies can be added to the books it inserted before it
+     * failed, and a successful addition keeps every copy added to its books.
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testConcurrencyFailedAddIsIsolated() throws BookStoreException {
+        int rounds = 30;
+        int numBooks = 10000;
+        int contendedIsbn = TEST_ISBN + numBooks + 1;
+
+        // The contended book comes last, so the addition fails after it
+        // inserted all the other books.
+        Set<StockBook> booksToAdd = new LinkedHashSet<StockBook>();
+
+        for (int i = 1; i <= numBooks + 1; i++) {
+            booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i,
+                    (float) 10, 1, 0, 0, 0, false));
+        }
+
+        Set<StockBook> contendedBooks = new HashSet<StockBook>();
+        contendedBooks.add(new ImmutableStockBook(contendedIsbn, "Contended", "Author",
+                (float) 10, 1, 0, 0, 0, false));
+        Set<BookCopy> copies = new HashSet<BookCopy>();
+        copies.add(new BookCopy(TEST_ISBN + 1, 1));
+
+        for (int r = 0; r < rounds; r++) {
+            storeManager.removeAllBooks();
+
+            AtomicBoolean added = new AtomicBoolean();
+            AtomicInteger copiesAdded = new AtomicInteger();
+            AtomicBoolean adding = new AtomicBoolean(true);
+
+            Thread adder = new Thread(() -> {
+                try {
+                    storeManager.addBooks(booksToAdd);
+                    added.set(true);
+                } catch (BookStoreException e) {
+                    // Lost against the contender
+                }
+            });
+
+            Thread contender = new Thread(() -> {
+                while (adding.get()) {
+                    try {
+                        storeManager.addBooks(contendedBooks);
+                        storeManager.removeBooks(new HashSet<Integer>(Arrays.asList(contendedIsbn)));
+                    } catch (BookStoreException e) {
+                        // Added by the adder
+                    }
+                }
+            });
+
+            Thread copier = new Thread(() -> {
+                while (adding.get()) {
+                    try {
+                        storeManager.addCopies(copies);
+                        copiesAdded.incrementAndGet();
+                    } catch (BookStoreException e) {
+                        // Not in stock (yet)
+                    }
+                }
+            });
+
+            contender.start();
+            copier.start();
+            adder.start();
+
+            // Wait for all threads to complete
+            try {
+                adder.join();
+                adding.set(false);
+                contender.join();
+                copier.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            List<StockBook> booksInStoreList = storeManager.getBooks();
+
+            if (added.get()) {
+                assertEquals(numBooks + 1, booksInStoreList.size());
+
+                for (StockBook book : booksInStoreList) {
+                    assertEquals(book.getISBN() == TEST_ISBN + 1 ? 1 + copiesAdded.get() : 1, book.getNumCopies());
+                }
+            } else {
+                assertEquals(0, copiesAdded.get());
+
+                for (StockBook book : booksInStoreList) {
+                    assertEquals(contendedIsbn, book.getISBN());
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that many clients rating the same book while it is being bought
+     * lose no rating and no purchase.
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testConcurrencyRateSameBook() throws BookStoreException {
+        int numThreads = 8;
+        int n = 200;
+        int numCopies = 500;
+        Set<StockBook> booksToAdd = new HashSet<StockBook>();
+        booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+                (float) 300, numCopies, 0, 0, 0, false));
+        storeManager.removeAllBooks();
+        storeManager.addBooks(booksToAdd);
+
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[numThreads + 1];
+
+        for (int t = 0; t < numThreads; t++) {
+            int rating = 1 + t % 5;
+            threads[t] = new Thread(() -> {
+                Set<BookRating> ratings = new HashSet<BookRating>();
+                ratings.add(new BookRating(TEST_ISBN + 1, rating));
+
+                for (int i = 0; i < n; i++) {
+                    try {
+                        client.rateBooks(ratings);
+                    } catch (BookStoreException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        threads[numThreads] = new Thread(() -> {
+            Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+            booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+            for (int i = 0; i < numCopies; i++) {
+                try {
+                    client.buyBooks(booksToBuy);
+                } catch (BookStoreException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        // Wait for all threads to complete
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        long totalRating = 0;
+
+        for (int t = 0; t < numThreads; t++) {
+            totalRating += (long) (1 + t % 5) * n;
+        }
+
+        assertEquals(0, failures.get());
+
+        StockBook book = storeManager.getBooks().get(0);
+        assertEquals(0, book.getNumCopies());
+        assertEquals(numThreads * n, book.getNumTimesRated());
+        assertEquals(totalRating, book.getTotalRating());
+    }
+
+	/**
+	 * Tests that searching books matches all the words of the query in the
+	 * titles and authors, ignoring case, and follows additions and removals.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, 1);
+		addBooks(TEST_ISBN + 2, 1);
+
+		List<Book> books = client.searchBooks("harry junit", 10);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+
+		assertEquals(1, client.searchBooks("HARRY potter, JK", 10).size());
+		assertEquals(2, client.searchBooks("thrones testin", 10).size());
+		assertEquals(1, client.searchBooks("thrones", 1).size());
+		assertTrue(client.searchBooks("harry thrones", 10).isEmpty());
+		assertTrue(client.searchBooks("harr", 10).isEmpty());
+		assertTrue(client.searchBooks(" ,. ", 10).isEmpty());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnsToRemove);
+
+		books = client.searchBooks("thrones", 10);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 2, books.get(0).getISBN());
+
+		try {
+			client.searchBooks("harry", -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that searching follows additions and removals of words shared by
+	 * many books, whose posting lists map the positions of their books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchBooksCommonWords() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 30; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Test of Thrones", "George RR Testin'", (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+		}
+
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 31, "Thrones", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 32, "Thrones", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false));
+		storeManager.addBooks(booksToAdd);
+
+		assertEquals(32, client.searchBooks("thrones", 100).size());
+		assertEquals(30, client.searchBooks("thrones testin", 100).size());
+		assertEquals(2, client.searchBooks("unit thrones", 100).size());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+
+		for (int i = 1; i <= 31; i += 2) {
+			isbnsToRemove.add(TEST_ISBN + i);
+		}
+
+		storeManager.removeBooks(isbnsToRemove);
+
+		assertEquals(16, client.searchBooks("thrones", 100).size());
+		assertEquals(15, client.searchBooks("testin thrones", 100).size());
+
+		List<Book> books = client.searchBooks("unit thrones", 100);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 32, books.get(0).getISBN());
+
+		for (Book book : client.searchBooks("testin", 100)) {
+			assertEquals(0, (book.getISBN() - TEST_ISBN) % 2);
+		}
+	}
+
+	/**
+	 * Checks that autocomplete completes prefixes with the titles and authors
+	 * of the most books first, and follows additions and removals.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAutocomplete() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, 1);
+		addBooks(TEST_ISBN + 2, 1);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		assertEquals(Arrays.asList("harry potter and junit"), client.autocomplete("Harry  P", 10));
+		assertEquals(Arrays.asList("george rr testin"), client.autocomplete("george rr t", 10));
+		assertEquals(Arrays.asList("test of thrones", "the art of computer programming"),
+				client.autocomplete("t", 10));
+		assertEquals(Arrays.asList("test of thrones"), client.autocomplete("T", 1));
+		assertTrue(client.autocomplete("thrones", 10).isEmpty());
+		assertEquals(6, client.autocomplete("", 10).size());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 1);
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+
+		assertEquals(Arrays.asList("the art of computer programming"), client.autocomplete("t", 10));
+		assertTrue(client.autocomplete("george", 10).isEmpty());
+
+		try {
+			client.autocomplete("harry", -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Checks that the price and ISBN range queries return the books of the
+	 * range in order, up to the limit, and follow additions and removals.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRangeQueries() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Test of Thrones", "George RR Testin'", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<Book> books = client.getBooksByPriceRange(10, 50, 10);
+		assertEquals(3, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+		assertEquals(TEST_ISBN + 3, books.get(1).getISBN());
+		assertEquals(TEST_ISBN + 2, books.get(2).getISBN());
+
+		assertEquals(2, client.getBooksByPriceRange(0, Float.MAX_VALUE, 2).size());
+		assertTrue(client.getBooksByPriceRange(51, 299, 10).isEmpty());
+		assertTrue(client.getBooksByPriceRange(50, 10, 10).isEmpty());
+
+		books = client.getBooksByISBNRange(TEST_ISBN + 1, TEST_ISBN + 10, 10);
+		assertEquals(3, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+		assertEquals(TEST_ISBN + 3, books.get(2).getISBN());
+		assertEquals(1, client.getBooksByISBNRange(TEST_ISBN, TEST_ISBN + 10, 1).size());
+		assertTrue(client.getBooksByISBNRange(TEST_ISBN + 4, TEST_ISBN + 10, 10).isEmpty());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 3);
+		storeManager.removeBooks(isbnsToRemove);
+
+		books = client.getBooksByPriceRange(10, 10, 10);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+		assertEquals(2, client.getBooksByISBNRange(TEST_ISBN + 1, TEST_ISBN + 10, 10).size());
+
+		try {
+			client.getBooksByISBNRange(TEST_ISBN, TEST_ISBN + 10, -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Gets the number of copies in stock of the default book.
+	 *
+	 * @return the number of copies
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private int numCopiesOfDefaultBook() throws BookStoreException {
+		return defaultBookInStock().getNumCopies();
+	}
+
+	/**
+	 * Gets the default book as held by the store.
+	 *
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private StockBook defaultBookInStock() throws BookStoreException {
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		return storeManager.getBooksByISBN(isbnSet).get(0);
+	}
+
+	/**
+	 * Checks that a reservation holds its copies all or nothing, that it is
+	 * settled exactly once by a commit, a release or its expiry, that
+	 * released and expired copies return to the stock without clearing its
+	 * sale misses, and that a reservation may be held for as long as asked.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testReservations() throws BookStoreException, InterruptedException {
+		Set<BookCopy> copiesToReserve = new HashSet<BookCopy>();
+		copiesToReserve.add(new BookCopy(TEST_ISBN, 2));
+		long committed = reservations.reserveBooks(copiesToReserve, 60 * 1000);
+		assertEquals(NUM_COPIES - 2, numCopiesOfDefaultBook());
+
+		copiesToReserve.clear();
+		copiesToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		try {
+			reservations.reserveBooks(copiesToReserve, 60 * 1000);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES - 2, numCopiesOfDefaultBook());
+
+		reservations.commitReservation(committed);
+		assertEquals(NUM_COPIES - 2, numCopiesOfDefaultBook());
+
+		copiesToReserve.clear();
+		copiesToReserve.add(new BookCopy(TEST_ISBN, 1));
+		long released = reservations.reserveBooks(copiesToReserve, 60 * 1000);
+		assertEquals(NUM_COPIES - 3, numCopiesOfDefaultBook());
+		reservations.releaseReservation(released);
+		assertEquals(NUM_COPIES - 2, numCopiesOfDefaultBook());
+		assertEquals(2, defaultBookInStock().getNumSaleMisses());
+
+		for (long settled : new long[] { committed, released }) {
+			try {
+				reservations.commitReservation(settled);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			try {
+				reservations.releaseReservation(settled);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+
+		copiesToReserve.clear();
+		copiesToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES - 2));
+		long expired = reservations.reserveBooks(copiesToReserve, 100);
+		assertEquals(0, numCopiesOfDefaultBook());
+
+		long deadline = System.currentTimeMillis() + 10 * 1000;
+
+		while (numCopiesOfDefaultBook() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		assertEquals(NUM_COPIES - 2, numCopiesOfDefaultBook());
+		assertEquals(2, defaultBookInStock().getNumSaleMisses());
+
+		try {
+			reservations.commitReservation(expired);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		long unbounded = reservations.reserveBooks(copiesToReserve, Long.MAX_VALUE);
+		Thread.sleep(3 * CertainReservationManager.TICK_MILLIS);
+		assertEquals(0, numCopiesOfDefaultBook());
+		reservations.releaseReservation(unbounded);
+		assertEquals(NUM_COPIES - 2, numCopiesOfDefaultBook());
+
+		try {
+			reservations.reserveBooks(copiesToReserve, 0);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Checks that a replica follows the changes of a primary publishing them,
+	 * including a catalog loaded by the primary, and rejects mutations and
+	 * reads of the stock, whose sale misses it does not follow.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testReplicaFollowsPrimary() throws BookStoreException, InterruptedException {
+		TwoLevelLockingConcurrentCertainBookStore primaryStore = new TwoLevelLockingConcurrentCertainBookStore();
+		ChangeCapturingCertainBookStore primary = new ChangeCapturingCertainBookStore(primaryStore, primaryStore);
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		primary.addBooks(booksToAdd);
+
+		TwoLevelLockingConcurrentCertainBookStore replicaStore = new TwoLevelLockingConcurrentCertainBookStore();
+		ReplicaCertainBookStore replica = new ReplicaCertainBookStore(primary, replicaStore, replicaStore);
+
+		try {
+			booksToAdd.clear();
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+					(float) 300, NUM_COPIES, 0, 0, 0, false));
+			primary.addBooks(booksToAdd);
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+			primary.buyBooks(booksToBuy);
+			primary.returnCopies(new HashSet<BookCopy>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+
+			Set<BookRating> ratings = new HashSet<BookRating>();
+			ratings.add(new BookRating(TEST_ISBN + 1, 5));
+			primary.rateBooks(ratings);
+			awaitReplica(primary, replica);
+
+			assertEquals(primary.getBooks(), replicaStore.getBooks());
+			assertEquals(TEST_ISBN + 1, replica.getTopRatedBooks(1).get(0).getISBN());
+
+			try {
+				replica.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			try {
+				replica.getBooksInDemand();
+				fail();
+			} catch (BookStoreException ex) {
+				assertEquals(BookStoreConstants.REPLICA_STOCK_UNAVAILABLE, ex.getMessage());
+			}
+
+			List<StockBook> catalog = new ArrayList<StockBook>();
+			catalog.add(new ImmutableStockBook(TEST_ISBN + 2, "Compilers", "Alfred Aho", (float) 80, 0, 3, 0, 0, true));
+			primary.loadCatalog(catalog);
+			awaitReplica(primary, replica);
+
+			assertEquals(primary.getBooks(), replicaStore.getBooks());
+			assertEquals(TEST_ISBN + 2, replica.getEditorPicks(1).get(0).getISBN());
+		} finally {
+			replica.close();
+		}
+	}
+
+	/**
+	 * Waits until a replica applied the changes of its primary.
+	 *
+	 * @param primary
+	 *            the primary
+	 * @param replica
+	 *            the replica
+	 * @throws InterruptedException
+	 *             if the wait is interrupted
+	 */
+	private static void awaitReplica(ChangeCapturingCertainBookStore primary, ReplicaCertainBookStore replica)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (replica.getAppliedSequence() != primary.getLastSequence()) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
     /**
 	 * Tear down after class.
 	 *
@@ -0,0 +1,332 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+import com.acertainbookstore.utils.IntIntHashMap;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link IntObjectHashMapTest} tests the {@link IntObjectHashMap},
+ * {@link ConcurrentIntObjectHashMap} and {@link IntIntHashMap} classes
+ * backing the stores.
+ *
+ * @see IntObjectHashMap
+ * @see ConcurrentIntObjectHashMap
+ * @see IntIntHashMap
+ */
+public class IntObjectHashMapTest {
+
+	/** The capacity of a map created with the default constructor. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Gets keys whose home slot in a table of the given capacity is
+	 * <code>slot</code>, so that they form a single probe sequence starting
+	 * there. Mirrors the hash of {@link IntObjectHashMap}; should it change,
+	 * the keys merely collide less and the tests still hold.
+	 *
+	 * @param slot
+	 *            the home slot
+	 * @param capacity
+	 *            the table capacity, a power of two
+	 * @param numKeys
+	 *            the number of keys
+	 * @return the keys
+	 */
+	private static List<Integer> keysWithHomeSlot(int slot, int capacity, int numKeys) {
+		List<Integer> result = new ArrayList<>();
+
+		for (int key = 1; result.size() < numKeys; key++) {
+			int h = key * 0x9E3779B9;
+
+			if (((h ^ (h >>> 16)) & (capacity - 1)) == slot) {
+				result.add(key);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks that a map holds exactly the mappings of the expected one.
+	 *
+	 * @param expected
+	 *            the expected mappings
+	 * @param map
+	 *            the map
+	 */
+	private static void assertSameMappings(Map<Integer, String> expected, IntObjectHashMap<String> map) {
+		assertEquals(expected.size(), map.size());
+
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+
+		int[] keys = map.keys();
+		Arrays.sort(keys);
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray(), keys);
+	}
+
+	/**
+	 * Checks that a primitive map holds exactly the mappings of the expected
+	 * one.
+	 *
+	 * @param expected
+	 *            the expected mappings
+	 * @param map
+	 *            the map
+	 */
+	private static void assertSameMappings(Map<Integer, Integer> expected, IntIntHashMap map) {
+		assertEquals(expected.size(), map.size());
+
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().intValue(), map.getOrDefault(entry.getKey(), -1));
+		}
+
+		int[] keys = map.keys();
+		Arrays.sort(keys);
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray(), keys);
+	}
+
+	/**
+	 * Tests that removing from the middle of a probe sequence which wraps
+	 * around the end of the table keeps the entries behind it reachable, and
+	 * that removed keys can be added again.
+	 */
+	@Test
+	public void testRemoveAcrossWrappingProbeSequence() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<>();
+		Map<Integer, String> expected = new HashMap<>();
+
+		// Five keys homed in the last two slots fill them and wrap to the
+		// first slots, under the resize threshold.
+		List<Integer> keys = keysWithHomeSlot(DEFAULT_CAPACITY - 2, DEFAULT_CAPACITY, 3);
+		keys.addAll(keysWithHomeSlot(DEFAULT_CAPACITY - 1, DEFAULT_CAPACITY, 2));
+
+		for (int key : keys) {
+			map.put(key, "v" + key);
+			expected.put(key, "v" + key);
+		}
+
+		assertSameMappings(expected, map);
+
+		for (int key : keys) {
+			assertEquals("v" + key, map.remove(key));
+			expected.remove(key);
+			assertNull(map.get(key));
+			assertSameMappings(expected, map);
+
+			assertNull(map.put(key, "w" + key));
+			expected.put(key, "w" + key);
+			assertSameMappings(expected, map);
+
+			assertEquals("w" + key, map.remove(key));
+			expected.remove(key);
+			assertSameMappings(expected, map);
+		}
+
+		assertTrue(map.isEmpty());
+		assertNull(map.remove(keys.get(0)));
+	}
+
+	/**
+	 * Tests that the conditional operations only act on the mapped value.
+	 */
+	@Test
+	public void testConditionalOperations() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<>();
+
+		assertNull(map.putIfAbsent(1, "a"));
+		assertEquals("a", map.putIfAbsent(1, "b"));
+		assertEquals("a", map.computeIfAbsent(1, key -> "c"));
+		assertEquals("d2", map.computeIfAbsent(2, key -> "d" + key));
+		assertFalse(map.remove(1, "b"));
+		assertTrue(map.remove(1, "a"));
+		assertFalse(map.containsKey(1));
+		assertTrue(map.containsKey(2));
+
+		try {
+			map.put(3, null);
+			fail();
+		} catch (NullPointerException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that the map keeps all its entries while it grows from the
+	 * default capacity, and after half of them are removed.
+	 */
+	@Test
+	public void testResize() {
+		IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+		int numKeys = 100000;
+
+		for (int key = 0; key < numKeys; key++) {
+			assertNull(map.put(key, key));
+		}
+
+		assertEquals(numKeys, map.size());
+
+		for (int key = 0; key < numKeys; key += 2) {
+			assertEquals(Integer.valueOf(key), map.remove(key));
+		}
+
+		assertEquals(numKeys / 2, map.size());
+
+		for (int key = 0; key < numKeys; key++) {
+			assertEquals((key % 2 == 0) ? null : Integer.valueOf(key), map.get(key));
+		}
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertTrue(map.values().isEmpty());
+		assertNull(map.get(1));
+	}
+
+	/**
+	 * Tests a long random sequence of operations on a small key range, which
+	 * makes long probe sequences, against {@link HashMap}.
+	 */
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(42);
+		IntObjectHashMap<String> map = new IntObjectHashMap<>();
+		Map<Integer, String> expected = new HashMap<>();
+
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(64) - 8;
+
+			if (random.nextBoolean()) {
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+
+			if (i % 1000 == 0) {
+				assertSameMappings(expected, map);
+			}
+		}
+
+		assertSameMappings(expected, map);
+	}
+
+	/**
+	 * Tests that removing from the middle of a probe sequence of an
+	 * {@link IntIntHashMap} which wraps around the end of the table keeps the
+	 * entries behind it reachable, including those mapped to zero.
+	 */
+	@Test
+	public void testPrimitiveRemoveAcrossWrappingProbeSequence() {
+		IntIntHashMap map = new IntIntHashMap();
+		Map<Integer, Integer> expected = new HashMap<>();
+
+		List<Integer> keys = keysWithHomeSlot(DEFAULT_CAPACITY - 2, DEFAULT_CAPACITY, 3);
+		keys.addAll(keysWithHomeSlot(DEFAULT_CAPACITY - 1, DEFAULT_CAPACITY, 2));
+
+		for (int i = 0; i < keys.size(); i++) {
+			assertTrue(map.put(keys.get(i), i));
+			expected.put(keys.get(i), i);
+		}
+
+		assertSameMappings(expected, map);
+
+		for (int key : keys) {
+			assertEquals(expected.remove(key).intValue(), map.removeOrDefault(key, -1));
+			assertFalse(map.containsKey(key));
+			assertSameMappings(expected, map);
+
+			assertTrue(map.put(key, -key));
+			assertFalse(map.put(key, key));
+			expected.put(key, key);
+			assertSameMappings(expected, map);
+
+			assertEquals(key, map.removeOrDefault(key, -1));
+			expected.remove(key);
+			assertSameMappings(expected, map);
+		}
+
+		assertTrue(map.isEmpty());
+		assertEquals(-1, map.removeOrDefault(keys.get(0), -1));
+	}
+
+	/**
+	 * Tests a long random sequence of operations on an {@link IntIntHashMap}
+	 * growing from the default capacity against {@link HashMap}.
+	 */
+	@Test
+	public void testPrimitiveRandomOperations() {
+		Random random = new Random(42);
+		IntIntHashMap map = new IntIntHashMap();
+		Map<Integer, Integer> expected = new HashMap<>();
+
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt((i < 100000) ? 64 : 4096) - 8;
+
+			if (random.nextInt(3) > 0) {
+				assertEquals(expected.put(key, i) == null, map.put(key, i));
+			} else {
+				Integer removed = expected.remove(key);
+				assertEquals((removed == null) ? -1 : removed.intValue(), map.removeOrDefault(key, -1));
+			}
+
+			if (i % 1000 == 0) {
+				assertSameMappings(expected, map);
+			}
+		}
+
+		assertSameMappings(expected, map);
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(0));
+	}
+
+	/**
+	 * Tests that concurrent writers to a {@link ConcurrentIntObjectHashMap}
+	 * lose no update.
+	 *
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testConcurrentMap() throws InterruptedException {
+		ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<>();
+		int numThreads = 8;
+		int numKeys = 20000;
+		Thread[] threads = new Thread[numThreads];
+
+		for (int t = 0; t < numThreads; t++) {
+			int first = t;
+			threads[t] = new Thread(() -> {
+				for (int key = first; key < numKeys; key += numThreads) {
+					map.put(key, key);
+				}
+
+				for (int key = first; key < numKeys; key += 2 * numThreads) {
+					map.remove(key);
+				}
+			});
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int key = 0; key < numKeys; key++) {
+			boolean removed = (key % (2 * numThreads)) < numThreads;
+			assertEquals(removed ? null : Integer.valueOf(key), map.get(key));
+		}
+	}
+}
@@ -2,11 +2,22 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -17,15 +28,23 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogLoader;
+import com.acertainbookstore.business.ChangeCapturingCertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StockChangeEvent;
+import com.acertainbookstore.business.StripedReadWriteLock;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.LockTimeoutException;
 
 /**
  * {@StockManagerTest} tests the {@link StockManager} interface.
@@ -476,6 +495,753 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that a store recovered from the write-ahead log of another store
+	 * has the same stock, including the sale misses of a failed purchase.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	@Test
+	public void testWriteAheadLogReplay() throws BookStoreException, IOException {
+		Path logDirectory = Files.createTempDirectory("bookstore");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store, logDirectory)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming",
+						"Donald Knuth", (float) 300, NUM_COPIES, 0, 0, 0, false));
+				durableStore.addBooks(booksToAdd);
+
+				Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+				booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+				durableStore.buyBooks(booksToBuy);
+
+				booksToBuy.clear();
+				booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+				try {
+					durableStore.buyBooks(booksToBuy);
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+				editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+				durableStore.updateEditorPicks(editorPicks);
+			}
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(recoveredStore, recoveredStore,
+					logDirectory)) {
+				Set<Integer> isbns = new HashSet<Integer>();
+				isbns.add(TEST_ISBN);
+				isbns.add(TEST_ISBN + 1);
+
+				List<StockBook> books = durableStore.getBooksByISBN(isbns);
+				assertEquals(2, books.size());
+
+				for (StockBook book : books) {
+					if (book.getISBN() == TEST_ISBN) {
+						assertEquals(NUM_COPIES - 2, book.getNumCopies());
+						assertFalse(book.isEditorPick());
+					} else {
+						assertEquals((int) NUM_COPIES, book.getNumCopies());
+						assertEquals(1, book.getNumSaleMisses());
+						assertTrue(book.isEditorPick());
+					}
+				}
+			}
+		} finally {
+			deleteDirectory(logDirectory);
+		}
+	}
+
+	/**
+	 * Tests that a failed checkpoint is exposed until a checkpoint succeeds,
+	 * while the mutations go on being logged.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	@Test
+	public void testCheckpointFailureIsReported() throws BookStoreException, IOException {
+		Path logDirectory = Files.createTempDirectory("bookstore");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store, logDirectory)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				durableStore.addBooks(booksToAdd);
+				assertNull(durableStore.getCheckpointFailure());
+
+				// The next log segment cannot be created.
+				deleteDirectory(logDirectory);
+
+				try {
+					durableStore.checkpoint();
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				assertNotNull(durableStore.getCheckpointFailure());
+
+				Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+				copiesToAdd.add(new BookCopy(TEST_ISBN, 1));
+
+				durableStore.addCopies(copiesToAdd);
+				assertEquals(NUM_COPIES + 1, durableStore.getBooks().get(0).getNumCopies());
+				assertNotNull(durableStore.getCheckpointFailure());
+
+				Files.createDirectories(logDirectory);
+				durableStore.checkpoint();
+				assertNull(durableStore.getCheckpointFailure());
+
+				durableStore.addCopies(copiesToAdd);
+				assertEquals(NUM_COPIES + 2, durableStore.getBooks().get(0).getNumCopies());
+			}
+
+			// The checkpoint holds the copies added while the previous one
+			// had failed.
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(recoveredStore, recoveredStore,
+					logDirectory)) {
+				assertEquals(NUM_COPIES + 2, durableStore.getBooks().get(0).getNumCopies());
+			}
+		} finally {
+			deleteDirectory(logDirectory);
+		}
+	}
+
+	/**
+	 * Tests that a durable store does not hold back a mutation of a book while
+	 * a mutation of another book is being applied, and that both are logged.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             if the log cannot be written
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testWriteAheadLogOrdersOnlyTheSameBooks() throws BookStoreException, IOException,
+			InterruptedException {
+		StripedReadWriteLock stripes = new StripedReadWriteLock();
+		int otherISBN = TEST_ISBN + 1;
+
+		while (stripes.getLock(otherISBN) == stripes.getLock(TEST_ISBN)) {
+			otherISBN++;
+		}
+
+		CountDownLatch applying = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		TwoLevelLockingConcurrentCertainBookStore wrappedStore = new TwoLevelLockingConcurrentCertainBookStore() {
+			@Override
+			public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+				if (bookCopiesSet.iterator().next().getISBN() == TEST_ISBN) {
+					applying.countDown();
+
+					try {
+						release.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				super.addCopies(bookCopiesSet);
+			}
+		};
+		Path logDirectory = Files.createTempDirectory("bookstore");
+
+		try {
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(wrappedStore, wrappedStore,
+					logDirectory)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				booksToAdd.add(new ImmutableStockBook(otherISBN, "Other title", "Other author", 10, NUM_COPIES, 0, 0,
+						0, false));
+				durableStore.addBooks(booksToAdd);
+
+				AtomicBoolean failed = new AtomicBoolean(false);
+				Thread blocked = new Thread(() -> {
+					try {
+						durableStore.addCopies(new HashSet<BookCopy>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+					} catch (BookStoreException ex) {
+						failed.set(true);
+					}
+				});
+				blocked.start();
+				applying.await();
+
+				int isbn = otherISBN;
+				CountDownLatch applied = new CountDownLatch(1);
+				Thread other = new Thread(() -> {
+					try {
+						durableStore.addCopies(new HashSet<BookCopy>(Arrays.asList(new BookCopy(isbn, 2))));
+						applied.countDown();
+					} catch (BookStoreException ex) {
+						failed.set(true);
+					}
+				});
+				other.start();
+
+				try {
+					// Would wait for the blocked mutation if all mutations
+					// were sequenced.
+					assertTrue(applied.await(10, TimeUnit.SECONDS));
+				} finally {
+					release.countDown();
+					blocked.join();
+					other.join();
+				}
+
+				assertFalse(failed.get());
+			}
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(recoveredStore, recoveredStore,
+					logDirectory)) {
+				assertEquals(NUM_COPIES + 1, durableStore.getBooksByISBN(new HashSet<Integer>(Arrays.asList(TEST_ISBN)))
+						.get(0).getNumCopies());
+				assertEquals(NUM_COPIES + 2, durableStore.getBooksByISBN(new HashSet<Integer>(Arrays.asList(otherISBN)))
+						.get(0).getNumCopies());
+			}
+		} finally {
+			deleteDirectory(logDirectory);
+		}
+	}
+
+	/**
+	 * Tests that a store recovered from a checkpoint and the log written
+	 * after it has the same stock, including a sold out book and the
+	 * ratings, and that the checkpoint superseded the older log segment.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             if the log or the checkpoint cannot be written
+	 */
+	@Test
+	public void testCheckpointRecovery() throws BookStoreException, IOException {
+		Path logDirectory = Files.createTempDirectory("bookstore");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store, logDirectory)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming",
+						"Donald Knuth", (float) 300, NUM_COPIES, 0, 0, 0, false));
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+						"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+				durableStore.addBooks(booksToAdd);
+
+				Set<BookRating> ratings = new HashSet<BookRating>();
+				ratings.add(new BookRating(TEST_ISBN + 1, 4));
+				durableStore.rateBooks(ratings);
+
+				durableStore.checkpoint();
+
+				Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+				booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+				durableStore.buyBooks(booksToBuy);
+
+				Set<Integer> isbnsToRemove = new HashSet<Integer>();
+				isbnsToRemove.add(TEST_ISBN + 2);
+				durableStore.removeBooks(isbnsToRemove);
+			}
+
+			try (Stream<Path> files = Files.list(logDirectory)) {
+				assertEquals(2, files.count());
+			}
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+
+			try (DurableCertainBookStore durableStore = new DurableCertainBookStore(recoveredStore, recoveredStore,
+					logDirectory)) {
+				List<StockBook> books = durableStore.getBooks();
+				assertEquals(2, books.size());
+
+				for (StockBook book : books) {
+					if (book.getISBN() == TEST_ISBN) {
+						assertEquals(0, book.getNumCopies());
+					} else {
+						assertEquals(TEST_ISBN + 1, book.getISBN());
+						assertEquals((int) NUM_COPIES, book.getNumCopies());
+						assertEquals(1, book.getNumTimesRated());
+						assertEquals(4, book.getTotalRating());
+					}
+				}
+			}
+		} finally {
+			deleteDirectory(logDirectory);
+		}
+	}
+
+	/**
+	 * Tests that a catalog read from a CSV file replaces the stock, including
+	 * quoted fields, the statistics of the books and a sold out book, and that
+	 * a catalog with a duplicated book leaves the stock unchanged.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             if the catalog cannot be written
+	 */
+	@Test
+	public void testLoadCatalog() throws BookStoreException, IOException {
+		Path catalogPath = Files.createTempFile("catalog", CatalogLoader.CSV_SUFFIX);
+
+		try {
+			TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			store.addBooks(booksToAdd);
+
+			Files.write(catalogPath, Arrays.asList("isbn,title,author,price,numCopies",
+					(TEST_ISBN + 1) + ",\"Structure and Interpretation of Computer Programs, 2nd Edition\","
+							+ "\"Abelson and Sussman\",42.5,3",
+					(TEST_ISBN + 2) + ",The C Programming Language,Dennis Ritchie,50,0,4,2,9,true"));
+			store.loadCatalog(CatalogLoader.read(catalogPath));
+
+			List<StockBook> books = store.getBooks();
+			assertEquals(2, books.size());
+
+			for (StockBook book : books) {
+				if (book.getISBN() == TEST_ISBN + 1) {
+					assertEquals("Structure and Interpretation of Computer Programs, 2nd Edition", book.getTitle());
+					assertEquals(3, book.getNumCopies());
+				} else {
+					assertEquals(TEST_ISBN + 2, book.getISBN());
+					assertEquals(0, book.getNumCopies());
+					assertEquals(4, book.getNumSaleMisses());
+					assertEquals(9, book.getTotalRating());
+					assertTrue(book.isEditorPick());
+				}
+			}
+
+			assertEquals(1, store.getEditorPicks(1).size());
+			assertEquals(1, store.getBooksInDemand().size());
+			assertEquals(TEST_ISBN + 2, store.searchBooks("ritchie", 10).get(0).getISBN());
+			assertEquals(TEST_ISBN + 1, store.getBooksByPriceRange(40, 45, 10).get(0).getISBN());
+
+			Files.write(catalogPath, Arrays.asList(TEST_ISBN + ",Title,Author,10,1", TEST_ISBN + ",Title,Author,10,1"));
+
+			try {
+				store.loadCatalog(CatalogLoader.read(catalogPath));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			assertEquals(2, store.getBooks().size());
+		} finally {
+			Files.deleteIfExists(catalogPath);
+		}
+	}
+
+	/**
+	 * Checks that a change capturing store publishes the changes of the
+	 * successful mutations in order, that a waiting consumer receives a later
+	 * change, and that a consumer that fell too far behind is told so.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testChangeCapture() throws BookStoreException, InterruptedException {
+		SingleLockConcurrentCertainBookStore wrappedStore = new SingleLockConcurrentCertainBookStore();
+		ChangeCapturingCertainBookStore store = new ChangeCapturingCertainBookStore(wrappedStore, wrappedStore, 8);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		store.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		store.buyBooks(booksToBuy);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		store.updateEditorPicks(editorPicks);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		store.rateBooks(ratings);
+
+		List<StockChangeEvent> changes = store.getChanges(0, 0);
+		assertEquals(4, changes.size());
+		assertEquals(StockChangeEvent.Type.BOOK_ADDED, changes.get(0).getType());
+		assertEquals(getDefaultBook(), changes.get(0).getBook());
+		assertEquals(StockChangeEvent.Type.COPIES_BOUGHT, changes.get(1).getType());
+		assertEquals(2, changes.get(1).getAmount());
+		assertEquals(StockChangeEvent.Type.EDITOR_PICK_CHANGED, changes.get(2).getType());
+		assertEquals(StockChangeEvent.Type.BOOK_RATED, changes.get(3).getType());
+
+		for (int i = 0; i < changes.size(); i++) {
+			assertEquals(i + 1, changes.get(i).getSequence());
+			assertEquals((int) TEST_ISBN, changes.get(i).getISBN());
+		}
+
+		assertTrue(store.getChanges(4, 0).isEmpty());
+
+		Thread remover = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+				store.removeAllBooks();
+			} catch (InterruptedException | BookStoreException ex) {
+				;
+			}
+		});
+		remover.start();
+
+		changes = store.getChanges(4, 10000);
+		remover.join();
+		assertEquals(1, changes.size());
+		assertEquals(StockChangeEvent.Type.ALL_BOOKS_REMOVED, changes.get(0).getType());
+
+		for (int i = 0; i < 8; i++) {
+			store.addBooks(booksToAdd);
+			store.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN)));
+		}
+
+		try {
+			store.getChanges(5, 0);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(8, store.getChanges(store.getLastSequence() - 8, 0).size());
+	}
+
+	/**
+	 * Checks that a change capturing store does not hold back a mutation of a
+	 * book while a mutation of another book is being applied, and publishes
+	 * the changes in the order in which they were made.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testChangeCaptureOrdersOnlyTheSameBooks() throws BookStoreException, InterruptedException {
+		StripedReadWriteLock stripes = new StripedReadWriteLock();
+		int otherISBN = TEST_ISBN + 1;
+
+		while (stripes.getLock(otherISBN) == stripes.getLock(TEST_ISBN)) {
+			otherISBN++;
+		}
+
+		CountDownLatch applying = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		TwoLevelLockingConcurrentCertainBookStore wrappedStore = new TwoLevelLockingConcurrentCertainBookStore() {
+			@Override
+			public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+				if (bookCopiesSet.iterator().next().getISBN() == TEST_ISBN) {
+					applying.countDown();
+
+					try {
+						release.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				super.addCopies(bookCopiesSet);
+			}
+		};
+		ChangeCapturingCertainBookStore store = new ChangeCapturingCertainBookStore(wrappedStore, wrappedStore);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(otherISBN, "Other title", "Other author", 10, NUM_COPIES, 0, 0, 0,
+				false));
+		store.addBooks(booksToAdd);
+
+		AtomicBoolean failed = new AtomicBoolean(false);
+		Thread blocked = new Thread(() -> {
+			try {
+				store.addCopies(new HashSet<BookCopy>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+			} catch (BookStoreException ex) {
+				failed.set(true);
+			}
+		});
+		blocked.start();
+		applying.await();
+
+		int isbn = otherISBN;
+		CountDownLatch applied = new CountDownLatch(1);
+		Thread other = new Thread(() -> {
+			try {
+				store.addCopies(new HashSet<BookCopy>(Arrays.asList(new BookCopy(isbn, 2))));
+				applied.countDown();
+			} catch (BookStoreException ex) {
+				failed.set(true);
+			}
+		});
+		other.start();
+
+		try {
+			// Would wait for the blocked mutation if all mutations were
+			// sequenced.
+			assertTrue(applied.await(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			blocked.join();
+			other.join();
+		}
+
+		assertFalse(failed.get());
+
+		List<StockChangeEvent> changes = store.getChanges(2, 0);
+		assertEquals(2, changes.size());
+		assertEquals(otherISBN, changes.get(0).getISBN());
+		assertEquals(2, changes.get(0).getAmount());
+		assertEquals((int) TEST_ISBN, changes.get(1).getISBN());
+		assertEquals(1, changes.get(1).getAmount());
+		assertEquals(NUM_COPIES + 1, store.getBooksByISBN(new HashSet<Integer>(Arrays.asList(TEST_ISBN))).get(0)
+				.getNumCopies());
+	}
+
+	/**
+	 * Tests that locking books held by another thread fails with a
+	 * {@link LockTimeoutException} once the timeout elapses, and leaves no
+	 * lock held.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testLockTimeout() throws BookStoreException, InterruptedException {
+		StripedReadWriteLock bookLocks = new StripedReadWriteLock();
+		ReentrantLock globalLock = new ReentrantLock();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+
+		Thread holder = new Thread(() -> {
+			bookLocks.getLock(TEST_ISBN).writeLock().lock();
+			try {
+				locked.countDown();
+				done.await();
+			} catch (InterruptedException ex) {
+				;
+			} finally {
+				bookLocks.getLock(TEST_ISBN).writeLock().unlock();
+			}
+		});
+		holder.start();
+		locked.await();
+
+		long startMillis = System.currentTimeMillis();
+
+		try {
+			bookLocks.tryLockAll(globalLock, Arrays.asList(TEST_ISBN + 1, TEST_ISBN), true, 100);
+			fail();
+		} catch (LockTimeoutException ex) {
+			;
+		}
+
+		assertTrue(System.currentTimeMillis() - startMillis >= 100);
+		assertFalse(globalLock.isLocked());
+		assertFalse(((ReentrantReadWriteLock) bookLocks.getLock(TEST_ISBN + 1)).isWriteLockedByCurrentThread());
+
+		done.countDown();
+		holder.join();
+
+		List<Lock> locks = bookLocks.tryLockAll(globalLock, Arrays.asList(TEST_ISBN + 1, TEST_ISBN), true, 100);
+		assertTrue(globalLock.isHeldByCurrentThread());
+		StripedReadWriteLock.unlockAll(locks);
+		assertFalse(globalLock.isLocked());
+	}
+
+	/**
+	 * Tests that the mutations of the two-level locking store which only take
+	 * its global lock, including combined purchases and the purchases and
+	 * ratings of striped counters, fail with a {@link LockTimeoutException}
+	 * while another mutation holds the lock past the timeout, and change
+	 * nothing.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test
+	public void testGlobalLockTimeout() throws BookStoreException, InterruptedException {
+		for (boolean combinePurchases : new boolean[] { true, false }) {
+			TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(
+					combinePurchases, !combinePurchases);
+			store.setLockTimeoutMillis(100);
+			store.addBooks(new HashSet<StockBook>(Arrays.asList(getDefaultBook())));
+
+			CountDownLatch locked = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(1);
+			StockBook defaultBook = getDefaultBook();
+			StockBook book = new ImmutableStockBook(TEST_ISBN + 1, "Slow title", "Slow author", 10, NUM_COPIES, 0, 0,
+					0, false);
+			StockBook slowBook = new StockBook() {
+				@Override
+				public String getTitle() {
+					// Read by the validation of addBooks, under the global lock,
+					// which is released in any case so that a mutation waiting
+					// without a bound fails the test instead of hanging it.
+					locked.countDown();
+
+					try {
+						done.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+
+					return book.getTitle();
+				}
+
+				@Override
+				public int getISBN() {
+					return book.getISBN();
+				}
+
+				@Override
+				public String getAuthor() {
+					return book.getAuthor();
+				}
+
+				@Override
+				public float getPrice() {
+					return book.getPrice();
+				}
+
+				@Override
+				public long getTotalRating() {
+					return book.getTotalRating();
+				}
+
+				@Override
+				public long getNumTimesRated() {
+					return book.getNumTimesRated();
+				}
+
+				@Override
+				public int getNumCopies() {
+					return book.getNumCopies();
+				}
+
+				@Override
+				public long getNumSaleMisses() {
+					return book.getNumSaleMisses();
+				}
+
+				@Override
+				public float getAverageRating() {
+					return book.getAverageRating();
+				}
+
+				@Override
+				public boolean isEditorPick() {
+					return book.isEditorPick();
+				}
+			};
+
+			Thread holder = new Thread(() -> {
+				try {
+					store.addBooks(new HashSet<StockBook>(Arrays.asList(slowBook)));
+				} catch (BookStoreException ex) {
+					;
+				}
+			});
+			holder.start();
+			locked.await();
+
+			List<Callable<Void>> mutations = Arrays.asList(() -> {
+				store.buyBooks(new HashSet<BookCopy>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+				return null;
+			}, () -> {
+				store.rateBooks(new HashSet<BookRating>(Arrays.asList(new BookRating(TEST_ISBN, 5))));
+				return null;
+			}, () -> {
+				store.removeAllBooks();
+				return null;
+			}, () -> {
+				store.loadCatalog(Arrays.asList(defaultBook));
+				return null;
+			});
+
+			try {
+				for (Callable<Void> mutation : mutations) {
+					try {
+						mutation.call();
+						fail();
+					} catch (LockTimeoutException ex) {
+						;
+					}
+				}
+			} catch (Exception ex) {
+				throw new AssertionError(ex);
+			} finally {
+				done.countDown();
+				holder.join();
+			}
+
+			List<StockBook> books = store.getBooks();
+			assertEquals(2, books.size());
+
+			for (StockBook bookInStock : books) {
+				assertEquals((int) NUM_COPIES, bookInStock.getNumCopies());
+				assertEquals(0, bookInStock.getNumTimesRated());
+			}
+		}
+	}
+
+	/**
+	 * Deletes a directory and the files in it.
+	 *
+	 * @param directory
+	 *            the directory
+	 * @throws IOException
+	 *             if a file cannot be deleted
+	 */
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+
+		Files.delete(directory);
+	}
+
 	/**
 	 * Tear down after class.
 	 *
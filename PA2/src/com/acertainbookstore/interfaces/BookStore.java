@@ -67,4 +67,66 @@ public interface BookStore {
 	 *             the book store exception
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Searches the books whose title and author contain all the words of a
+	 * query, ignoring case, and returns up to numBooks of them.
+	 *
+	 * @param query
+	 *            the query
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the matching books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException;
+
+	/**
+	 * Completes a prefix with up to numSuggestions titles and authors starting
+	 * with it, ignoring case and punctuation, those of the most books first.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @param numSuggestions
+	 *            the maximum number of suggestions
+	 * @return the titles and authors, normalized to lower-case words
+	 *         separated by single spaces
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<String> autocomplete(String prefix, int numSuggestions) throws BookStoreException;
+
+	/**
+	 * Returns up to numBooks books whose price is between minPrice and
+	 * maxPrice, both included, cheapest first. Books of the same price are
+	 * ordered by ISBN.
+	 *
+	 * @param minPrice
+	 *            the lowest price
+	 * @param maxPrice
+	 *            the highest price
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books, none if maxPrice is below minPrice
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int numBooks) throws BookStoreException;
+
+	/**
+	 * Returns up to numBooks books whose ISBN is between fromISBN and toISBN,
+	 * both included, in ascending ISBN order.
+	 *
+	 * @param fromISBN
+	 *            the lowest ISBN
+	 * @param toISBN
+	 *            the highest ISBN
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books, none if toISBN is below fromISBN
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksByISBNRange(int fromISBN, int toISBN, int numBooks) throws BookStoreException;
 }
@@ -0,0 +1,30 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+
+import com.acertainbookstore.business.CatalogLoader;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BulkLoader} declares the method implemented by the stores which can
+ * replace their whole stock with a catalog at once, e.g., a catalog read by
+ * {@link CatalogLoader} when the server starts.
+ */
+public interface BulkLoader {
+
+	/**
+	 * Replaces the stock with the books of a catalog. The books are validated
+	 * and the structures of the store are built from them before the store is
+	 * locked, and then swapped in atomically. Unlike
+	 * {@link StockManager#addBooks(java.util.Set)}, sold out books are
+	 * accepted, since a catalog is a snapshot of a stock.
+	 *
+	 * @param books
+	 *            the books of the catalog
+	 * @throws BookStoreException
+	 *             if a book is invalid or duplicated, in which case the stock
+	 *             is unchanged
+	 */
+	public void loadCatalog(List<StockBook> books) throws BookStoreException;
+}
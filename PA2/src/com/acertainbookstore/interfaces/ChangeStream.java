@@ -0,0 +1,45 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+
+import com.acertainbookstore.business.StockChangeEvent;
+import com.acertainbookstore.business.StockSnapshot;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ChangeStream} declares the method implemented by the stores which
+ * publish the changes of their stock as an ordered stream of
+ * {@link StockChangeEvent} instances, numbered by a sequence starting at one.
+ * A consumer which needs the whole stock, e.g., a replica, starts from a
+ * {@link StockSnapshot} and follows the changes after it.
+ */
+public interface ChangeStream {
+
+	/**
+	 * Gets the change events published after <code>afterSequence</code>, in
+	 * order. If there are none yet, waits up to <code>waitMillis</code>
+	 * milliseconds for one. A consumer starts at sequence zero and then passes
+	 * the sequence of the last event it received.
+	 *
+	 * @param afterSequence
+	 *            the sequence of the last event already received
+	 * @param waitMillis
+	 *            the maximum time to wait in milliseconds, or zero
+	 * @return the events, possibly fewer than were published, or none if the
+	 *         time elapsed
+	 * @throws BookStoreException
+	 *             if some of the events are no longer kept, in which case the
+	 *             consumer has to read the whole stock again
+	 */
+	public List<StockChangeEvent> getChanges(long afterSequence, long waitMillis) throws BookStoreException;
+
+	/**
+	 * Gets a snapshot of the stock, consistent with the sequence of the last
+	 * change it reflects.
+	 *
+	 * @return the snapshot
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public StockSnapshot getSnapshot() throws BookStoreException;
+}
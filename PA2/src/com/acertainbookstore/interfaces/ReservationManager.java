@@ -0,0 +1,53 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReservationManager} declares the methods to hold copies of books
+ * for a customer before buying them. A reservation takes the copies out of
+ * the stock at once, all or nothing like <code>buyBooks</code>, so that the
+ * purchase which commits it cannot fail for lack of copies. A reservation
+ * which is neither committed nor released within its time to live expires,
+ * and its copies return to the stock.
+ */
+public interface ReservationManager {
+
+	/**
+	 * Reserves copies of books for ttlMillis milliseconds.
+	 *
+	 * @param bookCopiesToReserve
+	 *            the copies to reserve
+	 * @param ttlMillis
+	 *            the time to live of the reservation in milliseconds
+	 * @return the identifier of the reservation
+	 * @throws BookStoreException
+	 *             if a book is not in stock or has too few copies, in which
+	 *             case nothing is reserved
+	 */
+	public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException;
+
+	/**
+	 * Buys the copies held by a reservation.
+	 *
+	 * @param reservationId
+	 *            the identifier of the reservation
+	 * @throws BookStoreException
+	 *             if the reservation is unknown, already committed or
+	 *             released, or expired
+	 */
+	public void commitReservation(long reservationId) throws BookStoreException;
+
+	/**
+	 * Returns the copies held by a reservation to the stock.
+	 *
+	 * @param reservationId
+	 *            the identifier of the reservation
+	 * @throws BookStoreException
+	 *             if the reservation is unknown, already committed or
+	 *             released, or expired
+	 */
+	public void releaseReservation(long reservationId) throws BookStoreException;
+}
@@ -0,0 +1,28 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StockReturner} declares the method implemented by the stores which
+ * can take back copies taken out of their stock by
+ * {@link BookStore#buyBooks(Set)}, e.g., the copies of a reservation which
+ * is released or expires.
+ */
+public interface StockReturner {
+
+	/**
+	 * Returns copies of books to the stock, all or nothing. Unlike
+	 * {@link StockManager#addCopies(Set)}, which stands for new copies
+	 * meeting the demand, the sale misses of the books are left untouched.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies to return
+	 * @throws BookStoreException
+	 *             if a book is not in stock or a number of copies is
+	 *             invalid, in which case nothing is returned
+	 */
+	public void returnCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException;
+}
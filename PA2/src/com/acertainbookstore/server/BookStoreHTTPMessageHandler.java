@@ -3,6 +3,7 @@ package com.acertainbookstore.server;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -14,10 +15,13 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.ChangeStream;
+import com.acertainbookstore.interfaces.ReservationManager;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -44,6 +48,9 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The stock manager. */
 	private StockManager stockManager = null;
 
+	/** The reservation manager, or null if the server holds no reservations. */
+	private ReservationManager reservationManager = null;
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
@@ -54,8 +61,25 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *            the book store
 	 */
 	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
+		this(bookStore, stockManager, null);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} holding
+	 * reservations.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param reservationManager
+	 *            the reservation manager, or null
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager,
+			ReservationManager reservationManager) {
 		this.bookStore = bookStore;
 		this.stockManager = stockManager;
+		this.reservationManager = reservationManager;
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -122,6 +146,22 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				buyBooks(request, response);
 				break;
 
+			case RESERVEBOOKS:
+				reserveBooks(request, response);
+				break;
+
+			case COMMITRESERVATION:
+				commitReservation(request, response);
+				break;
+
+			case RELEASERESERVATION:
+				releaseReservation(request, response);
+				break;
+
+			case RATEBOOKS:
+				rateBooks(request, response);
+				break;
+
 			case GETBOOKS:
 				getBooks(request, response);
 				break;
@@ -130,10 +170,42 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				getEditorPicks(request, response);
 				break;
 
+			case GETTOPRATEDBOOKS:
+				getTopRatedBooks(request, response);
+				break;
+
+			case SEARCHBOOKS:
+				searchBooks(request, response);
+				break;
+
+			case AUTOCOMPLETE:
+				autocomplete(request, response);
+				break;
+
+			case GETBOOKSBYPRICERANGE:
+				getBooksByPriceRange(request, response);
+				break;
+
+			case GETBOOKSBYISBNRANGE:
+				getBooksByISBNRange(request, response);
+				break;
+
 			case GETSTOCKBOOKSBYISBN:
 				getStockBooksByISBN(request, response);
 				break;
 
+			case GETBOOKSINDEMAND:
+				getBooksInDemand(response);
+				break;
+
+			case GETCHANGES:
+				getChanges(request, response);
+				break;
+
+			case GETSNAPSHOT:
+				getSnapshot(response);
+				break;
+
 			default:
 				System.err.println("Unsupported message tag.");
 				break;
@@ -144,6 +216,64 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		baseRequest.setHandled(true);
 	}
 
+	/**
+	 * Gets the change events after a sequence, waiting for some if there are
+	 * none yet, if the stock manager publishes its changes.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getChanges(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String sequenceString = URLDecoder.decode(request.getParameter(BookStoreConstants.SEQUENCE_PARAM), StandardCharsets.UTF_8);
+		String waitMillisString = URLDecoder.decode(request.getParameter(BookStoreConstants.WAIT_MILLIS_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (!(stockManager instanceof ChangeStream)) {
+				throw new BookStoreException(BookStoreConstants.CHANGES_UNSUPPORTED);
+			}
+
+			long afterSequence = BookStoreUtility.convertStringToLong(sequenceString);
+			long waitMillis = BookStoreUtility.convertStringToLong(waitMillisString);
+			bookStoreResponse.setList(((ChangeStream) stockManager).getChanges(afterSequence, waitMillis));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets a snapshot of the stock, as the only element of the list of the
+	 * response, if the stock manager publishes its changes.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getSnapshot(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (!(stockManager instanceof ChangeStream)) {
+				throw new BookStoreException(BookStoreConstants.CHANGES_UNSUPPORTED);
+			}
+
+			bookStoreResponse.setList(Collections.singletonList(((ChangeStream) stockManager).getSnapshot()));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Gets the stock books by ISBN.
 	 *
@@ -196,6 +326,143 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getTopRatedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(bookStore.getTopRatedBooks(numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Searches the books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void searchBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String query = URLDecoder.decode(request.getParameter(BookStoreConstants.QUERY_PARAM), StandardCharsets.UTF_8);
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(bookStore.searchBooks(query, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Completes a prefix with titles and authors.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void autocomplete(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String prefix = URLDecoder.decode(request.getParameter(BookStoreConstants.PREFIX_PARAM), StandardCharsets.UTF_8);
+		String numSuggestionsString = URLDecoder
+				.decode(request.getParameter(BookStoreConstants.SUGGESTION_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numSuggestions = BookStoreUtility.convertStringToInt(numSuggestionsString);
+			bookStoreResponse.setList(bookStore.autocomplete(prefix, numSuggestions));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in a price range.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksByPriceRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String minPriceString = URLDecoder.decode(request.getParameter(BookStoreConstants.MIN_PRICE_PARAM), StandardCharsets.UTF_8);
+		String maxPriceString = URLDecoder.decode(request.getParameter(BookStoreConstants.MAX_PRICE_PARAM), StandardCharsets.UTF_8);
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			// A malformed price gives NaN, which bounds an empty range.
+			float minPrice = BookStoreUtility.convertStringToFloat(minPriceString, Float.NaN);
+			float maxPrice = BookStoreUtility.convertStringToFloat(maxPriceString, Float.NaN);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(bookStore.getBooksByPriceRange(minPrice, maxPrice, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in an ISBN range.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksByISBNRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String fromISBNString = URLDecoder.decode(request.getParameter(BookStoreConstants.FROM_ISBN_PARAM), StandardCharsets.UTF_8);
+		String toISBNString = URLDecoder.decode(request.getParameter(BookStoreConstants.TO_ISBN_PARAM), StandardCharsets.UTF_8);
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int fromISBN = BookStoreUtility.convertStringToInt(fromISBNString);
+			int toISBN = BookStoreUtility.convertStringToInt(toISBNString);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(bookStore.getBooksByISBNRange(fromISBN, toISBN, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Gets the books.
 	 *
@@ -250,6 +517,128 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Reserves books, and returns the identifier of the reservation as the
+	 * only element of the list of the response.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void reserveBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+		String ttlMillisString = URLDecoder.decode(request.getParameter(BookStoreConstants.TTL_MILLIS_PARAM), StandardCharsets.UTF_8);
+
+		Set<BookCopy> bookCopiesToReserve = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (reservationManager == null) {
+				throw new BookStoreException(BookStoreConstants.RESERVATIONS_UNSUPPORTED);
+			}
+
+			long ttlMillis = BookStoreUtility.convertStringToLong(ttlMillisString);
+			long reservationId = reservationManager.reserveBooks(bookCopiesToReserve, ttlMillis);
+			bookStoreResponse.setList(Collections.singletonList(reservationId));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Commits a reservation.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void commitReservation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Long reservationId = (Long) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (reservationManager == null) {
+				throw new BookStoreException(BookStoreConstants.RESERVATIONS_UNSUPPORTED);
+			}
+
+			reservationManager.commitReservation(reservationId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Releases a reservation.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void releaseReservation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Long reservationId = (Long) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (reservationManager == null) {
+				throw new BookStoreException(BookStoreConstants.RESERVATIONS_UNSUPPORTED);
+			}
+
+			reservationManager.releaseReservation(reservationId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Rates books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Set<BookRating> bookRatings = (Set<BookRating>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStore.rateBooks(bookRatings);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Updates editor picks.
 	 *
@@ -278,6 +667,26 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInDemand(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		try {
+			bookStoreResponse.setList(stockManager.getBooksInDemand());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Lists the books.
 	 *
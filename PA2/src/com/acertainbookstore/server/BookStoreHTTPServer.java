@@ -1,10 +1,30 @@
 package com.acertainbookstore.server;
 
+import java.nio.file.Paths;
+
+import com.acertainbookstore.business.ChangeCapturingCertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.IntentionLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.LockFreeConcurrentCertainBookStore;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.CatalogLoader;
+import com.acertainbookstore.business.CertainReservationManager;
+import com.acertainbookstore.business.ColumnarConcurrentCertainBookStore;
+import com.acertainbookstore.business.OffHeapConcurrentCertainBookStore;
+import com.acertainbookstore.business.PartitionedConcurrentCertainBookStore;
+import com.acertainbookstore.business.ReplicaCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BulkLoader;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockReturner;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -16,6 +36,9 @@ public class BookStoreHTTPServer {
 	private static final int DEFAULT_PORT = 8081;
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
+
+	/** The default delay between checkpoints of a durable store. */
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60 * 1000;
 	
 	/** The constant, defining which locking scheme implementation to use
 	 *  true - single lock 
@@ -29,6 +52,124 @@ public class BookStoreHTTPServer {
 		// Prevent instances from being created.
 	}
 
+	/**
+	 * Creates the handler serving the store. If a primary is configured, the
+	 * store becomes a read-only {@link ReplicaCertainBookStore} of the
+	 * primary, which must publish its changes, serving the reads of the
+	 * {@link BookStore} only, and nothing else is configured.
+	 * Otherwise, if a write-ahead log is configured, the store is wrapped in a
+	 * {@link DurableCertainBookStore}, which recovers the stock from its
+	 * checkpoint and log before the handler is returned, so that the server
+	 * only accepts requests once the stock has been recovered. If
+	 * change capture is configured, the store is then wrapped in a
+	 * {@link ChangeCapturingCertainBookStore} publishing the changes made from
+	 * then on. If a catalog is configured, it then replaces the stock. The
+	 * handler holds reservations on the store if it can take back copies and
+	 * no write-ahead log is configured.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @return the handler
+	 */
+	private static BookStoreHTTPMessageHandler createHandler(BookStore bookStore, StockManager stockManager) {
+		String primaryProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_PRIMARY);
+
+		if (primaryProperty != null) {
+			try {
+				ReplicaCertainBookStore replica = new ReplicaCertainBookStore(
+						new StockManagerHTTPProxy(primaryProperty + "/stock"), bookStore, stockManager);
+				return new BookStoreHTTPMessageHandler(replica, replica);
+			} catch (Exception ex) {
+				throw new IllegalStateException("Cannot replicate the primary " + primaryProperty, ex);
+			}
+		}
+
+		String walProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL);
+
+		if (walProperty != null) {
+			long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+			String checkpointIntervalString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL);
+
+			if (checkpointIntervalString != null) {
+				try {
+					checkpointIntervalMillis = Long.parseLong(checkpointIntervalString);
+				} catch (NumberFormatException ex) {
+					System.err.println("Unsupported checkpoint interval " + checkpointIntervalString);
+				}
+			}
+
+			try {
+				DurableCertainBookStore durableStore = new DurableCertainBookStore(bookStore, stockManager,
+						Paths.get(walProperty), checkpointIntervalMillis);
+				bookStore = durableStore;
+				stockManager = durableStore;
+			} catch (BookStoreException ex) {
+				throw new IllegalStateException("Cannot recover the stock from " + walProperty, ex);
+			}
+		}
+
+		String changeCaptureProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHANGE_CAPTURE);
+
+		if (changeCaptureProperty != null) {
+			int capacity = ChangeCapturingCertainBookStore.DEFAULT_CAPACITY;
+
+			try {
+				capacity = Integer.parseInt(changeCaptureProperty);
+			} catch (NumberFormatException ex) {
+				System.err.println("Unsupported change capture capacity " + changeCaptureProperty);
+			}
+
+			ChangeCapturingCertainBookStore capturingStore = new ChangeCapturingCertainBookStore(bookStore,
+					stockManager, capacity);
+			bookStore = capturingStore;
+			stockManager = capturingStore;
+		}
+
+		String catalogProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_CATALOG);
+
+		if (catalogProperty != null) {
+			if (!(stockManager instanceof BulkLoader)) {
+				throw new IllegalStateException(BookStoreConstants.BULK_LOAD_UNSUPPORTED);
+			}
+
+			try {
+				((BulkLoader) stockManager).loadCatalog(CatalogLoader.read(Paths.get(catalogProperty)));
+			} catch (BookStoreException ex) {
+				throw new IllegalStateException("Cannot load the catalog " + catalogProperty, ex);
+			}
+		}
+
+		// Reservations are only held in memory, so a logged store would
+		// replay them as purchases after a restart.
+		if (walProperty != null || !(stockManager instanceof StockReturner)) {
+			return new BookStoreHTTPMessageHandler(bookStore, stockManager);
+		}
+
+		return new BookStoreHTTPMessageHandler(bookStore, stockManager,
+				new CertainReservationManager(bookStore, (StockReturner) stockManager));
+	}
+
+	/**
+	 * Sets the time the two-level locking store waits for the locks of an
+	 * operation, if it is configured.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 */
+	private static void configureLockTimeout(TwoLevelLockingConcurrentCertainBookStore bookStore) {
+		String lockTimeoutString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_TIMEOUT);
+
+		if (lockTimeoutString != null) {
+			try {
+				bookStore.setLockTimeoutMillis(Long.parseLong(lockTimeoutString));
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Unsupported lock timeout " + lockTimeoutString);
+			}
+		}
+	}
+
 	/**
 	 * The main method.
 	 *
@@ -39,15 +180,47 @@ public class BookStoreHTTPServer {
 		int listenOnPort = DEFAULT_PORT;
 		
 		BookStoreHTTPMessageHandler handler = null;
+		String storeProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE);
 		
-		if (SINGLE_LOCK) {
+		if (BookStoreConstants.STORE_INTENTION_LOCK.equals(storeProperty)) {
+			IntentionLockingConcurrentCertainBookStore bookStore = new IntentionLockingConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_LOCK_FREE.equals(storeProperty)) {
+			LockFreeConcurrentCertainBookStore bookStore = new LockFreeConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_STAMPED_LOCK.equals(storeProperty)) {
+			StampedLockConcurrentCertainBookStore bookStore = new StampedLockConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_MULTI_VERSION.equals(storeProperty)) {
+			MultiVersionConcurrentCertainBookStore bookStore = new MultiVersionConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_COLUMNAR.equals(storeProperty)) {
+			ColumnarConcurrentCertainBookStore bookStore = new ColumnarConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_OFF_HEAP.equals(storeProperty)) {
+			OffHeapConcurrentCertainBookStore bookStore = new OffHeapConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_COMBINING.equals(storeProperty)) {
+			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore(true);
+			configureLockTimeout(bookStore);
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_STRIPED_COUNTERS.equals(storeProperty)) {
+			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore(false,
+					true);
+			configureLockTimeout(bookStore);
+			handler = createHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_PARTITIONED.equals(storeProperty)) {
+			PartitionedConcurrentCertainBookStore bookStore = new PartitionedConcurrentCertainBookStore();
+			handler = createHandler(bookStore, bookStore);
+		} else if (SINGLE_LOCK) {
                 SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
 			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
 			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			handler = createHandler(bookStore, bookStore);
 		} else {
 			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			configureLockTimeout(bookStore);
+			handler = createHandler(bookStore, bookStore);
 		}		
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
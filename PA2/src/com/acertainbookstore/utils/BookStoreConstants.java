@@ -19,6 +19,36 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant QUERY_PARAM. */
+	public static final String QUERY_PARAM = "query";
+
+	/** The Constant PREFIX_PARAM. */
+	public static final String PREFIX_PARAM = "prefix";
+
+	/** The Constant SUGGESTION_NUM_PARAM. */
+	public static final String SUGGESTION_NUM_PARAM = "number_of_suggestions";
+
+	/** The Constant MIN_PRICE_PARAM. */
+	public static final String MIN_PRICE_PARAM = "min_price";
+
+	/** The Constant MAX_PRICE_PARAM. */
+	public static final String MAX_PRICE_PARAM = "max_price";
+
+	/** The Constant FROM_ISBN_PARAM. */
+	public static final String FROM_ISBN_PARAM = "from_ISBN";
+
+	/** The Constant TO_ISBN_PARAM. */
+	public static final String TO_ISBN_PARAM = "to_ISBN";
+
+	/** The Constant TTL_MILLIS_PARAM. */
+	public static final String TTL_MILLIS_PARAM = "ttl_millis";
+
+	/** The Constant SEQUENCE_PARAM. */
+	public static final String SEQUENCE_PARAM = "after_sequence";
+
+	/** The Constant WAIT_MILLIS_PARAM. */
+	public static final String WAIT_MILLIS_PARAM = "wait_millis";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -51,15 +81,156 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant RESERVATION. */
+	public static final String RESERVATION = "The reservation: ";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
+	/** The Constant LOG_FAILED when an operation cannot be logged. */
+	public static final String LOG_FAILED = "The write-ahead log failed";
+
+	/** The Constant CATALOG_ENTRY locating a line of a CSV catalog. */
+	public static final String CATALOG_ENTRY = "The catalog entry at byte ";
+
+	/** The Constant CATALOG_UNREADABLE when a catalog file cannot be read. */
+	public static final String CATALOG_UNREADABLE = "The catalog cannot be read: ";
+
+	/**
+	 * The Constant BULK_LOAD_UNSUPPORTED when a store cannot load a catalog
+	 * at once.
+	 */
+	public static final String BULK_LOAD_UNSUPPORTED = "The store cannot bulk load a catalog";
+
+	/**
+	 * The Constant RETURNS_UNSUPPORTED when a store cannot take back copies
+	 * bought.
+	 */
+	public static final String RETURNS_UNSUPPORTED = "The store cannot take back copies";
+
+	/**
+	 * The Constant CHANGES_LOST when change events a consumer asks for are no
+	 * longer kept.
+	 */
+	public static final String CHANGES_LOST = "The change events are no longer kept after sequence ";
+
+	/**
+	 * The Constant CHANGES_UNSUPPORTED when a store does not publish its
+	 * changes.
+	 */
+	public static final String CHANGES_UNSUPPORTED = "The store does not publish its changes";
+
+	/**
+	 * The Constant READ_ONLY_REPLICA when a mutation is sent to a replica
+	 * instead of the primary.
+	 */
+	public static final String READ_ONLY_REPLICA = "The replica is read-only; send changes to the primary";
+
+	/**
+	 * The Constant REPLICA_STOCK_UNAVAILABLE when the stock is read from a
+	 * replica, which only serves the reads of the book store.
+	 */
+	public static final String REPLICA_STOCK_UNAVAILABLE = "The replica does not serve the stock; ask the primary";
+
+	/**
+	 * The Constant RESERVATIONS_UNSUPPORTED when a server does not hold
+	 * reservations.
+	 */
+	public static final String RESERVATIONS_UNSUPPORTED = "The server does not hold reservations";
+
+	/**
+	 * The Constant LOCK_TIMEOUT when an operation cannot acquire its locks
+	 * before its deadline.
+	 */
+	public static final String LOCK_TIMEOUT = "The locks were not acquired within ";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/**
+	 * The Constant PROPERTY_KEY_STORE selects a store implementation by name,
+	 * overriding {@link #PROPERTY_KEY_SINGLE_LOCK}.
+	 */
+	public static final String PROPERTY_KEY_STORE = "store";
+
+	/** The Constant STORE_INTENTION_LOCK selects the intention locking store. */
+	public static final String STORE_INTENTION_LOCK = "intentionlock";
+
+	/** The Constant STORE_LOCK_FREE selects the lock-free store. */
+	public static final String STORE_LOCK_FREE = "lockfree";
+
+	/** The Constant STORE_STAMPED_LOCK selects the optimistic StampedLock store. */
+	public static final String STORE_STAMPED_LOCK = "stampedlock";
+
+	/** The Constant STORE_MULTI_VERSION selects the multi-version store. */
+	public static final String STORE_MULTI_VERSION = "mvcc";
+
+	/** The Constant STORE_COLUMNAR selects the columnar store. */
+	public static final String STORE_COLUMNAR = "columnar";
+
+	/** The Constant STORE_OFF_HEAP selects the off-heap store. */
+	public static final String STORE_OFF_HEAP = "offheap";
+
+	/**
+	 * The Constant STORE_COMBINING selects the two-level locking store with
+	 * flat-combined purchases.
+	 */
+	public static final String STORE_COMBINING = "combining";
+
+	/** The Constant STORE_PARTITIONED selects the partitioned store. */
+	public static final String STORE_PARTITIONED = "partitioned";
+
+	/**
+	 * The Constant STORE_STRIPED_COUNTERS selects the two-level locking store
+	 * with the statistics of the books in striped counters.
+	 */
+	public static final String STORE_STRIPED_COUNTERS = "stripedcounters";
+
+	/**
+	 * The Constant PROPERTY_KEY_WAL gives the directory of the write-ahead log
+	 * and checkpoints of the server; without it, the stock is not durable.
+	 */
+	public static final String PROPERTY_KEY_WAL = "wal";
+
+	/**
+	 * The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL gives the delay between
+	 * checkpoints in milliseconds; zero disables them.
+	 */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/**
+	 * The Constant PROPERTY_KEY_CATALOG gives a catalog file replacing the
+	 * stock of the server on startup.
+	 */
+	public static final String PROPERTY_KEY_CATALOG = "catalog";
+
+	/**
+	 * The Constant PROPERTY_KEY_CHANGE_CAPTURE gives the number of change
+	 * events kept for the consumers of the change stream, which is only
+	 * published if it is set. Mutations of the same books are then applied
+	 * one at a time so that their events are in order, and removing all
+	 * books, loading a catalog or taking a snapshot waits for every other
+	 * mutation.
+	 */
+	public static final String PROPERTY_KEY_CHANGE_CAPTURE = "changecapture";
+
+	/**
+	 * The Constant PROPERTY_KEY_PRIMARY gives the address of the primary
+	 * server, which makes the server a read-only replica following the change
+	 * stream of the primary.
+	 */
+	public static final String PROPERTY_KEY_PRIMARY = "primary";
+
+	/**
+	 * The Constant PROPERTY_KEY_LOCK_TIMEOUT gives the time in milliseconds
+	 * an operation of the two-level locking store waits for its locks before
+	 * failing.
+	 */
+	public static final String PROPERTY_KEY_LOCK_TIMEOUT = "locktimeout";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
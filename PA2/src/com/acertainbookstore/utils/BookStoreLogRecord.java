@@ -0,0 +1,71 @@
+package com.acertainbookstore.utils;
+
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link BookStoreLogRecord} is the data structure that encapsulates the
+ * changes of a mutating operation of the bookstore in its
+ * {@link WriteAheadLog}. A record holds the state of the books after the
+ * operation rather than the operation itself: the catalog is first cleared if
+ * the operation removed all books, then the removed books are dropped and
+ * the changed books are replaced by their new state. Applying a record is
+ * therefore idempotent, so a checkpoint taken while operations run can be
+ * brought up to date by replaying every record logged since it started.
+ */
+public final class BookStoreLogRecord {
+
+	/** Whether all books were removed. */
+	private final boolean cleared;
+
+	/** The ISBNs of the removed books. */
+	private final Set<Integer> removedISBNs;
+
+	/** The state of the changed books after the operation. */
+	private final List<StockBook> changedBooks;
+
+	/**
+	 * Instantiates a new {@link BookStoreLogRecord}.
+	 *
+	 * @param cleared
+	 *            whether all books were removed
+	 * @param removedISBNs
+	 *            the ISBNs of the removed books
+	 * @param changedBooks
+	 *            the state of the changed books after the operation
+	 */
+	public BookStoreLogRecord(boolean cleared, Set<Integer> removedISBNs, List<StockBook> changedBooks) {
+		this.cleared = cleared;
+		this.removedISBNs = removedISBNs;
+		this.changedBooks = changedBooks;
+	}
+
+	/**
+	 * Checks whether all books were removed.
+	 *
+	 * @return true, if all books were removed
+	 */
+	public boolean isCleared() {
+		return cleared;
+	}
+
+	/**
+	 * Gets the ISBNs of the removed books.
+	 *
+	 * @return the ISBNs
+	 */
+	public Set<Integer> getRemovedISBNs() {
+		return removedISBNs;
+	}
+
+	/**
+	 * Gets the state of the changed books after the operation.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getChangedBooks() {
+		return changedBooks;
+	}
+}
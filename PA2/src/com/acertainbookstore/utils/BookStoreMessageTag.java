@@ -21,12 +21,30 @@ public enum BookStoreMessageTag {
 	/** The tag for the buy books message. */
 	BUYBOOKS,
 
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
 	/** The tag for the update editor picks message. */
 	UPDATEEDITORPICKS,
 
 	/** The tag for the editor picks message. */
 	GETEDITORPICKS,
 
+	/** The tag for the top rated books message. */
+	GETTOPRATEDBOOKS,
+
+	/** The tag for the search books message. */
+	SEARCHBOOKS,
+
+	/** The tag for the autocomplete message. */
+	AUTOCOMPLETE,
+
+	/** The tag for the books by price range message. */
+	GETBOOKSBYPRICERANGE,
+
+	/** The tag for the books by ISBN range message. */
+	GETBOOKSBYISBNRANGE,
+
 	/** The tag for the remove all books message. */
 	REMOVEALLBOOKS,
 
@@ -34,5 +52,23 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the books in demand message. */
+	GETBOOKSINDEMAND,
+
+	/** The tag for the get changes message. */
+	GETCHANGES,
+
+	/** The tag for the get snapshot message. */
+	GETSNAPSHOT,
+
+	/** The tag for the reserve books message. */
+	RESERVEBOOKS,
+
+	/** The tag for the commit reservation message. */
+	COMMITRESERVATION,
+
+	/** The tag for the release reservation message. */
+	RELEASERESERVATION;
 }
@@ -128,6 +128,28 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
+	/**
+	 * Converts a string to a long integer if possible else it throws an
+	 * exception.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the long integer
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static long convertStringToLong(String str) throws BookStoreException {
+		long returnValue = 0;
+
+		try {
+			returnValue = Long.parseLong(str);
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+
+		return returnValue;
+	}
+
 	/**
 	 * Convert a request URI to the message tags supported in CertainBookStore.
 	 *
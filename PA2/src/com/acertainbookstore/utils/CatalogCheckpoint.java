@@ -0,0 +1,345 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link CatalogCheckpoint} is a snapshot of the whole catalog, i.e., every
+ * field of every book, stored in a compact binary file together with the log
+ * segment from which the write-ahead log has to be replayed on top of it.
+ *
+ * <p>
+ * The file is written and read through memory-mapped windows of the file, so
+ * that neither direction copies the catalog through intermediate streams. It
+ * is laid out as a header (magic number, format version, log segment and
+ * number of books), the books, and a CRC32 checksum of everything before it.
+ * A book is its ISBN, price, number of copies, number of sale misses, number
+ * of times rated, total rating and editor pick flag, followed by its title
+ * and author as length-prefixed UTF-8. {@link #write(Path, long, Collection)}
+ * writes to a temporary file which is forced and then atomically renamed, so
+ * a checkpoint file is either complete or absent.
+ */
+public final class CatalogCheckpoint {
+
+	/** The magic number starting every checkpoint. */
+	private static final int MAGIC = 0x42534350;
+
+	/** The version of the format. */
+	private static final int VERSION = 1;
+
+	/** The size of the header. */
+	private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+	/** The size of the fixed-size fields of a book. */
+	private static final int FIXED_BOOK_SIZE = Integer.BYTES + Float.BYTES + Integer.BYTES + 3 * Long.BYTES + 1
+			+ 2 * Integer.BYTES;
+
+	/** The size of the memory-mapped windows. */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/** The log segment from which the log is replayed on top of the books. */
+	private final long segment;
+
+	/** The books. */
+	private final List<StockBook> books;
+
+	/**
+	 * Instantiates a new {@link CatalogCheckpoint}.
+	 *
+	 * @param segment
+	 *            the log segment from which the log is replayed
+	 * @param books
+	 *            the books
+	 */
+	private CatalogCheckpoint(long segment, List<StockBook> books) {
+		this.segment = segment;
+		this.books = books;
+	}
+
+	/**
+	 * Gets the log segment from which the log is replayed on top of the
+	 * books.
+	 *
+	 * @return the log segment
+	 */
+	public long getSegment() {
+		return segment;
+	}
+
+	/**
+	 * Gets the books.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * {@link MappedCursor} moves through a file in memory-mapped windows.
+	 */
+	private static final class MappedCursor {
+
+		/** The channel of the file. */
+		private final FileChannel channel;
+
+		/** The mode of the mappings. */
+		private final FileChannel.MapMode mode;
+
+		/** The size of the file. */
+		private final long size;
+
+		/** The checksum of the bytes the cursor moved past. */
+		private final CRC32 checksum = new CRC32();
+
+		/** The position of the current window in the file. */
+		private long windowStart = 0;
+
+		/** The current window. */
+		private MappedByteBuffer window = null;
+
+		/**
+		 * Instantiates a new {@link MappedCursor} at the start of the file.
+		 *
+		 * @param channel
+		 *            the channel of the file
+		 * @param mode
+		 *            the mode of the mappings
+		 * @param size
+		 *            the size of the file
+		 */
+		private MappedCursor(FileChannel channel, FileChannel.MapMode mode, long size) {
+			this.channel = channel;
+			this.mode = mode;
+			this.size = size;
+		}
+
+		/**
+		 * Gets a window with at least <code>length</code> bytes remaining,
+		 * mapping the next window if needed.
+		 *
+		 * @param length
+		 *            the number of bytes needed
+		 * @return the window
+		 * @throws IOException
+		 *             if the file ends first or cannot be mapped
+		 */
+		private ByteBuffer need(int length) throws IOException {
+			if (window != null && window.remaining() >= length) {
+				return window;
+			}
+
+			long position = windowStart;
+
+			if (window != null) {
+				position += window.position();
+				finishWindow();
+			}
+
+			if (position + length > size) {
+				throw new IOException("Truncated checkpoint at position " + position);
+			}
+
+			windowStart = position;
+			window = channel.map(mode, position, Math.min(size - position, Math.max(WINDOW_SIZE, length)));
+			return window;
+		}
+
+		/**
+		 * Adds the bytes moved past in the current window to the checksum, and
+		 * forces them if the window is writable.
+		 */
+		private void finishWindow() {
+			ByteBuffer done = window.duplicate();
+			((Buffer) done).flip();
+			checksum.update(done);
+
+			if (mode == FileChannel.MapMode.READ_WRITE) {
+				window.force();
+			}
+		}
+
+		/**
+		 * Gets the checksum of all bytes moved past.
+		 *
+		 * @return the checksum
+		 */
+		private int checksum() {
+			if (window != null) {
+				finishWindow();
+				windowStart += window.position();
+				window = null;
+			}
+
+			return (int) checksum.getValue();
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of <code>books</code> to <code>path</code>.
+	 *
+	 * @param path
+	 *            the path of the checkpoint
+	 * @param segment
+	 *            the log segment from which the log is replayed on top of the
+	 *            books
+	 * @param books
+	 *            the books
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 */
+	public static void write(Path path, long segment, Collection<? extends StockBook> books) throws IOException {
+		long size = HEADER_SIZE + Integer.BYTES;
+
+		for (StockBook book : books) {
+			size += FIXED_BOOK_SIZE + utf8Length(book.getTitle()) + utf8Length(book.getAuthor());
+		}
+
+		Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedCursor cursor = new MappedCursor(channel, FileChannel.MapMode.READ_WRITE, size - Integer.BYTES);
+
+			cursor.need(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(segment).putInt(books.size());
+
+			for (StockBook book : books) {
+				byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+				byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+
+				cursor.need(FIXED_BOOK_SIZE + title.length + author.length)
+						.putInt(book.getISBN())
+						.putFloat(book.getPrice())
+						.putInt(book.getNumCopies())
+						.putLong(book.getNumSaleMisses())
+						.putLong(book.getNumTimesRated())
+						.putLong(book.getTotalRating())
+						.put((byte) (book.isEditorPick() ? 1 : 0))
+						.putInt(title.length).put(title)
+						.putInt(author.length).put(author);
+			}
+
+			int checksum = cursor.checksum();
+			ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES).putInt(checksum);
+			((Buffer) trailer).flip();
+
+			while (trailer.hasRemaining()) {
+				channel.write(trailer, size - Integer.BYTES + trailer.position());
+			}
+
+			channel.force(true);
+		}
+
+		Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the checkpoint stored in <code>path</code>.
+	 *
+	 * @param path
+	 *            the path of the checkpoint
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             if the checkpoint cannot be read or is corrupt
+	 */
+	public static CatalogCheckpoint read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size < HEADER_SIZE + Integer.BYTES) {
+				throw new IOException("Truncated checkpoint " + path);
+			}
+
+			MappedCursor cursor = new MappedCursor(channel, FileChannel.MapMode.READ_ONLY, size - Integer.BYTES);
+			ByteBuffer header = cursor.need(HEADER_SIZE);
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a checkpoint " + path);
+			}
+
+			long segment = header.getLong();
+			int numBooks = header.getInt();
+			List<StockBook> books = new ArrayList<>(numBooks);
+
+			for (int i = 0; i < numBooks; i++) {
+				ByteBuffer buffer = cursor.need(FIXED_BOOK_SIZE - 2 * Integer.BYTES);
+				int isbn = buffer.getInt();
+				float price = buffer.getFloat();
+				int numCopies = buffer.getInt();
+				long numSaleMisses = buffer.getLong();
+				long numTimesRated = buffer.getLong();
+				long totalRating = buffer.getLong();
+				boolean editorPick = buffer.get() != 0;
+				String title = readString(cursor);
+				String author = readString(cursor);
+
+				books.add(new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+						totalRating, editorPick));
+			}
+
+			int checksum = cursor.checksum();
+			ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+
+			while (trailer.hasRemaining()) {
+				if (channel.read(trailer, size - Integer.BYTES + trailer.position()) < 0) {
+					throw new IOException("Truncated checkpoint " + path);
+				}
+			}
+
+			((Buffer) trailer).flip();
+
+			if (trailer.getInt() != checksum) {
+				throw new IOException("Corrupt checkpoint " + path);
+			}
+
+			return new CatalogCheckpoint(segment, books);
+		}
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.
+	 *
+	 * @param cursor
+	 *            the cursor
+	 * @return the string
+	 * @throws IOException
+	 *             if the file ends first
+	 */
+	private static String readString(MappedCursor cursor) throws IOException {
+		int length = cursor.need(Integer.BYTES).getInt();
+
+		if (length < 0) {
+			throw new IOException("Corrupt checkpoint string length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		cursor.need(length).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the length of a string encoded in UTF-8.
+	 *
+	 * @param string
+	 *            the string
+	 * @return the length in bytes
+	 */
+	private static int utf8Length(String string) {
+		return string.getBytes(StandardCharsets.UTF_8).length;
+	}
+}
@@ -0,0 +1,275 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+/**
+ * {@link ConcurrentIntObjectHashMap} is a thread-safe variant of
+ * {@link IntObjectHashMap}. The keys are spread over a fixed, power-of-two
+ * number of segments, each an {@link IntObjectHashMap} guarded by its own
+ * {@link StampedLock}. Writers to different segments do not contend, and
+ * lookups run as optimistic reads which only fall back to the read lock if a
+ * writer modified the segment meanwhile.
+ *
+ * <p>
+ * Like {@link java.util.concurrent.ConcurrentHashMap}, whole-map operations
+ * such as {@link #values()} and {@link #clear()} are consistent per segment
+ * only.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class ConcurrentIntObjectHashMap<V> {
+
+	/** The number of segments per available processor. */
+	private static final int SEGMENTS_PER_PROCESSOR = 4;
+
+	/** The segment maps. */
+	private final IntObjectHashMap<V>[] segments;
+
+	/** The segment locks. */
+	private final StampedLock[] locks;
+
+	/** The mask selecting a segment. */
+	private final int mask;
+
+	/**
+	 * Instantiates a new {@link ConcurrentIntObjectHashMap} with a number of
+	 * segments derived from the available processors.
+	 */
+	public ConcurrentIntObjectHashMap() {
+		this(0);
+	}
+
+	/**
+	 * Instantiates a new {@link ConcurrentIntObjectHashMap} which can hold
+	 * <code>expectedSize</code> entries without resizing.
+	 *
+	 * @param expectedSize
+	 *            the expected size
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ConcurrentIntObjectHashMap(int expectedSize) {
+		int numSegments = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * SEGMENTS_PER_PROCESSOR);
+		segments = new IntObjectHashMap[numSegments];
+		locks = new StampedLock[numSegments];
+		mask = numSegments - 1;
+
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new IntObjectHashMap<>(expectedSize / numSegments);
+			locks[i] = new StampedLock();
+		}
+	}
+
+	/**
+	 * Gets the segment of a key. Uses the high bits of the hash, since the
+	 * segment maps use the low ones.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the segment index
+	 */
+	private int segmentOf(int key) {
+		return ((key * 0x85EBCA6B) >>> 16) & mask;
+	}
+
+	/**
+	 * Gets the value mapped to <code>key</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there is none
+	 */
+	public V get(int key) {
+		int segment = segmentOf(key);
+		StampedLock lock = locks[segment];
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0L) {
+			try {
+				V value = segments[segment].get(key);
+
+				if (lock.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException ex) {
+				// Observed the segment mid-update; retry under the read lock.
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return segments[segment].get(key);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Checks if <code>key</code> is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value, or null if there was none
+	 */
+	public V put(int key, V value) {
+		int segment = segmentOf(key);
+		long stamp = locks[segment].writeLock();
+		try {
+			return segments[segment].put(key, value);
+		} finally {
+			locks[segment].unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code> unless it is already mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the current value, or null if <code>value</code> was added
+	 */
+	public V putIfAbsent(int key, V value) {
+		int segment = segmentOf(key);
+		long stamp = locks[segment].writeLock();
+		try {
+			return segments[segment].putIfAbsent(key, value);
+		} finally {
+			locks[segment].unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Gets the value mapped to <code>key</code>, atomically computing and
+	 * adding it if there is none.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mappingFunction
+	 *            the function computing a missing value
+	 * @return the value
+	 */
+	public V computeIfAbsent(int key, IntFunction<V> mappingFunction) {
+		V current = get(key);
+
+		if (current != null) {
+			return current;
+		}
+
+		int segment = segmentOf(key);
+		long stamp = locks[segment].writeLock();
+		try {
+			return segments[segment].computeIfAbsent(key, mappingFunction);
+		} finally {
+			locks[segment].unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the mapping of <code>key</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if there was none
+	 */
+	public V remove(int key) {
+		int segment = segmentOf(key);
+		long stamp = locks[segment].writeLock();
+		try {
+			return segments[segment].remove(key);
+		} finally {
+			locks[segment].unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the mapping of <code>key</code> if it is mapped to
+	 * <code>value</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the expected value
+	 * @return true, if the mapping was removed
+	 */
+	public boolean remove(int key, V value) {
+		int segment = segmentOf(key);
+		long stamp = locks[segment].writeLock();
+		try {
+			return segments[segment].remove(key, value);
+		} finally {
+			locks[segment].unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		int size = 0;
+
+		for (int i = 0; i < segments.length; i++) {
+			long stamp = locks[i].readLock();
+			try {
+				size += segments[i].size();
+			} finally {
+				locks[i].unlockRead(stamp);
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Removes all mappings.
+	 */
+	public void clear() {
+		for (int i = 0; i < segments.length; i++) {
+			long stamp = locks[i].writeLock();
+			try {
+				segments[i].clear();
+			} finally {
+				locks[i].unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Returns the values as a new list.
+	 *
+	 * @return the values
+	 */
+	public List<V> values() {
+		List<V> result = new ArrayList<>();
+
+		for (int i = 0; i < segments.length; i++) {
+			long stamp = locks[i].readLock();
+			try {
+				result.addAll(segments[i].values());
+			} finally {
+				locks[i].unlockRead(stamp);
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,289 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntIntHashMap} is a hash map from primitive <code>int</code> keys to
+ * primitive <code>int</code> values, the primitive-valued sibling of
+ * {@link IntObjectHashMap}. It uses open addressing with linear probing over
+ * parallel arrays, so neither the keys nor the values are boxed, and removal
+ * shifts the following entries back instead of leaving tombstones.
+ *
+ * <p>
+ * The map is not thread safe.
+ */
+public class IntIntHashMap {
+
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The maximum capacity. */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/** The keys. */
+	private int[] keys;
+
+	/** The values. */
+	private int[] values;
+
+	/** Whether a slot holds an entry. */
+	private boolean[] used;
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/** The number of entries which triggers a resize. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new {@link IntIntHashMap} of the default capacity.
+	 */
+	public IntIntHashMap() {
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link IntIntHashMap} which can hold
+	 * <code>expectedSize</code> entries without resizing.
+	 *
+	 * @param expectedSize
+	 *            the expected size
+	 */
+	public IntIntHashMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the table capacity needed for <code>expectedSize</code> entries.
+	 *
+	 * @param expectedSize
+	 *            the expected size
+	 * @return the capacity, a power of two
+	 */
+	private static int capacityFor(int expectedSize) {
+		long needed = Math.max(DEFAULT_CAPACITY, (long) expectedSize * 3 / 2 + 1);
+
+		if (needed > MAX_CAPACITY) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + " is too large");
+		}
+
+		int capacity = Integer.highestOneBit((int) needed);
+		return (capacity < needed) ? capacity << 1 : capacity;
+	}
+
+	/**
+	 * Allocates empty tables of the given capacity.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		threshold = capacity / 3 * 2;
+	}
+
+	/**
+	 * Gets the home slot of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mask
+	 *            the table mask
+	 * @return the slot
+	 */
+	private static int slotOf(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot holding <code>key</code>, or the free slot ending its
+	 * probe sequence.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot
+	 */
+	private int find(int key) {
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+
+		while (used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value mapped to <code>key</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param defaultValue
+	 *            the value returned if there is none
+	 * @return the value, or <code>defaultValue</code> if there is none
+	 */
+	public int getOrDefault(int key, int defaultValue) {
+		int slot = find(key);
+		return used[slot] ? values[slot] : defaultValue;
+	}
+
+	/**
+	 * Checks if <code>key</code> is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return used[find(key)];
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return true, if the key was not mapped before
+	 */
+	public boolean put(int key, int value) {
+		int slot = find(key);
+		values[slot] = value;
+
+		if (used[slot]) {
+			return false;
+		}
+
+		keys[slot] = key;
+		used[slot] = true;
+
+		if (++size > threshold) {
+			resize(keys.length << 1);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes the mapping of <code>key</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param defaultValue
+	 *            the value returned if there is none
+	 * @return the removed value, or <code>defaultValue</code> if there was
+	 *         none
+	 */
+	public int removeOrDefault(int key, int defaultValue) {
+		int slot = find(key);
+
+		if (!used[slot]) {
+			return defaultValue;
+		}
+
+		int previous = values[slot];
+
+		// Shift back the entries of the probe sequence behind the hole, so
+		// that lookups never stop early at it.
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+
+		while (used[next]) {
+			int home = slotOf(keys[next], mask);
+
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		used[hole] = false;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all mappings, keeping the current capacity.
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/**
+	 * Returns the keys as a new array.
+	 *
+	 * @return the keys
+	 */
+	public int[] keys() {
+		int[] result = new int[size];
+		int n = 0;
+
+		for (int i = 0; i < used.length; i++) {
+			if (used[i]) {
+				result[n++] = keys[i];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Rehashes all entries into tables of a new capacity.
+	 *
+	 * @param capacity
+	 *            the new capacity
+	 */
+	private void resize(int capacity) {
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalStateException("Map capacity exceeded");
+		}
+
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldUsed.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slotOf(oldKeys[i], mask);
+
+				while (used[slot]) {
+					slot = (slot + 1) & mask;
+				}
+
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				used[slot] = true;
+			}
+		}
+	}
+}
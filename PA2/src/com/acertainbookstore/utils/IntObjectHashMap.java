@@ -0,0 +1,374 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * {@link IntObjectHashMap} is a hash map from primitive <code>int</code> keys
+ * to non-null values, using open addressing with linear probing. Keys and
+ * values live in two parallel arrays, so there is no boxing on lookup and no
+ * node object per entry. Removal shifts the following entries back instead of
+ * leaving tombstones, which keeps probe sequences short under churn.
+ *
+ * <p>
+ * The map is not thread safe; see {@link ConcurrentIntObjectHashMap} for a
+ * concurrent variant.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class IntObjectHashMap<V> {
+
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The maximum capacity. */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/** The keys; a slot is free iff its value is null. */
+	private int[] keys;
+
+	/** The values. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/** The number of entries which triggers a resize. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new {@link IntObjectHashMap}.
+	 */
+	public IntObjectHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link IntObjectHashMap} which can hold
+	 * <code>expectedSize</code> entries without resizing.
+	 *
+	 * @param expectedSize
+	 *            the expected size
+	 */
+	public IntObjectHashMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the table capacity needed for <code>expectedSize</code> entries.
+	 *
+	 * @param expectedSize
+	 *            the expected size
+	 * @return the capacity, a power of two
+	 */
+	private static int capacityFor(int expectedSize) {
+		long needed = Math.max(DEFAULT_CAPACITY, (long) expectedSize * 3 / 2 + 1);
+
+		if (needed > MAX_CAPACITY) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + " is too large");
+		}
+
+		int capacity = Integer.highestOneBit((int) needed);
+		return (capacity < needed) ? capacity << 1 : capacity;
+	}
+
+	/**
+	 * Allocates empty tables of the given capacity.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		threshold = capacity / 3 * 2;
+	}
+
+	/**
+	 * Gets the home slot of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mask
+	 *            the table mask
+	 * @return the slot
+	 */
+	private static int slotOf(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot holding <code>key</code>, or the free slot ending its
+	 * probe sequence.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot
+	 */
+	private int find(int key) {
+		int[] k = keys;
+		Object[] v = values;
+		int mask = k.length - 1;
+		int slot = slotOf(key, mask);
+
+		// The probe count is bounded so that a reader racing with a resize
+		// in ConcurrentIntObjectHashMap cannot spin forever.
+		for (int probes = 0; probes <= mask; probes++) {
+			if (v[slot] == null || k[slot] == key) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value mapped to <code>key</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int slot = find(key);
+		return (slot < 0) ? null : (V) values[slot];
+	}
+
+	/**
+	 * Checks if <code>key</code> is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("null values are not supported");
+		}
+
+		int slot = find(key);
+		V previous = (V) values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (previous == null && ++size > threshold) {
+			resize(keys.length << 1);
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code> unless it is already mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the current value, or null if <code>value</code> was added
+	 */
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(int key, V value) {
+		V current = (V) values[find(key)];
+		return (current != null) ? current : put(key, value);
+	}
+
+	/**
+	 * Gets the value mapped to <code>key</code>, computing and adding it if
+	 * there is none.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mappingFunction
+	 *            the function computing a missing value
+	 * @return the value
+	 */
+	public V computeIfAbsent(int key, IntFunction<V> mappingFunction) {
+		V current = get(key);
+
+		if (current == null) {
+			current = mappingFunction.apply(key);
+			put(key, current);
+		}
+
+		return current;
+	}
+
+	/**
+	 * Removes the mapping of <code>key</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = find(key);
+		V previous = (V) values[slot];
+
+		if (previous == null) {
+			return null;
+		}
+
+		// Shift back the entries of the probe sequence behind the hole, so
+		// that lookups never stop early at it.
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+
+		while (values[next] != null) {
+			int home = slotOf(keys[next], mask);
+
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		values[hole] = null;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes the mapping of <code>key</code> if it is mapped to
+	 * <code>value</code>.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the expected value
+	 * @return true, if the mapping was removed
+	 */
+	public boolean remove(int key, V value) {
+		if (value == null || get(key) != value) {
+			return false;
+		}
+
+		remove(key);
+		return true;
+	}
+
+	/**
+	 * Removes all mappings, keeping the current capacity.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Returns the values as a new list.
+	 *
+	 * @return the values
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> result = new ArrayList<>(size);
+		Object[] v = values;
+
+		for (int i = 0; i < v.length; i++) {
+			if (v[i] != null) {
+				result.add((V) v[i]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the keys as a new array.
+	 *
+	 * @return the keys
+	 */
+	public int[] keys() {
+		int[] result = new int[size];
+		int n = 0;
+
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result[n++] = keys[i];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Rehashes all entries into tables of a new capacity. The new tables are
+	 * filled completely before they replace the old ones.
+	 *
+	 * @param capacity
+	 *            the new capacity
+	 */
+	private void resize(int capacity) {
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalStateException("Map capacity exceeded");
+		}
+
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		int[] newKeys = new int[capacity];
+		Object[] newValues = new Object[capacity];
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotOf(oldKeys[i], mask);
+
+				while (newValues[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+
+				newKeys[slot] = oldKeys[i];
+				newValues[slot] = oldValues[i];
+			}
+		}
+
+		keys = newKeys;
+		values = newValues;
+		threshold = capacity / 3 * 2;
+	}
+}
@@ -0,0 +1,23 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link LockTimeoutException} signals that an operation could not acquire
+ * the locks it needs before its deadline, so it was not applied. Unlike the
+ * other {@link BookStoreException} instances, it does not mean the request
+ * is wrong, and the caller may retry it.
+ */
+public class LockTimeoutException extends BookStoreException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Instantiates a new {@link LockTimeoutException}.
+	 *
+	 * @param timeoutMillis
+	 *            the time the operation waited for its locks in milliseconds
+	 */
+	public LockTimeoutException(long timeoutMillis) {
+		super(BookStoreConstants.LOCK_TIMEOUT + timeoutMillis + " ms");
+	}
+}
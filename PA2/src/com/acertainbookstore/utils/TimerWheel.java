@@ -0,0 +1,240 @@
+package com.acertainbookstore.utils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link TimerWheel} runs tasks after a delay, with the precision of a tick,
+ * on a single background thread. It is a hashed timing wheel: the timeouts
+ * are kept in a ring of buckets, one per tick, and the timeout due at tick
+ * <code>t</code> is in bucket <code>t</code> modulo the number of buckets.
+ * Every tick the thread visits one bucket and runs the timeouts due, so
+ * scheduling and cancelling cost constant time however many timeouts are
+ * pending, unlike a priority queue.
+ *
+ * <p>
+ * The buckets are only touched by the thread of the wheel. New timeouts are
+ * handed to it through a lock-free queue, and a cancelled timeout is only
+ * marked as such and dropped when the thread next visits its bucket.
+ * Cancelling and running a timeout race on its state, so a task either runs
+ * or is cancelled, never both. A task which throws is reported to the
+ * uncaught exception handler of the thread of the wheel.
+ */
+public class TimerWheel implements Closeable {
+
+	/**
+	 * {@link Timeout} is a task scheduled on the wheel.
+	 */
+	public static final class Timeout {
+
+		/** The state of a timeout waiting to run. */
+		private static final int PENDING = 0;
+
+		/** The state of a cancelled timeout. */
+		private static final int CANCELLED = 1;
+
+		/** The state of a timeout which ran. */
+		private static final int EXPIRED = 2;
+
+		/** The task. */
+		private final Runnable task;
+
+		/** The time the task is due, in {@link System#nanoTime()} units. */
+		private final long deadlineNanos;
+
+		/** The tick the task is due, set by the thread of the wheel. */
+		private long deadlineTick;
+
+		/** The state. */
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+
+		/**
+		 * Instantiates a new {@link Timeout}.
+		 *
+		 * @param task
+		 *            the task
+		 * @param deadlineNanos
+		 *            the time the task is due
+		 */
+		private Timeout(Runnable task, long deadlineNanos) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		/**
+		 * Cancels the task, unless it already ran.
+		 *
+		 * @return true if the task will not run, false if it ran or is running
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(PENDING, CANCELLED) || state.get() == CANCELLED;
+		}
+
+		/**
+		 * Runs the task, unless it was cancelled.
+		 */
+		private void expire() {
+			if (state.compareAndSet(PENDING, EXPIRED)) {
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					// Reported as if it had ended the thread, which keeps
+					// turning for the other timeouts.
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+				}
+			}
+		}
+	}
+
+	/** The duration of a tick in nanoseconds. */
+	private final long tickNanos;
+
+	/** The buckets; the timeouts due at tick t are in bucket t & {@link #mask}. */
+	private final List<List<Timeout>> buckets;
+
+	/** The mask of the bucket index, i.e., the number of buckets minus one. */
+	private final int mask;
+
+	/** The timeouts scheduled since the last tick. */
+	private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+	/** The time the wheel started, in {@link System#nanoTime()} units. */
+	private final long startNanos;
+
+	/** The thread turning the wheel. */
+	private final Thread worker;
+
+	/** Whether the wheel is closed. */
+	private volatile boolean closed = false;
+
+	/**
+	 * Instantiates a new {@link TimerWheel} and starts its thread.
+	 *
+	 * @param tickMillis
+	 *            the duration of a tick in milliseconds
+	 * @param minBuckets
+	 *            the minimum number of buckets, rounded up to a power of two;
+	 *            delays longer than that many ticks take several turns
+	 * @param threadName
+	 *            the name of the thread of the wheel
+	 */
+	public TimerWheel(long tickMillis, int minBuckets, String threadName) {
+		if (tickMillis < 1 || minBuckets < 1 || minBuckets > (1 << 30)) {
+			throw new IllegalArgumentException("tickMillis = " + tickMillis + ", minBuckets = " + minBuckets);
+		}
+
+		int numBuckets = Integer.highestOneBit(Math.max(2, minBuckets) - 1) << 1;
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		buckets = new ArrayList<>(numBuckets);
+		mask = numBuckets - 1;
+
+		for (int i = 0; i < numBuckets; i++) {
+			buckets.add(new ArrayList<>());
+		}
+
+		startNanos = System.nanoTime();
+		worker = new Thread(this::turn, threadName);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Schedules a task to run after a delay. The task runs on the thread of
+	 * the wheel, so it must be short. Delays too long for the clock, of
+	 * centuries, are cut to the longest it can measure.
+	 *
+	 * @param task
+	 *            the task
+	 * @param delayMillis
+	 *            the delay in milliseconds
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		long now = System.nanoTime();
+		long maxDelayNanos = Long.MAX_VALUE - tickNanos - (now - startNanos);
+		long delayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)), maxDelayNanos);
+		Timeout timeout = new Timeout(task, now + delayNanos);
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Turns the wheel a tick at a time until it is closed.
+	 */
+	private void turn() {
+		long tick = 0;
+
+		while (!closed) {
+			long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+
+			tick++;
+			placeScheduled(tick);
+			expire(tick);
+		}
+	}
+
+	/**
+	 * Moves the timeouts scheduled since the last tick into their buckets;
+	 * those already due go into the bucket of the current tick.
+	 *
+	 * @param tick
+	 *            the current tick
+	 */
+	private void placeScheduled(long tick) {
+		Timeout timeout;
+
+		while ((timeout = scheduled.poll()) != null) {
+			long elapsedNanos = timeout.deadlineNanos - startNanos;
+			timeout.deadlineTick = Math.max(tick, (elapsedNanos + tickNanos - 1) / tickNanos);
+			buckets.get((int) (timeout.deadlineTick & mask)).add(timeout);
+		}
+	}
+
+	/**
+	 * Runs the timeouts of the bucket of a tick which are due, and drops the
+	 * cancelled ones; the others are due in a later turn.
+	 *
+	 * @param tick
+	 *            the current tick
+	 */
+	private void expire(long tick) {
+		List<Timeout> bucket = buckets.get((int) (tick & mask));
+		int kept = 0;
+
+		for (int i = 0; i < bucket.size(); i++) {
+			Timeout timeout = bucket.get(i);
+
+			if (timeout.deadlineTick <= tick) {
+				timeout.expire();
+			} else if (timeout.state.get() == Timeout.PENDING) {
+				bucket.set(kept++, timeout);
+			}
+		}
+
+		bucket.subList(kept, bucket.size()).clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		worker.interrupt();
+	}
+}
@@ -0,0 +1,329 @@
+package com.acertainbookstore.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * {@link WriteAheadLog} is an append-only log of records stored in a file.
+ * Each record is framed by its length and a CRC32 checksum of its contents,
+ * so that a record torn by a crash in the middle of a write is detected and
+ * dropped on recovery.
+ *
+ * <p>
+ * Appending and making durable are separate steps. {@link #append(byte[])}
+ * only buffers a record in memory and returns its sequence number, and
+ * {@link #awaitDurable(long)} returns once the record has been forced to the
+ * disk. The first waiter finding no force in progress becomes the leader:
+ * it writes everything appended so far and forces the file once, while the
+ * records appended in the meantime pile up for the next leader. Concurrent
+ * committers therefore share a single {@link FileChannel#force(boolean)}
+ * (group commit) instead of forcing the file one after the other.
+ */
+public class WriteAheadLog implements Closeable {
+
+	/** The size of the frame header: the length and the checksum. */
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	/** The initial capacity of the buffer of appended records. */
+	private static final int INITIAL_BUFFER_CAPACITY = 64 * 1024;
+
+	/** The channel of the log file. */
+	private final FileChannel channel;
+
+	/** The records read from the file when it was opened. */
+	private final List<byte[]> recoveredRecords;
+
+	/** The lock guarding the state below. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled whenever a force completes. */
+	private final Condition forced = lock.newCondition();
+
+	/** The records appended since the last force was started. */
+	private ByteBuffer appended = ByteBuffer.allocate(INITIAL_BUFFER_CAPACITY);
+
+	/** The spare buffer, swapped with {@link #appended} by the leader. */
+	private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_CAPACITY);
+
+	/** The sequence number of the last appended record. */
+	private long appendedSequence = 0;
+
+	/** The sequence number of the last durable record. */
+	private long durableSequence = 0;
+
+	/** Whether a leader is writing and forcing the file. */
+	private boolean forcing = false;
+
+	/** The number of forces, exposed for monitoring. */
+	private long numForces = 0;
+
+	/** The failure of a write or force; once set, the log is unusable. */
+	private IOException failure = null;
+
+	/**
+	 * Opens the log stored in <code>path</code>, creating the file if needed.
+	 * The records already in the file are read back, and a torn record at
+	 * its end is truncated away so that new records are appended after the
+	 * last complete one.
+	 *
+	 * @param path
+	 *            the path of the log file
+	 * @throws IOException
+	 *             if the file cannot be opened or read
+	 */
+	public WriteAheadLog(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			recoveredRecords = new ArrayList<>();
+			long end = recover(recoveredRecords);
+			channel.truncate(end);
+			channel.position(end);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reads the complete records of the file.
+	 *
+	 * @param records
+	 *            the list the records are added to
+	 * @return the position after the last complete record
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private long recover(List<byte[]> records) throws IOException {
+		long size = channel.size();
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 checksum = new CRC32();
+
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+
+			int length = header.getInt();
+			int expectedChecksum = header.getInt();
+
+			if (length < 0 || position + HEADER_SIZE + length > size) {
+				break; // Torn or garbled header.
+			}
+
+			ByteBuffer record = ByteBuffer.allocate(length);
+			readFully(record, position + HEADER_SIZE);
+
+			checksum.reset();
+			checksum.update(record.array(), 0, length);
+
+			if ((int) checksum.getValue() != expectedChecksum) {
+				break; // Torn record.
+			}
+
+			records.add(record.array());
+			position += HEADER_SIZE + length;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Fills <code>buffer</code> from the file starting at
+	 * <code>position</code>.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param position
+	 *            the position in the file
+	 * @throws IOException
+	 *             if the file cannot be read or ends first
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+
+			if (read < 0) {
+				throw new IOException("Unexpected end of the log at position " + position);
+			}
+
+			position += read;
+		}
+	}
+
+	/**
+	 * Gets the records that were in the file when the log was opened, in the
+	 * order they were appended.
+	 *
+	 * @return the recovered records
+	 */
+	public List<byte[]> getRecoveredRecords() {
+		return recoveredRecords;
+	}
+
+	/**
+	 * Appends a record to the log. The record is not durable until
+	 * {@link #awaitDurable(long)} returns for its sequence number.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the sequence number of the record
+	 * @throws IOException
+	 *             if the log failed before
+	 */
+	public long append(byte[] record) throws IOException {
+		CRC32 checksum = new CRC32();
+		checksum.update(record, 0, record.length);
+
+		lock.lock();
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+
+			appended = ensureRemaining(appended, HEADER_SIZE + record.length);
+			appended.putInt(record.length);
+			appended.putInt((int) checksum.getValue());
+			appended.put(record);
+			return ++appendedSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the record with sequence number <code>sequence</code> and
+	 * all records before it are durable, forcing the file if no other thread
+	 * is already doing so.
+	 *
+	 * @param sequence
+	 *            the sequence number returned by {@link #append(byte[])}
+	 * @throws IOException
+	 *             if the records cannot be written or forced
+	 */
+	public void awaitDurable(long sequence) throws IOException {
+		lock.lock();
+		try {
+			while (durableSequence < sequence) {
+				if (failure != null) {
+					throw failure;
+				}
+
+				if (forcing) {
+					forced.awaitUninterruptibly();
+					continue;
+				}
+
+				// Become the leader and force everything appended so far.
+				forcing = true;
+				long target = appendedSequence;
+				ByteBuffer batch = appended;
+				appended = spare;
+				spare = null;
+				lock.unlock();
+
+				IOException forceFailure = null;
+
+				try {
+					batch.flip();
+
+					while (batch.hasRemaining()) {
+						channel.write(batch);
+					}
+
+					channel.force(false);
+				} catch (IOException ex) {
+					forceFailure = ex;
+				} finally {
+					lock.lock();
+				}
+
+				batch.clear();
+				spare = batch;
+				forcing = false;
+				numForces++;
+
+				if (forceFailure != null) {
+					failure = forceFailure;
+				} else {
+					durableSequence = target;
+				}
+
+				forced.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of times the file was forced.
+	 *
+	 * @return the number of forces
+	 */
+	public long getNumForces() {
+		lock.lock();
+		try {
+			return numForces;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a buffer with the contents of <code>buffer</code> and room for at
+	 * least <code>size</code> more bytes.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param size
+	 *            the number of bytes needed
+	 * @return the buffer, or a larger copy of it
+	 */
+	private static ByteBuffer ensureRemaining(ByteBuffer buffer, int size) {
+		if (buffer.remaining() >= size) {
+			return buffer;
+		}
+
+		int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+		ByteBuffer larger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * Forces the records appended so far and closes the file.
+	 *
+	 * @throws IOException
+	 *             if the records cannot be written or the file closed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			long sequence;
+
+			lock.lock();
+			try {
+				sequence = appendedSequence;
+			} finally {
+				lock.unlock();
+			}
+
+			awaitDurable(sequence);
+		} finally {
+			channel.close();
+		}
+	}
+}